@@ -16,10 +16,8 @@ package it.PioSoft.PioBase;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
-@EnableScheduling
 public class PioBaseApplication {
 
 	public static void main(String[] args) {
@@ -6,7 +6,9 @@ package it.PioSoft.PioBase.configs;
  * Gestisce la configurazione centralizzata per:
  * - Mappatura MAC address -> IP address dei PC target
  * - Credenziali SSH per l'accesso remoto ai PC
- * - Parametri di connessione SSH (porta, timeout)
+ * - Parametri di connessione SSH (porta, timeout, pool di sessioni)
+ * - Porta UDP per la ricezione degli heartbeat dei PC
+ * - Agente remoto che invia in continuo CPU, RAM e uptime dei PC
  *
  * Carica le configurazioni dal file application.properties
  * utilizzando il prefisso "pc" per tutte le proprietà correlate
@@ -30,6 +32,8 @@ public class PcMappingConfig {
 
     private Map<String, String> mapping = new HashMap<>();
     private Ssh ssh = new Ssh();
+    private Heartbeat heartbeat = new Heartbeat();
+    private Agent agent = new Agent();
 
     public Map<String, String> getMapping() {
         return mapping;
@@ -47,6 +51,22 @@ public class PcMappingConfig {
         this.ssh = ssh;
     }
 
+    public Heartbeat getHeartbeat() {
+        return heartbeat;
+    }
+
+    public void setHeartbeat(Heartbeat heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    public Agent getAgent() {
+        return agent;
+    }
+
+    public void setAgent(Agent agent) {
+        this.agent = agent;
+    }
+
     public String getIpByMac(String macAddress) {
         return mapping.get(macAddress.toLowerCase().replace(":", "").replace("-", ""));
     }
@@ -56,6 +76,11 @@ public class PcMappingConfig {
         private String password = "password";
         private int port = 22;
         private int timeout = 5000;
+        // Pool di sessioni: keepalive, chiusura delle sessioni inattive, canali contemporanei per host
+        private int keepAliveMs = 15000;
+        private long idleTimeoutMs = 300000;
+        private int maxChannelsPerHost = 4;
+        private Breaker breaker = new Breaker();
 
         public String getUsername() {
             return username;
@@ -88,5 +113,173 @@ public class PcMappingConfig {
         public void setTimeout(int timeout) {
             this.timeout = timeout;
         }
+
+        public int getKeepAliveMs() {
+            return keepAliveMs;
+        }
+
+        public void setKeepAliveMs(int keepAliveMs) {
+            this.keepAliveMs = keepAliveMs;
+        }
+
+        public long getIdleTimeoutMs() {
+            return idleTimeoutMs;
+        }
+
+        public void setIdleTimeoutMs(long idleTimeoutMs) {
+            this.idleTimeoutMs = idleTimeoutMs;
+        }
+
+        public int getMaxChannelsPerHost() {
+            return maxChannelsPerHost;
+        }
+
+        public void setMaxChannelsPerHost(int maxChannelsPerHost) {
+            this.maxChannelsPerHost = maxChannelsPerHost;
+        }
+
+        public Breaker getBreaker() {
+            return breaker;
+        }
+
+        public void setBreaker(Breaker breaker) {
+            this.breaker = breaker;
+        }
+
+        /**
+         * Circuit breaker SSH per host e tipo di operazione (pc.ssh.breaker.*)
+         * Si apre quando negli ultimi windowSize tentativi (almeno minCalls) i fallimenti
+         * raggiungono failureRatePercent; resta aperto openMs, raddoppiati a ogni nuova apertura
+         * consecutiva fino a maxOpenMs. Un tentativo di prova senza esito dopo trialTimeoutMs conta come
+         * fallito (deve superare la durata massima dei comandi SSH).
+         */
+        public static class Breaker {
+            private int windowSize = 10;
+            private int minCalls = 3;
+            private int failureRatePercent = 50;
+            private long openMs = 5000;
+            private long maxOpenMs = 300000;
+            private long trialTimeoutMs = 120000;
+
+            public int getWindowSize() {
+                return windowSize;
+            }
+
+            public void setWindowSize(int windowSize) {
+                this.windowSize = windowSize;
+            }
+
+            public int getMinCalls() {
+                return minCalls;
+            }
+
+            public void setMinCalls(int minCalls) {
+                this.minCalls = minCalls;
+            }
+
+            public int getFailureRatePercent() {
+                return failureRatePercent;
+            }
+
+            public void setFailureRatePercent(int failureRatePercent) {
+                this.failureRatePercent = failureRatePercent;
+            }
+
+            public long getOpenMs() {
+                return openMs;
+            }
+
+            public void setOpenMs(long openMs) {
+                this.openMs = openMs;
+            }
+
+            public long getMaxOpenMs() {
+                return maxOpenMs;
+            }
+
+            public void setMaxOpenMs(long maxOpenMs) {
+                this.maxOpenMs = maxOpenMs;
+            }
+
+            public long getTrialTimeoutMs() {
+                return trialTimeoutMs;
+            }
+
+            public void setTrialTimeoutMs(long trialTimeoutMs) {
+                this.trialTimeoutMs = trialTimeoutMs;
+            }
+        }
+    }
+
+    public static class Heartbeat {
+        private boolean enabled = true;
+        private int port = 8090;
+        private int batchMs = 100;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public int getBatchMs() {
+            return batchMs;
+        }
+
+        public void setBatchMs(int batchMs) {
+            this.batchMs = batchMs;
+        }
+    }
+
+    public static class Agent {
+        private boolean enabled = true;
+        // Intervallo tra due campioni inviati dal PC
+        private int intervalMs = 2000;
+        // Agente fermato se nessuno legge i suoi campioni per questo tempo
+        private long idleStopMs = 60000;
+        // Attesa prima di riavviare un agente che non è partito o si è interrotto
+        private long retryMs = 30000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getIntervalMs() {
+            return intervalMs;
+        }
+
+        public void setIntervalMs(int intervalMs) {
+            this.intervalMs = intervalMs;
+        }
+
+        public long getIdleStopMs() {
+            return idleStopMs;
+        }
+
+        public void setIdleStopMs(long idleStopMs) {
+            this.idleStopMs = idleStopMs;
+        }
+
+        public long getRetryMs() {
+            return retryMs;
+        }
+
+        public void setRetryMs(long retryMs) {
+            this.retryMs = retryMs;
+        }
     }
 }
@@ -0,0 +1,81 @@
+package it.PioSoft.PioBase.configs;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Configurazione dello scheduler di monitoraggio
+ *
+ * periods: periodo in millisecondi per nome del job, ad esempio
+ * monitor.scheduler.periods.check-cam-status=5000
+ * I job non elencati usano il periodo predefinito dichiarato dal servizio.
+ *
+ * forcedCheckDebounceMs: finestra in cui le richieste di controllo forzato per lo stesso PC
+ * vengono accorpate; forcedCheckThreads: thread che eseguono i controlli forzati.
+ *
+ * systemInfoRefreshMs: ogni quanto vengono raccolte le info di sistema (SSH) di un PC monitorato;
+ * systemInfoThreads: thread della raccolta; systemInfoMaxAgeMs: oltre questa età le info raccolte
+ * non vengono più mostrate negli stati.
+ */
+@Component
+@ConfigurationProperties(prefix = "monitor.scheduler")
+public class SchedulerConfig {
+
+    private Map<String, Long> periods = new HashMap<>();
+    private long forcedCheckDebounceMs = 250;
+    private int forcedCheckThreads = 2;
+    private long systemInfoRefreshMs = 2000;
+    private int systemInfoThreads = 2;
+    private long systemInfoMaxAgeMs = 10000;
+
+    public Map<String, Long> getPeriods() {
+        return periods;
+    }
+
+    public void setPeriods(Map<String, Long> periods) {
+        this.periods = periods;
+    }
+
+    public long getForcedCheckDebounceMs() {
+        return forcedCheckDebounceMs;
+    }
+
+    public void setForcedCheckDebounceMs(long forcedCheckDebounceMs) {
+        this.forcedCheckDebounceMs = forcedCheckDebounceMs;
+    }
+
+    public int getForcedCheckThreads() {
+        return forcedCheckThreads;
+    }
+
+    public void setForcedCheckThreads(int forcedCheckThreads) {
+        this.forcedCheckThreads = forcedCheckThreads;
+    }
+
+    public long getSystemInfoRefreshMs() {
+        return systemInfoRefreshMs;
+    }
+
+    public void setSystemInfoRefreshMs(long systemInfoRefreshMs) {
+        this.systemInfoRefreshMs = systemInfoRefreshMs;
+    }
+
+    public int getSystemInfoThreads() {
+        return systemInfoThreads;
+    }
+
+    public void setSystemInfoThreads(int systemInfoThreads) {
+        this.systemInfoThreads = systemInfoThreads;
+    }
+
+    public long getSystemInfoMaxAgeMs() {
+        return systemInfoMaxAgeMs;
+    }
+
+    public void setSystemInfoMaxAgeMs(long systemInfoMaxAgeMs) {
+        this.systemInfoMaxAgeMs = systemInfoMaxAgeMs;
+    }
+}
@@ -0,0 +1,56 @@
+package it.PioSoft.PioBase.configs;
+
+import it.PioSoft.PioBase.services.StatusStream;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configurazione della consegna degli eventi SSE
+ *
+ * Ogni client ha una coda di uscita limitata, svuotata da un pool di thread dedicato:
+ * - queueCapacity: eventi in attesa per client
+ * - overflowPolicy: cosa fare a coda piena (drop-oldest, coalesce, disconnect)
+ * - deliveryThreads: thread che scrivono sulle connessioni dei client
+ * - replayBufferSize: eventi tenuti in memoria per topic per la ripresa con Last-Event-ID
+ */
+@Component
+@ConfigurationProperties(prefix = "sse")
+public class SseConfig {
+
+    private int queueCapacity = 16;
+    private StatusStream.OverflowPolicy overflowPolicy = StatusStream.OverflowPolicy.COALESCE;
+    private int deliveryThreads = 4;
+    private int replayBufferSize = 32;
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public StatusStream.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(StatusStream.OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public int getDeliveryThreads() {
+        return deliveryThreads;
+    }
+
+    public void setDeliveryThreads(int deliveryThreads) {
+        this.deliveryThreads = deliveryThreads;
+    }
+
+    public int getReplayBufferSize() {
+        return replayBufferSize;
+    }
+
+    public void setReplayBufferSize(int replayBufferSize) {
+        this.replayBufferSize = replayBufferSize;
+    }
+}
@@ -0,0 +1,30 @@
+package it.PioSoft.PioBase.configs;
+
+import it.PioSoft.PioBase.controller.MonitorWebSocketHandler;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * Registrazione del WebSocket multiplexato di monitoraggio
+ *
+ * Un solo socket per tutti i topic: evita il limite di connessioni per host dei browser
+ * e non occupa un thread Tomcat per ogni stream come gli endpoint SSE.
+ */
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final MonitorWebSocketHandler monitorWebSocketHandler;
+
+    public WebSocketConfig(MonitorWebSocketHandler monitorWebSocketHandler) {
+        this.monitorWebSocketHandler = monitorWebSocketHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        // Stessa apertura degli altri controller (@CrossOrigin origins = "*")
+        registry.addHandler(monitorWebSocketHandler, "/api/ws/monitor").setAllowedOrigins("*");
+    }
+}
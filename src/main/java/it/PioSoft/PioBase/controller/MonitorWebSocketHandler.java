@@ -0,0 +1,227 @@
+package it.PioSoft.PioBase.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.PioSoft.PioBase.services.DeviceMonitoringService;
+import it.PioSoft.PioBase.services.HostStateTable;
+import it.PioSoft.PioBase.services.IpCamScannerService;
+import it.PioSoft.PioBase.services.MediaStatusService;
+import it.PioSoft.PioBase.services.SseEvent;
+import it.PioSoft.PioBase.services.StatusStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * WebSocket multiplexato per tutti i topic di monitoraggio
+ *
+ * Una sola connessione (ws://host:8080/api/ws/monitor) può sottoscrivere un numero qualsiasi di topic
+ * con piccoli messaggi di controllo:
+ * <pre>
+ * {"action":"subscribe","topic":"system:192.168.1.10","mode":"delta","lastEventId":"..."}
+ * {"action":"subscribe","topic":"system:192.168.1.10","minInterval":5000,"fields":["pcOnline","camOnline"]}
+ * {"action":"unsubscribe","topic":"system:192.168.1.10"}
+ * </pre>
+ * Topic: device:&lt;ip&gt;, system:&lt;pcIp&gt;, camera, thumbnails, stream.
+ * Opzioni facoltative come negli endpoint SSE: minInterval, maxInterval (ms), fields (array o
+ * stringa separata da virgole), transitionsOnly.
+ *
+ * Ogni sottoscrizione è uno {@link StatusStream} alimentato dagli stessi eventi degli endpoint SSE
+ * (stessi id, stessa coda limitata, stessa modalità delta); gli eventi arrivano come
+ * {"type":"event","event":...,"resource":...,"id":...,"data":{...}}.
+ */
+@Component
+public class MonitorWebSocketHandler extends TextWebSocketHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(MonitorWebSocketHandler.class);
+    private static final int SEND_TIME_LIMIT_MS = 10_000;
+    private static final int SEND_BUFFER_LIMIT = 512 * 1024;
+
+    private final DeviceMonitoringService deviceMonitoringService;
+    private final IpCamScannerService ipCamScannerService;
+    private final MediaStatusService mediaStatusService;
+    private final ObjectMapper objectMapper;
+
+    // Sottoscrizioni per sessione, indicizzate per topic
+    private final Map<String, Map<String, StatusStream>> subscriptions = new ConcurrentHashMap<>();
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+
+    public MonitorWebSocketHandler(DeviceMonitoringService deviceMonitoringService,
+                                   IpCamScannerService ipCamScannerService,
+                                   MediaStatusService mediaStatusService,
+                                   ObjectMapper objectMapper) {
+        this.deviceMonitoringService = deviceMonitoringService;
+        this.ipCamScannerService = ipCamScannerService;
+        this.mediaStatusService = mediaStatusService;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        // Le sottoscrizioni scrivono da thread di consegna diversi: invii serializzati dal decoratore
+        sessions.put(session.getId(),
+            new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT_MS, SEND_BUFFER_LIMIT));
+        subscriptions.put(session.getId(), new ConcurrentHashMap<>());
+        logger.info("Client WebSocket connesso: {}", session.getRemoteAddress());
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        WebSocketSession out = sessions.get(session.getId());
+        if (out == null) {
+            return;
+        }
+        JsonNode request;
+        try {
+            request = objectMapper.readTree(message.getPayload());
+        } catch (IOException e) {
+            reply(out, "error", null, Map.of("message", "Messaggio non valido"));
+            return;
+        }
+        String action = request.path("action").asText("");
+        String topic = request.path("topic").asText("");
+        switch (action) {
+            case "subscribe" -> subscribe(out, topic, StatusStream.Mode.parse(request.path("mode").asText("full")),
+                parseOptions(request), request.hasNonNull("lastEventId") ? request.get("lastEventId").asText() : null);
+            case "unsubscribe" -> {
+                StatusStream stream = subscriptions.getOrDefault(session.getId(), Map.of()).remove(topic);
+                if (stream != null) {
+                    stream.release();
+                }
+                reply(out, "unsubscribed", topic, Map.of());
+            }
+            default -> reply(out, "error", topic, Map.of("message", "Azione sconosciuta: " + action));
+        }
+    }
+
+    private static StatusStream.Options parseOptions(JsonNode request) {
+        JsonNode fields = request.path("fields");
+        String fieldList = null;
+        if (fields.isArray()) {
+            List<String> names = new ArrayList<>();
+            fields.forEach(field -> names.add(field.asText()));
+            fieldList = String.join(",", names);
+        } else if (fields.isTextual()) {
+            fieldList = fields.asText();
+        }
+        return StatusStream.Options.parse(
+            request.hasNonNull("minInterval") ? request.get("minInterval").asLong() : null,
+            request.hasNonNull("maxInterval") ? request.get("maxInterval").asLong() : null,
+            fieldList,
+            request.path("transitionsOnly").asBoolean(false));
+    }
+
+    private void subscribe(WebSocketSession session, String topic, StatusStream.Mode mode,
+                           StatusStream.Options options, String lastEventId) throws IOException {
+        Map<String, StatusStream> sessionStreams = subscriptions.get(session.getId());
+        if (sessionStreams == null) {
+            return;
+        }
+        StatusStream previous = sessionStreams.remove(topic);
+        if (previous != null) {
+            previous.release();
+        }
+
+        StatusStream.Transport transport = new SocketTransport(session);
+        StatusStream stream;
+        if (topic.startsWith("device:") && HostStateTable.isIpv4(topic.substring(7))) {
+            stream = deviceMonitoringService.openDeviceStream(topic.substring(7), transport, mode, options, lastEventId);
+        } else if (topic.startsWith("system:") && HostStateTable.isIpv4(topic.substring(7))) {
+            stream = deviceMonitoringService.openSystemStream(topic.substring(7), transport, mode, options, lastEventId);
+        } else if ("camera".equals(topic)) {
+            String camIp = ipCamScannerService.getCurrentCamIp();
+            if (camIp == null) {
+                reply(session, "error", topic, Map.of("message", "IP cam non ancora trovata, scansione in corso..."));
+                return;
+            }
+            stream = deviceMonitoringService.openDeviceStream(camIp, transport, mode, options, lastEventId);
+        } else if (MediaStatusService.isTopic(topic)) {
+            stream = mediaStatusService.open(topic, transport, mode, options, lastEventId);
+        } else {
+            reply(session, "error", topic, Map.of("message", "Topic sconosciuto"));
+            return;
+        }
+
+        sessionStreams.put(topic, stream);
+        // Se la sessione si è chiusa durante l'apertura, lo stream non deve restare registrato
+        if (!session.isOpen() && sessionStreams.remove(topic) != null) {
+            stream.release();
+            return;
+        }
+        reply(session, "subscribed", topic, Map.of("event", stream.getEventName(), "resource", stream.getTopic(),
+            "mode", stream.getMode().name().toLowerCase()));
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        sessions.remove(session.getId());
+        Map<String, StatusStream> sessionStreams = subscriptions.remove(session.getId());
+        if (sessionStreams != null) {
+            sessionStreams.values().forEach(StatusStream::release);
+        }
+        logger.info("Client WebSocket disconnesso: {} ({})", session.getRemoteAddress(), status);
+    }
+
+    private void reply(WebSocketSession session, String type, String topic, Map<String, Object> fields)
+        throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("type", type);
+        if (topic != null) {
+            body.put("topic", topic);
+        }
+        body.putAll(fields);
+        try {
+            session.sendMessage(new TextMessage(objectMapper.writeValueAsBytes(body)));
+        } catch (RuntimeException e) {
+            // Limiti di invio del decoratore superati: la sessione viene chiusa da lui
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Canale di uscita di una sottoscrizione sulla sessione condivisa
+     */
+    private static final class SocketTransport implements StatusStream.Transport {
+
+        private final WebSocketSession session;
+
+        SocketTransport(WebSocketSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public SseEvent.Framing framing() {
+            return SseEvent.Framing.WEBSOCKET;
+        }
+
+        @Override
+        public void send(byte[] frame) throws IOException {
+            try {
+                session.sendMessage(new TextMessage(frame));
+            } catch (RuntimeException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void complete(Throwable error) {
+            // Errore di scrittura o client troppo lento: il problema è la connessione, non il singolo topic
+            try {
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
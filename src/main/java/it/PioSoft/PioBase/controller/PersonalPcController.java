@@ -27,12 +27,22 @@ import it.PioSoft.PioBase.services.SystemInfoService;
 import it.PioSoft.PioBase.services.DeviceMonitoringService;
 import it.PioSoft.PioBase.services.IpCamScannerService;
 import it.PioSoft.PioBase.services.PcPingMonitorService;
+import it.PioSoft.PioBase.services.LatencyStatsService;
+import it.PioSoft.PioBase.services.StatusStream;
+import it.PioSoft.PioBase.services.SseDeliveryService;
+import it.PioSoft.PioBase.services.MonitoringScheduler;
+import it.PioSoft.PioBase.services.ForcedCheckDispatcher;
+import it.PioSoft.PioBase.services.SshSessionPool;
+import it.PioSoft.PioBase.services.MetricsAgentService;
+import it.PioSoft.PioBase.services.SystemInfoCollector;
+import it.PioSoft.PioBase.services.HeartbeatListenerService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.List;
 import java.util.Map;
 
 
@@ -67,6 +77,30 @@ public class PersonalPcController {
     @Autowired
     private PcPingMonitorService pcPingMonitorService;
 
+    @Autowired
+    private LatencyStatsService latencyStatsService;
+
+    @Autowired
+    private SseDeliveryService sseDeliveryService;
+
+    @Autowired
+    private MonitoringScheduler monitoringScheduler;
+
+    @Autowired
+    private ForcedCheckDispatcher forcedCheckDispatcher;
+
+    @Autowired
+    private SshSessionPool sshSessionPool;
+
+    @Autowired
+    private MetricsAgentService metricsAgentService;
+
+    @Autowired
+    private SystemInfoCollector systemInfoCollector;
+
+    @Autowired
+    private HeartbeatListenerService heartbeatListenerService;
+
     @PostMapping("/wol")
     public ResponseEntity<String> wakeOnLan(@RequestBody WolRequest request) {
         try {
@@ -77,6 +111,14 @@ public class PersonalPcController {
             String ipAddress = request.getIpAddress();
             String pin = request.getPin();
 
+            // Il PC sta per accendersi: monitoraggio ravvicinato per rilevarlo subito online
+            String monitoredIp = ipAddress != null && !ipAddress.isEmpty()
+                ? ipAddress
+                : pcManagementService.getIpByMac(request.getMacAddress());
+            if (monitoredIp != null) {
+                pcPingMonitorService.notifyWakeUpRequested(monitoredIp);
+            }
+
             if (ipAddress != null && !ipAddress.isEmpty()) {
                 if (pin != null && !pin.isEmpty()) {
                     pinEntryService.enterPinAfterWakeUp(ipAddress, pin)
@@ -207,7 +249,15 @@ public class PersonalPcController {
                 String error = (String) systemInfo.get("error");
 
                 // Gestisci errori SSH specifici
-                if (error.contains("Permission denied") || error.contains("Auth fail")) {
+                if (error.startsWith(SshSessionPool.CIRCUIT_OPEN)) {
+                    // Rifiutato senza contattare il PC: i tentativi recenti sono falliti
+                    return ResponseEntity.status(503).body(Map.of(
+                        "error", "SSH temporaneamente sospeso",
+                        "details", error,
+                        "suggestion", "Gli ultimi tentativi SSH verso il PC sono falliti: riprovare più tardi.",
+                        "ip", ip
+                    ));
+                } else if (error.contains("Permission denied") || error.contains("Auth fail")) {
                     return ResponseEntity.status(401).body(Map.of(
                         "error", "Errore autenticazione SSH",
                         "details", "Le credenziali SSH configurate non sono corrette per il PC " + ip + ". Verificare username/password nelle configurazioni.",
@@ -248,21 +298,124 @@ public class PersonalPcController {
         }
     }
 
+    /**
+     * Monitoraggio SSE dello stato di un dispositivo
+     * Opzioni per client: minInterval e maxInterval (ms, il secondo reinvia l'ultimo stato come heartbeat),
+     * fields (campi separati da virgola) e transitionsOnly (solo quando i campi cambiano)
+     * GET /api/monitor/{ip}
+     */
     @GetMapping(value = "/monitor/{ip}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter monitorDevice(@PathVariable String ip) {
+    public SseEmitter monitorDevice(@PathVariable String ip, @RequestParam(defaultValue = "full") String mode,
+                                    @RequestParam(required = false) Long minInterval,
+                                    @RequestParam(required = false) Long maxInterval,
+                                    @RequestParam(required = false) String fields,
+                                    @RequestParam(required = false) Boolean transitionsOnly,
+                                    @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
         System.out.println("Client connesso per monitoraggio dispositivo: " + ip);
-        return deviceMonitoringService.subscribeToDevice(ip);
+        return deviceMonitoringService.subscribeToDevice(ip, StatusStream.Mode.parse(mode),
+            StatusStream.Options.parse(minInterval, maxInterval, fields, transitionsOnly), lastEventId);
     }
 
     /**
      * Endpoint unificato per monitoraggio combinato PC + IP Camera
      * Invia aggiornamenti SSE con entrambi gli stati in un unico evento
+     * Con ?mode=delta invia solo i campi cambiati (evento systemStatusDelta) e un keyframe ogni 30 secondi
+     * Alla riconnessione con Last-Event-ID gli eventi persi vengono reinviati dalla memoria
+     * Stesse opzioni per client di /monitor/{ip}, es. ?minInterval=5000&amp;fields=pcOnline,camOnline
      * GET /api/monitor/system/{pcIp}
      */
     @GetMapping(value = "/monitor/system/{pcIp}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter monitorSystem(@PathVariable String pcIp) {
+    public SseEmitter monitorSystem(@PathVariable String pcIp, @RequestParam(defaultValue = "full") String mode,
+                                    @RequestParam(required = false) Long minInterval,
+                                    @RequestParam(required = false) Long maxInterval,
+                                    @RequestParam(required = false) String fields,
+                                    @RequestParam(required = false) Boolean transitionsOnly,
+                                    @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
         System.out.println("Client connesso per monitoraggio combinato PC+Cam - PC IP: " + pcIp);
-        return deviceMonitoringService.subscribeToSystemStatus(pcIp);
+        return deviceMonitoringService.subscribeToSystemStatus(pcIp, StatusStream.Mode.parse(mode),
+            StatusStream.Options.parse(minInterval, maxInterval, fields, transitionsOnly), lastEventId);
+    }
+
+    /**
+     * Metriche di consegna SSE per ogni client connesso: profondità della coda,
+     * eventi inviati/saltati/scartati e latenza tra pubblicazione e scrittura
+     * GET /api/monitor/subscribers
+     */
+    @GetMapping("/monitor/subscribers")
+    public ResponseEntity<List<StatusStream.Metrics>> getSubscriberMetrics() {
+        return ResponseEntity.ok(sseDeliveryService.getMetrics());
+    }
+
+    /**
+     * Metriche dei job periodici di monitoraggio, una corsia per job: ritardo di avvio,
+     * durata, sforamenti del periodo e tick saltati
+     * GET /api/monitor/scheduler
+     */
+    @GetMapping("/monitor/scheduler")
+    public ResponseEntity<List<MonitoringScheduler.LaneMetrics>> getSchedulerMetrics() {
+        return ResponseEntity.ok(monitoringScheduler.getMetrics());
+    }
+
+    /**
+     * Contatori dei controlli di stato forzati: richieste, accorpate, eseguite, in attesa
+     * GET /api/monitor/forced-checks
+     */
+    @GetMapping("/monitor/forced-checks")
+    public ResponseEntity<ForcedCheckDispatcher.Metrics> getForcedCheckMetrics() {
+        return ResponseEntity.ok(forcedCheckDispatcher.getMetrics());
+    }
+
+    /**
+     * Stato del pool di sessioni SSH: per host sessione connessa, canali aperti,
+     * connessioni create e comandi eseguiti; per host e tipo di operazione stato del circuito
+     * GET /api/monitor/ssh
+     */
+    @GetMapping("/monitor/ssh")
+    public ResponseEntity<SshSessionPool.Metrics> getSshPoolMetrics() {
+        return ResponseEntity.ok(sshSessionPool.getMetrics());
+    }
+
+    /**
+     * Agenti remoti delle metriche di sistema: in esecuzione, campioni ricevuti, età dell'ultimo campione
+     * GET /api/monitor/agents
+     */
+    @GetMapping("/monitor/agents")
+    public ResponseEntity<List<MetricsAgentService.AgentMetrics>> getMetricsAgents() {
+        return ResponseEntity.ok(metricsAgentService.getMetrics());
+    }
+
+    /**
+     * Raccolta in background delle info di sistema: per PC età dell'ultimo valore,
+     * durata dell'ultima raccolta, raccolte e fallimenti
+     * GET /api/monitor/system-info
+     */
+    @GetMapping("/monitor/system-info")
+    public ResponseEntity<SystemInfoCollector.Metrics> getSystemInfoCollector() {
+        return ResponseEntity.ok(systemInfoCollector.getMetrics());
+    }
+
+    /**
+     * Ricevitore heartbeat UDP: in ascolto, datagrammi accettati e scartati, ultimo heartbeat
+     * per PC con CPU e RAM inviate dal client (-1 se assenti)
+     * GET /api/monitor/heartbeats
+     */
+    @GetMapping("/monitor/heartbeats")
+    public ResponseEntity<HeartbeatListenerService.Metrics> getHeartbeatMetrics() {
+        return ResponseEntity.ok(heartbeatListenerService.getMetrics());
+    }
+
+    /**
+     * Statistiche di latenza di un host monitorato (PC o IP cam)
+     * Percentili p50/p90/p99, massimo e tasso di perdita sulle finestre di 1, 5 e 15 minuti
+     * GET /api/monitor/latency/{ip}
+     */
+    @GetMapping("/monitor/latency/{ip}")
+    public ResponseEntity<Map<String, Object>> getLatencyStats(@PathVariable String ip) {
+        Map<String, Object> report = latencyStatsService.getLatencyReport(ip);
+        if (!latencyStatsService.hasStats(ip)) {
+            return ResponseEntity.status(404).body(report);
+        }
+        return ResponseEntity.ok(report);
     }
 
     /**
@@ -270,11 +423,13 @@ public class PersonalPcController {
      * Il client si sottoscrive e riceve aggiornamenti automatici sullo stato della cam
      */
     @GetMapping(value = "/ipcam/monitor", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter monitorIpCam() {
+    public SseEmitter monitorIpCam(@RequestParam(defaultValue = "full") String mode,
+                                   @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
         String camIp = ipCamScannerService.getCurrentCamIp();
         if (camIp != null) {
             System.out.println("Client connesso per monitoraggio IP cam: " + camIp);
-            return deviceMonitoringService.subscribeToDevice(camIp);
+            return deviceMonitoringService.subscribeToDevice(camIp, StatusStream.Mode.parse(mode),
+                StatusStream.Options.DEFAULT, lastEventId);
         } else {
             System.out.println("Nessuna IP cam configurata, creazione emitter vuoto");
             SseEmitter emitter = new SseEmitter(Long.MAX_VALUE);
@@ -330,7 +485,7 @@ public class PersonalPcController {
         boolean statusChanged = pcPingMonitorService.receivePing(pcIp);
 
         if (statusChanged) {
-            // Se lo stato è cambiato, forza aggiornamento SSE
+            // Se lo stato è cambiato, forza aggiornamento SSE (accodato: la risposta non attende l'SSH)
             deviceMonitoringService.forceCombinedStatusCheck(pcIp);
         }
 
@@ -0,0 +1,47 @@
+package it.PioSoft.PioBase.dto;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Stato della IP cam per il topic del dispositivo (/api/ipcam/monitor)
+ *
+ * JSON: ip, timestamp, online, type ("ipcam"), port e rtspUrl se la cam è online.
+ */
+public record CameraStatus(String ip, long timestamp, boolean online, int port, String rtspUrl)
+    implements StatusPayload {
+
+    @Override
+    public void writeTo(StatusJson json) {
+        json.beginObject()
+            .field("ip", ip)
+            .field("timestamp", timestamp)
+            .field("online", online)
+            .field("type", "ipcam")
+            .field("port", port)
+            .fieldIfPresent("rtspUrl", rtspUrl)
+            .endObject();
+    }
+
+    @Override
+    public boolean sameState(StatusPayload other) {
+        return other instanceof CameraStatus that
+            && online == that.online
+            && port == that.port
+            && Objects.equals(ip, that.ip)
+            && Objects.equals(rtspUrl, that.rtspUrl);
+    }
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("ip", ip);
+        map.put("timestamp", timestamp);
+        map.put("online", online);
+        map.put("type", "ipcam");
+        map.put("port", port);
+        DeviceStatus.putIfPresent(map, "rtspUrl", rtspUrl);
+        return map;
+    }
+}
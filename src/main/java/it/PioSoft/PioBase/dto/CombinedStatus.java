@@ -0,0 +1,100 @@
+package it.PioSoft.PioBase.dto;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Stato combinato PC + IP Cam (/api/monitor/system/{pcIp})
+ *
+ * JSON: timestamp, pcIp, pcOnline, pcState, pcLastShutdownMs se noto, stale se vero,
+ * pcHostname/pcOs/pcUptime ("N/A" se non disponibili), pcError e pcSshCircuit se presenti e i campi della cam.
+ * @param pcLastShutdownMs durata dell'ultimo spegnimento, -1 se non nota
+ * @param pcSshCircuit stato del circuito SSH del PC (OPEN, HALF_OPEN), null se chiuso
+ * @param camera campi della cam, calcolati una volta per ciclo e condivisi da tutti i PC
+ */
+public record CombinedStatus(long timestamp, String pcIp, boolean pcOnline, String pcState, long pcLastShutdownMs,
+                             boolean stale, String pcHostname, String pcOs, String pcUptime, String pcError,
+                             String pcSshCircuit, Camera camera) implements StatusPayload {
+
+    public static final String NOT_AVAILABLE = "N/A";
+
+    /**
+     * Campi della IP Cam nello stato combinato (solo ping, nessun SSH)
+     * @param camIp null se la cam non è ancora stata trovata (scritto comunque come null)
+     */
+    public record Camera(String camIp, boolean camOnline, String camRtspUrl, String camError) {
+
+        void writeTo(StatusJson json) {
+            json.field("camIp", camIp)
+                .field("camOnline", camOnline)
+                .fieldIfPresent("camRtspUrl", camRtspUrl)
+                .fieldIfPresent("camError", camError);
+        }
+
+        void putInto(Map<String, Object> map) {
+            map.put("camIp", camIp);
+            map.put("camOnline", camOnline);
+            DeviceStatus.putIfPresent(map, "camRtspUrl", camRtspUrl);
+            DeviceStatus.putIfPresent(map, "camError", camError);
+        }
+    }
+
+    @Override
+    public void writeTo(StatusJson json) {
+        json.beginObject()
+            .field("timestamp", timestamp)
+            .field("pcIp", pcIp)
+            .field("pcOnline", pcOnline)
+            .field("pcState", pcState);
+        if (pcLastShutdownMs >= 0) {
+            json.field("pcLastShutdownMs", pcLastShutdownMs);
+        }
+        json.flag("stale", stale)
+            .field("pcHostname", pcHostname)
+            .field("pcOs", pcOs)
+            .field("pcUptime", pcUptime)
+            .fieldIfPresent("pcError", pcError)
+            .fieldIfPresent("pcSshCircuit", pcSshCircuit);
+        camera.writeTo(json);
+        json.endObject();
+    }
+
+    @Override
+    public boolean sameState(StatusPayload other) {
+        return other instanceof CombinedStatus that
+            && pcOnline == that.pcOnline
+            && pcLastShutdownMs == that.pcLastShutdownMs
+            && stale == that.stale
+            && Objects.equals(pcIp, that.pcIp)
+            && Objects.equals(pcState, that.pcState)
+            && Objects.equals(pcHostname, that.pcHostname)
+            && Objects.equals(pcOs, that.pcOs)
+            && Objects.equals(pcUptime, that.pcUptime)
+            && Objects.equals(pcError, that.pcError)
+            && Objects.equals(pcSshCircuit, that.pcSshCircuit)
+            && camera.equals(that.camera);
+    }
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("timestamp", timestamp);
+        map.put("pcIp", pcIp);
+        map.put("pcOnline", pcOnline);
+        map.put("pcState", pcState);
+        if (pcLastShutdownMs >= 0) {
+            map.put("pcLastShutdownMs", pcLastShutdownMs);
+        }
+        if (stale) {
+            map.put("stale", true);
+        }
+        map.put("pcHostname", pcHostname);
+        map.put("pcOs", pcOs);
+        map.put("pcUptime", pcUptime);
+        DeviceStatus.putIfPresent(map, "pcError", pcError);
+        DeviceStatus.putIfPresent(map, "pcSshCircuit", pcSshCircuit);
+        camera.putInto(map);
+        return map;
+    }
+}
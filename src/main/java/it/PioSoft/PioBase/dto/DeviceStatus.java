@@ -0,0 +1,113 @@
+package it.PioSoft.PioBase.dto;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Stato di un PC per il topic del dispositivo (/api/monitor/{ip})
+ *
+ * JSON: ip, timestamp, online, i flag veri tra shuttingDown, forcedOffline, sshTimeout e
+ * ultraFastCheck, reason/systemInfoError/error se presenti e, appiattite, le info di sistema
+ * (hostname, os, uptime, ping, sshCircuit se il circuito SSH non è chiuso, ...).
+ * @param flags combinazione di {@link #SHUTTING_DOWN}, {@link #FORCED_OFFLINE}, {@link #SSH_TIMEOUT},
+ *              {@link #ULTRA_FAST_CHECK}
+ * @param systemInfo info di sistema così come restituite da SystemInfoService, senza copia
+ */
+public record DeviceStatus(String ip, long timestamp, boolean online, int flags, String reason,
+                           String systemInfoError, String error, Map<String, String> systemInfo)
+    implements StatusPayload {
+
+    public static final int SHUTTING_DOWN = 1;
+    public static final int FORCED_OFFLINE = 1 << 1;
+    public static final int SSH_TIMEOUT = 1 << 2;
+    public static final int ULTRA_FAST_CHECK = 1 << 3;
+
+    // Campi fissi: le info di sistema con lo stesso nome non li sovrascrivono
+    private static final Set<String> FIELDS = Set.of("ip", "timestamp", "online", "shuttingDown", "forcedOffline",
+        "sshTimeout", "ultraFastCheck", "reason", "systemInfoError", "error");
+
+    public DeviceStatus {
+        if (systemInfo == null) {
+            systemInfo = Map.of();
+        }
+    }
+
+    /**
+     * Stato senza info di sistema
+     */
+    public DeviceStatus(String ip, long timestamp, boolean online, int flags, String systemInfoError, String error) {
+        this(ip, timestamp, online, flags, null, systemInfoError, error, Map.of());
+    }
+
+    public boolean has(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    @Override
+    public void writeTo(StatusJson json) {
+        json.beginObject()
+            .field("ip", ip)
+            .field("timestamp", timestamp)
+            .field("online", online)
+            .flag("shuttingDown", has(SHUTTING_DOWN))
+            .flag("forcedOffline", has(FORCED_OFFLINE))
+            .flag("sshTimeout", has(SSH_TIMEOUT))
+            .flag("ultraFastCheck", has(ULTRA_FAST_CHECK))
+            .fieldIfPresent("reason", reason)
+            .fieldIfPresent("systemInfoError", systemInfoError)
+            .fieldIfPresent("error", error);
+        for (Map.Entry<String, String> entry : systemInfo.entrySet()) {
+            if (!FIELDS.contains(entry.getKey())) {
+                json.field(entry.getKey(), entry.getValue());
+            }
+        }
+        json.endObject();
+    }
+
+    @Override
+    public boolean sameState(StatusPayload other) {
+        return other instanceof DeviceStatus that
+            && online == that.online
+            && flags == that.flags
+            && Objects.equals(ip, that.ip)
+            && Objects.equals(reason, that.reason)
+            && Objects.equals(systemInfoError, that.systemInfoError)
+            && Objects.equals(error, that.error)
+            && systemInfo.equals(that.systemInfo);
+    }
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        systemInfo.forEach((key, value) -> {
+            if (!FIELDS.contains(key)) {
+                map.put(key, value);
+            }
+        });
+        map.put("ip", ip);
+        map.put("timestamp", timestamp);
+        map.put("online", online);
+        putFlag(map, "shuttingDown", SHUTTING_DOWN);
+        putFlag(map, "forcedOffline", FORCED_OFFLINE);
+        putFlag(map, "sshTimeout", SSH_TIMEOUT);
+        putFlag(map, "ultraFastCheck", ULTRA_FAST_CHECK);
+        putIfPresent(map, "reason", reason);
+        putIfPresent(map, "systemInfoError", systemInfoError);
+        putIfPresent(map, "error", error);
+        return map;
+    }
+
+    private void putFlag(Map<String, Object> map, String name, int flag) {
+        if (has(flag)) {
+            map.put(name, true);
+        }
+    }
+
+    static void putIfPresent(Map<String, Object> map, String name, Object value) {
+        if (value != null) {
+            map.put(name, value);
+        }
+    }
+}
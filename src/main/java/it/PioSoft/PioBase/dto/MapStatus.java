@@ -0,0 +1,55 @@
+package it.PioSoft.PioBase.dto;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Stato non tipizzato, per i topic con campi variabili (thumbnails, stream HLS)
+ * e per gli stati ripristinati dallo snapshot
+ *
+ * La mappa non deve essere modificata dopo la costruzione.
+ */
+public record MapStatus(Map<String, Object> values) implements StatusPayload {
+
+    public MapStatus {
+        values = Collections.unmodifiableMap(values);
+    }
+
+    @Override
+    public long timestamp() {
+        return values.get("timestamp") instanceof Number n ? n.longValue() : 0;
+    }
+
+    @Override
+    public void writeTo(StatusJson json) {
+        json.value(values);
+    }
+
+    @Override
+    public boolean sameState(StatusPayload other) {
+        if (!(other instanceof MapStatus that)) {
+            return false;
+        }
+        Map<String, Object> a = values;
+        Map<String, Object> b = that.values;
+        int sizeA = a.containsKey("timestamp") ? a.size() - 1 : a.size();
+        int sizeB = b.containsKey("timestamp") ? b.size() - 1 : b.size();
+        if (sizeA != sizeB) {
+            return false;
+        }
+        for (Map.Entry<String, Object> entry : a.entrySet()) {
+            String field = entry.getKey();
+            if (!"timestamp".equals(field)
+                && (!b.containsKey(field) || !Objects.equals(entry.getValue(), b.get(field)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> toMap() {
+        return values;
+    }
+}
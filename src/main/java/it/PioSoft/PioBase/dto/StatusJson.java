@@ -0,0 +1,287 @@
+package it.PioSoft.PioBase.dto;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Scrittore JSON minimale per gli stati di monitoraggio
+ *
+ * Scrive direttamente byte UTF-8 in un buffer che cresce se serve: niente riflessione,
+ * niente boxing di booleani e numeri, nessun oggetto intermedio per campo.
+ * Le stringhe vengono sempre escapate, quindi il JSON prodotto non contiene mai ritorni a capo
+ * e può andare così com'è in una riga data: SSE.
+ */
+public final class StatusJson {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+
+    private byte[] buffer;
+    private int length;
+    // true dopo un valore: il prossimo campo o elemento va preceduto da una virgola
+    private boolean needsComma;
+
+    public StatusJson(int initialCapacity) {
+        this.buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public StatusJson beginObject() {
+        separator();
+        write((byte) '{');
+        needsComma = false;
+        return this;
+    }
+
+    public StatusJson endObject() {
+        write((byte) '}');
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Nome di un campo; il valore segue con uno dei metodi value o un beginObject
+     */
+    public StatusJson key(String name) {
+        separator();
+        string(name);
+        write((byte) ':');
+        needsComma = false;
+        return this;
+    }
+
+    public StatusJson field(String name, String value) {
+        return key(name).value(value);
+    }
+
+    public StatusJson field(String name, boolean value) {
+        return key(name).value(value);
+    }
+
+    public StatusJson field(String name, long value) {
+        return key(name).value(value);
+    }
+
+    /**
+     * Campo scritto solo se il valore non è null
+     */
+    public StatusJson fieldIfPresent(String name, String value) {
+        return value != null ? field(name, value) : this;
+    }
+
+    /**
+     * Campo booleano opzionale: scritto solo se vale true
+     */
+    public StatusJson flag(String name, boolean value) {
+        return value ? field(name, true) : this;
+    }
+
+    public StatusJson value(String value) {
+        separator();
+        if (value == null) {
+            write(NULL);
+        } else {
+            string(value);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    public StatusJson value(boolean value) {
+        separator();
+        write(value ? TRUE : FALSE);
+        needsComma = true;
+        return this;
+    }
+
+    public StatusJson value(long value) {
+        separator();
+        number(value);
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Valore generico: mappe, collezioni, numeri, booleani, stringhe, enum e null
+     * (per gli stati non tipizzati come quelli di thumbnails e stream)
+     */
+    public StatusJson value(Object value) {
+        if (value == null || value instanceof String) {
+            return value((String) value);
+        }
+        if (value instanceof Boolean b) {
+            return value(b.booleanValue());
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            // Come Jackson: NaN e infiniti come stringhe
+            return Double.isFinite(d) ? raw(Double.toString(d)) : value(Double.toString(d));
+        }
+        if (value instanceof Number n) {
+            return raw(n.toString());
+        }
+        if (value instanceof Enum<?> e) {
+            return value(e.name());
+        }
+        if (value instanceof Map<?, ?> map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                key(String.valueOf(entry.getKey())).value(entry.getValue());
+            }
+            return endObject();
+        }
+        if (value instanceof Collection<?> collection) {
+            separator();
+            write((byte) '[');
+            needsComma = false;
+            for (Object item : collection) {
+                value(item);
+            }
+            write((byte) ']');
+            needsComma = true;
+            return this;
+        }
+        return value(String.valueOf(value));
+    }
+
+    /**
+     * Valore già in formato JSON, solo ASCII (numeri)
+     */
+    private StatusJson raw(String json) {
+        separator();
+        ensure(json.length());
+        for (int i = 0; i < json.length(); i++) {
+            buffer[length++] = (byte) json.charAt(i);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Testo ASCII scritto senza escape né separatori (intestazioni dei frame SSE)
+     */
+    public StatusJson ascii(String text) {
+        ensure(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Numero scritto senza separatori (id dei frame SSE)
+     */
+    public StatusJson asciiNumber(long value) {
+        number(value);
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    private void separator() {
+        if (needsComma) {
+            write((byte) ',');
+        }
+    }
+
+    private void number(long value) {
+        if (value == Long.MIN_VALUE) {
+            ascii(Long.toString(value));
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = length + digits;
+        for (int i = end - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length = end;
+    }
+
+    private void string(String text) {
+        // Caso peggiore: 6 byte per carattere (\\u00XX)
+        ensure(text.length() * 6 + 2);
+        byte[] out = buffer;
+        int pos = length;
+        out[pos++] = '"';
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                out[pos++] = (byte) c;
+            } else if (c == '"' || c == '\\') {
+                out[pos++] = '\\';
+                out[pos++] = (byte) c;
+            } else if (c < 0x20) {
+                out[pos++] = '\\';
+                switch (c) {
+                    case '\n' -> out[pos++] = 'n';
+                    case '\r' -> out[pos++] = 'r';
+                    case '\t' -> out[pos++] = 't';
+                    case '\b' -> out[pos++] = 'b';
+                    case '\f' -> out[pos++] = 'f';
+                    default -> {
+                        out[pos++] = 'u';
+                        out[pos++] = '0';
+                        out[pos++] = '0';
+                        out[pos++] = HEX[c >> 4];
+                        out[pos++] = HEX[c & 0xF];
+                    }
+                }
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[pos++] = '?'; // Surrogato isolato: non rappresentabile in UTF-8
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        out[pos++] = '"';
+        length = pos;
+    }
+
+    private void write(byte b) {
+        ensure(1);
+        buffer[length++] = b;
+    }
+
+    private void write(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package it.PioSoft.PioBase.dto;
+
+import java.util.Map;
+
+/**
+ * Stato pubblicato sugli stream di monitoraggio (SSE e WebSocket)
+ *
+ * Le implementazioni sono immutabili: lo stesso oggetto viene condiviso dalla cache,
+ * dall'evento e dal buffer di ripresa senza copie.
+ */
+public interface StatusPayload {
+
+    /**
+     * Istante di rilevazione; è l'unico campo che cambia senza che lo stato sia cambiato
+     */
+    long timestamp();
+
+    /**
+     * Scrive lo stato come oggetto JSON
+     */
+    void writeTo(StatusJson json);
+
+    /**
+     * true se i due stati differiscono al più per il timestamp
+     */
+    boolean sameState(StatusPayload other);
+
+    /**
+     * Stato come mappa, per i delta e lo snapshot (non usata nel ciclo di monitoraggio)
+     */
+    Map<String, Object> toMap();
+}
@@ -1,41 +1,64 @@
 package it.PioSoft.PioBase.services;
 
-import org.springframework.scheduling.annotation.Scheduled;
+import it.PioSoft.PioBase.dto.CombinedStatus;
+import it.PioSoft.PioBase.dto.DeviceStatus;
+import it.PioSoft.PioBase.dto.MapStatus;
+import it.PioSoft.PioBase.dto.StatusPayload;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.IOException;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.HashMap;
 
 @Service
 public class DeviceMonitoringService {
-    private final Map<String, List<SseEmitter>> deviceEmitters = new ConcurrentHashMap<>();
-    private final Map<String, Map<String, Object>> deviceStatusCache = new ConcurrentHashMap<>();
-
-    // Nuovi emitters per monitoraggio combinato PC + IP Cam
-    private final List<SseEmitter> combinedEmitters = new CopyOnWriteArrayList<>();
-    // Mappa che associa ogni emitter al PC IP che sta monitorando
-    private final Map<SseEmitter, String> emitterToPcIpMap = new ConcurrentHashMap<>();
-    private Map<String, Object> lastCombinedStatus = new HashMap<>();
+    private static final String SYSTEM_INFO_PENDING = "Info di sistema in aggiornamento";
+
+    private final Map<String, List<StatusStream>> deviceEmitters = new ConcurrentHashMap<>();
+    // Stati immutabili (DeviceStatus, CameraStatus, MapStatus se ripristinati da snapshot)
+    private final Map<String, StatusPayload> deviceStatusCache = new ConcurrentHashMap<>();
+    // Ultime info di sistema recuperate per PC, usate finché lo stato ripristinato non è riverificato
+    private final Map<String, Map<String, String>> lastSystemInfo = new ConcurrentHashMap<>();
+
+    // Emitters per monitoraggio combinato PC + IP Cam, indicizzati per PC IP:
+    // lo stato di ogni PC viene calcolato una volta per ciclo e condiviso da tutti i suoi client
+    private final Map<String, List<StatusStream>> combinedEmittersByPc = new ConcurrentHashMap<>();
+    // Nuovi client in attesa dello stato iniziale, serviti insieme da un controllo forzato per PC
+    private final Map<String, Queue<StatusStream>> pendingInitialByPc = new ConcurrentHashMap<>();
+    // Campi della cam dell'ultimo ciclo, riusati finché non cambiano
+    private volatile CombinedStatus.Camera lastCamera;
 
     private final PcStatusService pcStatusService;
     private final SystemInfoService systemInfoService;
+    private final SystemInfoCollector systemInfoCollector;
     private final PcPingMonitorService pcPingMonitorService;
+    private final ReachabilityService reachabilityService;
+    private final SseDeliveryService sseDeliveryService;
+    private final ForcedCheckDispatcher forcedCheckDispatcher;
 
     // Riferimento all'IpCamScannerService (sarà iniettato)
     private IpCamScannerService ipCamScannerService;
 
-    public DeviceMonitoringService(PcStatusService pcStatusService, SystemInfoService systemInfoService, PcPingMonitorService pcPingMonitorService) {
+    public DeviceMonitoringService(PcStatusService pcStatusService, SystemInfoService systemInfoService,
+                                   PcPingMonitorService pcPingMonitorService, ReachabilityService reachabilityService,
+                                   SseDeliveryService sseDeliveryService, MonitoringScheduler monitoringScheduler,
+                                   ForcedCheckDispatcher forcedCheckDispatcher, SystemInfoCollector systemInfoCollector) {
         this.pcStatusService = pcStatusService;
         this.systemInfoService = systemInfoService;
+        this.systemInfoCollector = systemInfoCollector;
         this.pcPingMonitorService = pcPingMonitorService;
+        this.reachabilityService = reachabilityService;
+        this.sseDeliveryService = sseDeliveryService;
+        this.forcedCheckDispatcher = forcedCheckDispatcher;
+        // Corsie separate: l'SSH dello stato combinato non ritarda il controllo dei dispositivi
+        monitoringScheduler.schedule("check-devices", 2000, this::checkDevices);
+        monitoringScheduler.schedule("check-combined-status", 2000, this::checkCombinedStatus);
     }
 
     // Setter per dependency injection circolare
@@ -43,26 +66,50 @@ public class DeviceMonitoringService {
         this.ipCamScannerService = ipCamScannerService;
     }
 
-    public SseEmitter subscribeToDevice(String ipAddress) {
+    /**
+     * Sottoscrizione SSE allo stato di un dispositivo
+     * @param mode FULL invia sempre lo stato completo, DELTA solo i campi cambiati più keyframe periodici
+     * @param options intervallo minimo/massimo, campi e solo transizioni, applicati per questo client
+     * @param lastEventId header Last-Event-ID inviato dal client alla riconnessione (null se assente)
+     */
+    public SseEmitter subscribeToDevice(String ipAddress, StatusStream.Mode mode, StatusStream.Options options,
+                                        String lastEventId) {
         SseEmitter emitter = new SseEmitter(Long.MAX_VALUE);
-        deviceEmitters.computeIfAbsent(ipAddress, k -> new CopyOnWriteArrayList<>()).add(emitter);
-        emitter.onCompletion(() -> removeEmitter(ipAddress, emitter));
-        emitter.onTimeout(() -> removeEmitter(ipAddress, emitter));
-        emitter.onError(e -> removeEmitter(ipAddress, emitter));
-        // Invia stato corrente se disponibile
-        if (deviceStatusCache.containsKey(ipAddress)) {
-            try {
-                emitter.send(SseEmitter.event().name("status").data(deviceStatusCache.get(ipAddress)));
-            } catch (IOException e) {
-            }
-        }
+        StatusStream stream = openDeviceStream(ipAddress, StatusStream.sse(emitter), mode, options, lastEventId);
+        emitter.onCompletion(stream::release);
+        emitter.onTimeout(stream::release);
+        emitter.onError(e -> stream.release());
         return emitter;
     }
 
-    private void removeEmitter(String ipAddress, SseEmitter emitter) {
-        List<SseEmitter> emitters = deviceEmitters.get(ipAddress);
+    /**
+     * Apre uno stream sullo stato di un dispositivo su un canale qualsiasi (SSE o WebSocket)
+     * Lo stream si chiude con {@link StatusStream#release()} quando il client se ne va
+     */
+    public StatusStream openDeviceStream(String ipAddress, StatusStream.Transport transport, StatusStream.Mode mode,
+                                         StatusStream.Options options, String lastEventId) {
+        StatusStream stream = sseDeliveryService.open(transport, ipAddress, "status", mode, options);
+        stream.onClose(() -> removeEmitter(ipAddress, stream));
+        deviceEmitters.computeIfAbsent(ipAddress, k -> new CopyOnWriteArrayList<>()).add(stream);
+        if (sseDeliveryService.resume(stream, lastEventId)) {
+            return stream;
+        }
+        // Invia stato corrente se disponibile, riusando l'evento già codificato per gli altri client
+        StatusPayload current = deviceStatusCache.get(ipAddress);
+        if (current != null) {
+            SseEvent last = sseDeliveryService.getLastEvent(ipAddress, "status");
+            stream.publish(last != null && last.getStatus() == current
+                ? last
+                : sseDeliveryService.snapshot(ipAddress, "status", current));
+        }
+        return stream;
+    }
+
+    private void removeEmitter(String ipAddress, StatusStream stream) {
+        sseDeliveryService.unregister(stream);
+        List<StatusStream> emitters = deviceEmitters.get(ipAddress);
         if (emitters != null) {
-            emitters.remove(emitter);
+            emitters.remove(stream);
             if (emitters.isEmpty()) {
                 deviceEmitters.remove(ipAddress);
             }
@@ -70,12 +117,12 @@ public class DeviceMonitoringService {
     }
 
     // Ridotto il polling da 5000ms a 2000ms per rilevamento più veloce
-    @Scheduled(fixedDelay = 2000)
     public void checkDevices() {
         deviceEmitters.keySet().forEach(ipAddress -> {
-            Map<String, Object> status = getDeviceStatus(ipAddress);
-            Map<String, Object> previousStatus = deviceStatusCache.get(ipAddress);
-            if (!status.equals(previousStatus)) {
+            DeviceStatus status = getDeviceStatus(ipAddress);
+            StatusPayload previousStatus = deviceStatusCache.get(ipAddress);
+            // Il timestamp cambia sempre: conta solo il resto dello stato
+            if (!StatusStream.sameState(previousStatus, status)) {
                 deviceStatusCache.put(ipAddress, status);
                 broadcastToDevice(ipAddress, status);
             }
@@ -85,17 +132,20 @@ public class DeviceMonitoringService {
     /**
      * Forza un controllo immediato dello stato di un dispositivo specifico
      * Utile dopo operazioni come spegnimento remoto
+     * Ritorna subito: il controllo (ping e SSH) gira sul {@link ForcedCheckDispatcher},
+     * le richieste ravvicinate per lo stesso dispositivo diventano una sola
      */
     public void forceStatusCheck(String ipAddress) {
         System.out.println("Forzando controllo stato immediato per: " + ipAddress);
-        Map<String, Object> status = getDeviceStatus(ipAddress);
-        Map<String, Object> previousStatus = deviceStatusCache.get(ipAddress);
+        forcedCheckDispatcher.submit("device:" + ipAddress, () -> {
+            DeviceStatus status = getDeviceStatus(ipAddress);
 
-        // Aggiorna sempre lo stato dopo spegnimento forzato
-        deviceStatusCache.put(ipAddress, status);
-        broadcastToDevice(ipAddress, status);
+            // Aggiorna sempre lo stato dopo spegnimento forzato
+            deviceStatusCache.put(ipAddress, status);
+            broadcastToDevice(ipAddress, status);
 
-        System.out.println("Stato aggiornato per " + ipAddress + ": " + status.get("online"));
+            System.out.println("Stato aggiornato per " + ipAddress + ": " + status.online());
+        });
     }
 
     /**
@@ -104,15 +154,11 @@ public class DeviceMonitoringService {
     public void markDeviceOffline(String ipAddress, String reason) {
         System.out.println("Marcando dispositivo come offline: " + ipAddress + " - Motivo: " + reason);
 
-        // Usa il ping monitor per marcare il PC come offline
+        // Usa il ping monitor per marcare il PC come offline (verifica dello spegnimento in corso)
         pcPingMonitorService.markAsOffline(ipAddress);
 
-        Map<String, Object> status = new HashMap<>();
-        status.put("ip", ipAddress);
-        status.put("timestamp", System.currentTimeMillis());
-        status.put("online", false);
-        status.put("reason", reason);
-        status.put("forcedOffline", true);
+        DeviceStatus status = new DeviceStatus(ipAddress, System.currentTimeMillis(), false,
+            DeviceStatus.FORCED_OFFLINE | DeviceStatus.SHUTTING_DOWN, reason, null, null, Map.of());
 
         deviceStatusCache.put(ipAddress, status);
         broadcastToDevice(ipAddress, status);
@@ -127,332 +173,358 @@ public class DeviceMonitoringService {
     private void forceStatusCheckUltraFast(String ipAddress) {
         System.out.println("Controllo ultra-veloce per: " + ipAddress);
 
-        Map<String, Object> status = new HashMap<>();
-        status.put("ip", ipAddress);
-        status.put("timestamp", System.currentTimeMillis());
-
+        long timestamp = System.currentTimeMillis();
+        DeviceStatus status;
         try {
             // Usa il metodo ultra-veloce per rilevare rapidamente se offline
             boolean isOnline = pcStatusService.isPcOnlineFast(ipAddress);
-            status.put("online", isOnline);
 
             if (isOnline) {
                 // Se è online, prova SSH ultra-veloce
                 Map<String, String> systemInfo = systemInfoService.getSystemInfoUltraFast(ipAddress);
+                String errorMsg = systemInfo.get("error");
 
-                if (systemInfo.containsKey("error") &&
-                    (systemInfo.get("error").contains("timeout") ||
-                     systemInfo.get("error").contains("offline"))) {
+                if (errorMsg != null && (errorMsg.contains("timeout") || errorMsg.contains("offline"))) {
                     // SSH fallisce = PC probabilmente spento
-                    status.put("online", false);
-                    status.put("ultraFastCheck", true);
-                    status.put("systemInfoError", "SSH ultra-veloce fallito - PC spento");
+                    status = new DeviceStatus(ipAddress, timestamp, false, DeviceStatus.ULTRA_FAST_CHECK,
+                        "SSH ultra-veloce fallito - PC spento", null);
                 } else {
-                    status.putAll(systemInfo);
-                    status.put("ultraFastCheck", true);
+                    status = new DeviceStatus(ipAddress, timestamp, true, DeviceStatus.ULTRA_FAST_CHECK, null,
+                        null, errorMsg, systemInfo);
                 }
             } else {
-                status.put("systemInfoError", "PC offline - ping ultra-veloce fallito");
-                status.put("ultraFastCheck", true);
+                status = new DeviceStatus(ipAddress, timestamp, false, DeviceStatus.ULTRA_FAST_CHECK,
+                    "PC offline - ping ultra-veloce fallito", null);
             }
 
         } catch (Exception e) {
-            status.put("online", false);
-            status.put("error", "Errore controllo ultra-veloce: " + e.getMessage());
-            status.put("ultraFastCheck", true);
+            status = new DeviceStatus(ipAddress, timestamp, false, DeviceStatus.ULTRA_FAST_CHECK, null,
+                "Errore controllo ultra-veloce: " + e.getMessage());
         }
 
         deviceStatusCache.put(ipAddress, status);
         broadcastToDevice(ipAddress, status);
 
-        System.out.println("Controllo ultra-veloce completato per " + ipAddress + ": online=" + status.get("online"));
+        System.out.println("Controllo ultra-veloce completato per " + ipAddress + ": online=" + status.online());
     }
 
-    private Map<String, Object> getDeviceStatus(String ipAddress) {
-        Map<String, Object> status = new HashMap<>();
-        status.put("ip", ipAddress);
-        status.put("timestamp", System.currentTimeMillis());
+    /**
+     * Stato di un dispositivo: ping e, se online, ultime info di sistema raccolte in background
+     * Nessun SSH nel tick (vedi {@link SystemInfoCollector}); un solo oggetto immutabile per controllo,
+     * le info di sistema non vengono copiate
+     */
+    private DeviceStatus getDeviceStatus(String ipAddress) {
+        long timestamp = System.currentTimeMillis();
+
+        if (pcPingMonitorService.isShuttingDown(ipAddress)) {
+            // Spegnimento in verifica: le risposte residue non devono riportarlo online
+            return new DeviceStatus(ipAddress, timestamp, false, DeviceStatus.SHUTTING_DOWN,
+                "PC in spegnimento - SSH non tentato", null);
+        }
 
         try {
             // Prima controlla se il PC è online con ping veloce
             boolean isOnline = pcStatusService.isPcOnline(ipAddress);
-            status.put("online", isOnline);
 
-            if (isOnline) {
-                // Solo se online, tenta di recuperare info sistema con timeout ridotto
-                try {
-                    Map<String, String> systemInfo = systemInfoService.getSystemInfoQuick(ipAddress);
-
-                    // Controlla se ci sono errori nelle info di sistema
-                    if (systemInfo.containsKey("error")) {
-                        String errorMsg = systemInfo.get("error");
-                        if (errorMsg.contains("timeout") || errorMsg.contains("ConnectException")) {
-                            // Se c'è timeout SSH, marca come offline
-                            status.put("online", false);
-                            status.put("sshTimeout", true);
-                            status.put("systemInfoError", "SSH timeout - PC potrebbe essere spento o SSH non disponibile");
-                        } else {
-                            // Altri errori SSH ma PC è online via ping
-                            status.putAll(systemInfo);
-                        }
-                    } else {
-                        // Info sistema recuperate con successo
-                        status.putAll(systemInfo);
-                    }
-
-                } catch (Exception e) {
-                    // Gestisci eccezioni durante recupero info sistema
-                    String errorMsg = e.getMessage();
-                    if (errorMsg != null && (errorMsg.contains("timeout") || errorMsg.contains("ConnectException"))) {
-                        status.put("online", false);
-                        status.put("sshTimeout", true);
-                        status.put("systemInfoError", "SSH non raggiungibile");
-                    } else {
-                        status.put("systemInfoError", errorMsg);
-                    }
-                }
-            } else {
+            if (!isOnline) {
                 // PC offline, non tentare SSH
-                status.put("systemInfoError", "PC offline - SSH non tentato");
+                return new DeviceStatus(ipAddress, timestamp, false, 0, "PC offline - SSH non tentato", null);
+            }
+
+            // Solo se online, ultime info sistema raccolte (la lettura avvia la raccolta se serve)
+            SystemInfoCollector.Snapshot snapshot = systemInfoCollector.latest(ipAddress);
+            if (snapshot == null) {
+                // Prima raccolta in corso o info troppo vecchie: stato dal solo ping
+                return new DeviceStatus(ipAddress, timestamp, true, 0, SYSTEM_INFO_PENDING, null);
+            }
+            Map<String, String> systemInfo = snapshot.info();
+
+            // Controlla se ci sono errori nelle info di sistema
+            String errorMsg = systemInfo.get("error");
+            if (errorMsg != null && (errorMsg.contains("timeout") || errorMsg.contains("ConnectException"))) {
+                // Se c'è timeout SSH, marca come offline
+                return new DeviceStatus(ipAddress, timestamp, false, DeviceStatus.SSH_TIMEOUT,
+                    "SSH timeout - PC potrebbe essere spento o SSH non disponibile", null);
             }
+            // Info sistema recuperate con successo, o altri errori SSH ma PC online via ping
+            return new DeviceStatus(ipAddress, timestamp, true, 0, null, null, errorMsg, systemInfo);
 
         } catch (Exception e) {
             // Errore durante controllo ping
-            status.put("online", false);
-            status.put("error", "Errore controllo stato: " + e.getMessage());
+            return new DeviceStatus(ipAddress, timestamp, false, 0, null, "Errore controllo stato: " + e.getMessage());
         }
-
-        return status;
     }
 
     /**
      * Aggiorna e broadcast lo stato di un dispositivo (usato anche per IP cam)
      */
-    public void updateDeviceStatus(String ipAddress, Map<String, Object> status) {
+    public void updateDeviceStatus(String ipAddress, StatusPayload status) {
         deviceStatusCache.put(ipAddress, status);
         broadcastToDevice(ipAddress, status);
     }
 
-    private void broadcastToDevice(String ipAddress, Map<String, Object> status) {
-        List<SseEmitter> emitters = deviceEmitters.get(ipAddress);
+    private void broadcastToDevice(String ipAddress, StatusPayload status) {
+        List<StatusStream> emitters = deviceEmitters.get(ipAddress);
         if (emitters != null) {
-            emitters.removeIf(emitter -> {
-                try {
-                    emitter.send(SseEmitter.event().name("status").data(status));
-                    return false;
-                } catch (IOException e) {
-                    return true;
-                }
-            });
+            // Serializzato una volta, solo accodamento: la scrittura avviene sui thread di consegna SSE
+            SseEvent event = sseDeliveryService.event(ipAddress, "status", status);
+            emitters.forEach(stream -> stream.publish(event));
         }
     }
 
     /**
-     * Sottoscrizione per monitoraggio combinato PC + IP Cam
+     * Sottoscrizione SSE per monitoraggio combinato PC + IP Cam
      * Invia aggiornamenti unificati con entrambi gli stati
+     * @param mode FULL invia lo stato completo a ogni ciclo, DELTA solo i campi cambiati più keyframe periodici
+     * @param options intervallo minimo/massimo, campi e solo transizioni, applicati per questo client
+     * @param lastEventId header Last-Event-ID inviato dal client alla riconnessione (null se assente):
+     *                    gli eventi persi arrivano dalla memoria, senza SSH né sonde
      */
-    public SseEmitter subscribeToSystemStatus(String pcIpAddress) {
+    public SseEmitter subscribeToSystemStatus(String pcIpAddress, StatusStream.Mode mode, StatusStream.Options options,
+                                              String lastEventId) {
         SseEmitter emitter = new SseEmitter(Long.MAX_VALUE);
-        combinedEmitters.add(emitter);
+        StatusStream stream = openSystemStream(pcIpAddress, StatusStream.sse(emitter), mode, options, lastEventId);
+        emitter.onCompletion(stream::release);
+        emitter.onTimeout(stream::release);
+        emitter.onError(e -> stream.release());
+        return emitter;
+    }
 
-        // Salva l'associazione tra emitter e PC IP
-        emitterToPcIpMap.put(emitter, pcIpAddress);
+    /**
+     * Apre uno stream sullo stato combinato PC + IP Cam su un canale qualsiasi (SSE o WebSocket)
+     * Lo stream si chiude con {@link StatusStream#release()} quando il client se ne va
+     * Ritorna subito: registrazione del PC e stato iniziale (ping e SSH) girano sul {@link ForcedCheckDispatcher}
+     */
+    public StatusStream openSystemStream(String pcIpAddress, StatusStream.Transport transport, StatusStream.Mode mode,
+                                         StatusStream.Options options, String lastEventId) {
+        StatusStream stream = sseDeliveryService.open(transport, pcIpAddress, "systemStatus", mode, options);
+        stream.onClose(() -> removeCombinedEmitter(pcIpAddress, stream));
+
+        // Associa l'emitter al PC che sta monitorando
+        List<StatusStream> emitters = combinedEmittersByPc.compute(pcIpAddress, (ip, list) -> {
+            List<StatusStream> updated = list != null ? list : new CopyOnWriteArrayList<>();
+            updated.add(stream);
+            return updated;
+        });
 
-        System.out.println("Client sottoscritto per PC IP: " + pcIpAddress + " (totale emitters: " + combinedEmitters.size() + ")");
+        System.out.println("Client sottoscritto per PC IP: " + pcIpAddress + " (emitters per questo PC: " + emitters.size()
+            + ", PC monitorati: " + combinedEmittersByPc.size() + ")");
 
-        // Registra il PC per il monitoraggio attivo tramite ping
-        pcPingMonitorService.registerPcForMonitoring(pcIpAddress);
+        // Stato iniziale (keyframe anche in modalità delta) appena calcolato; la compute è atomica
+        // rispetto alla remove in sendInitialStatus, così nessun client resta in una coda già servita
+        if (!sseDeliveryService.resume(stream, lastEventId)) {
+            pendingInitialByPc.compute(pcIpAddress, (ip, queue) -> {
+                Queue<StatusStream> updated = queue != null ? queue : new ConcurrentLinkedQueue<>();
+                updated.add(stream);
+                return updated;
+            });
+        }
+        // Registra il PC per il monitoraggio attivo tramite ping, fuori dal thread del client
+        forcedCheckDispatcher.submit("system-initial:" + pcIpAddress, () -> sendInitialStatus(pcIpAddress));
 
-        emitter.onCompletion(() -> {
-            combinedEmitters.remove(emitter);
-            emitterToPcIpMap.remove(emitter);
-        });
-        emitter.onTimeout(() -> {
-            combinedEmitters.remove(emitter);
-            emitterToPcIpMap.remove(emitter);
-        });
-        emitter.onError(e -> {
-            combinedEmitters.remove(emitter);
-            emitterToPcIpMap.remove(emitter);
-        });
+        return stream;
+    }
 
-        // Invia stato iniziale immediato
-        try {
-            Map<String, Object> initialStatus = buildCombinedStatus(pcIpAddress);
-            emitter.send(SseEmitter.event().name("systemStatus").data(initialStatus));
-        } catch (IOException e) {
-            combinedEmitters.remove(emitter);
+    /**
+     * Registra il PC e invia lo stato combinato ai client in attesa: le sottoscrizioni ravvicinate
+     * vengono accorpate dal dispatcher e ricevono tutte lo stesso evento
+     */
+    private void sendInitialStatus(String pcIpAddress) {
+        pcPingMonitorService.registerPcForMonitoring(pcIpAddress);
+        Queue<StatusStream> pending = pendingInitialByPc.remove(pcIpAddress);
+        if (pending == null) {
+            return;
         }
+        SseEvent event = null;
+        for (StatusStream stream; (stream = pending.poll()) != null; ) {
+            if (stream.isClosed()) {
+                continue;
+            }
+            if (event == null) {
+                event = sseDeliveryService.snapshot(pcIpAddress, "systemStatus", buildCombinedStatus(pcIpAddress));
+            }
+            stream.publish(event);
+        }
+    }
 
-        return emitter;
+    private void removeCombinedEmitter(String pcIpAddress, StatusStream stream) {
+        sseDeliveryService.unregister(stream);
+        // Rimozione atomica per PC: la lista vuota sparisce dall'indice
+        combinedEmittersByPc.computeIfPresent(pcIpAddress, (ip, list) -> {
+            list.remove(stream);
+            return list.isEmpty() ? null : list;
+        });
     }
 
     /**
      * Polling schedulato per monitoraggio combinato (ogni 2 secondi)
+     * La cam viene verificata una volta e ogni PC una volta, indipendentemente dal numero di client
      */
-    @Scheduled(fixedDelay = 2000)
     public void checkCombinedStatus() {
-        if (combinedEmitters.isEmpty()) {
+        if (combinedEmittersByPc.isEmpty()) {
             return; // Nessun client connesso, skip
         }
 
-        // Per ogni emitter, invia lo stato del PC corretto
-        combinedEmitters.removeIf(emitter -> {
-            String pcIp = emitterToPcIpMap.get(emitter);
-            if (pcIp == null) {
-                System.out.println("Emitter senza PC IP associato, rimuovo");
-                emitterToPcIpMap.remove(emitter);
-                return true; // Rimuovi emitter senza IP
-            }
-
-            try {
-                Map<String, Object> combinedStatus = buildCombinedStatus(pcIp);
-
-                // Invia sempre l'aggiornamento (il client può decidere se aggiornare la UI)
-                emitter.send(SseEmitter.event().name("systemStatus").data(combinedStatus));
-
-                return false; // Mantieni emitter
-            } catch (IOException e) {
-                System.out.println("Errore invio SSE per PC " + pcIp + ", rimuovo emitter");
-                emitterToPcIpMap.remove(emitter);
-                return true; // Rimuovi emitter in errore
-            }
-        });
+        CombinedStatus.Camera camera = buildCameraStatus();
+        for (String pcIp : combinedEmittersByPc.keySet()) {
+            // In modalità FULL l'aggiornamento viene sempre inviato, in DELTA solo se qualcosa è cambiato
+            broadcastCombinedStatus(pcIp, buildCombinedStatus(pcIp, camera));
+        }
     }
 
     /**
      * Forza un controllo immediato dello stato combinato
+     * Ritorna subito: la valutazione (che può fare SSH) gira sul {@link ForcedCheckDispatcher} e
+     * le richieste ravvicinate per lo stesso PC diventano una sola; nulla da fare se il PC non ha client
      */
     public void forceCombinedStatusCheck(String pcIpAddress) {
+        if (!combinedEmittersByPc.containsKey(pcIpAddress)) {
+            return;
+        }
         System.out.println("Forzando controllo stato combinato per PC: " + pcIpAddress);
-        Map<String, Object> combinedStatus = buildCombinedStatus(pcIpAddress);
-        lastCombinedStatus = new HashMap<>(combinedStatus);
-        broadcastCombinedStatus(combinedStatus);
+        forcedCheckDispatcher.submit("system:" + pcIpAddress, () -> {
+            if (combinedEmittersByPc.containsKey(pcIpAddress)) {
+                broadcastCombinedStatus(pcIpAddress, buildCombinedStatus(pcIpAddress));
+            }
+        });
+    }
+
+    private CombinedStatus buildCombinedStatus(String pcIpAddress) {
+        return buildCombinedStatus(pcIpAddress, buildCameraStatus());
     }
 
     /**
      * Costruisce lo stato combinato di PC e IP Cam
+     * @param camera campi della cam già calcolati per questo ciclo
      */
-    private Map<String, Object> buildCombinedStatus(String pcIpAddress) {
-        Map<String, Object> combined = new HashMap<>();
-        combined.put("timestamp", System.currentTimeMillis());
+    private CombinedStatus buildCombinedStatus(String pcIpAddress, CombinedStatus.Camera camera) {
+        long timestamp = System.currentTimeMillis();
 
         // Usa il nuovo sistema di ping per verificare lo stato del PC
         boolean pcOnline = pcPingMonitorService.isPcOnline(pcIpAddress);
-
-        combined.put("pcIp", pcIpAddress);
-        combined.put("pcOnline", pcOnline);
-
-        // Se il PC è online, recupera le info di sistema
-        if (pcOnline) {
-            try {
-                Map<String, String> systemInfo = systemInfoService.getSystemInfoQuick(pcIpAddress);
-
-                if (systemInfo.containsKey("error")) {
-                    combined.put("pcHostname", "N/A");
-                    combined.put("pcOs", "N/A");
-                    combined.put("pcUptime", "N/A");
-                    combined.put("pcError", systemInfo.get("error"));
+        PcPingMonitorService.PcState pcState = pcPingMonitorService.getPcState(pcIpAddress);
+        long shutdownMs = pcPingMonitorService.getLastShutdownDurationMs(pcIpAddress);
+
+        boolean stale = false;
+        Map<String, String> systemInfo = Map.of();
+        String pcError = null;
+        String pcSshCircuit = null;
+        // Stato ripristinato da snapshot: ultime info note senza SSH, finché il PC non è riverificato
+        if (pcPingMonitorService.isStale(pcIpAddress)) {
+            stale = true;
+            systemInfo = lastSystemInfo.getOrDefault(pcIpAddress, Map.of());
+        } else if (pcOnline) {
+            // Se il PC è online, ultime info di sistema raccolte in background (nessun SSH nel tick)
+            SystemInfoCollector.Snapshot snapshot = systemInfoCollector.latest(pcIpAddress);
+            if (snapshot == null) {
+                pcError = SYSTEM_INFO_PENDING;
+            } else {
+                // Circuito SSH non chiuso: info ferme agli ultimi valori noti o errore immediato
+                pcSshCircuit = snapshot.info().get("sshCircuit");
+                if (snapshot.info().containsKey("error")) {
+                    pcError = snapshot.info().get("error");
                 } else {
-                    combined.put("pcHostname", systemInfo.getOrDefault("hostname", "N/A"));
-                    combined.put("pcOs", systemInfo.getOrDefault("os", "N/A"));
-                    combined.put("pcUptime", systemInfo.getOrDefault("uptime", "N/A"));
+                    lastSystemInfo.put(pcIpAddress, snapshot.info());
+                    systemInfo = snapshot.info();
                 }
-            } catch (Exception e) {
-                combined.put("pcHostname", "N/A");
-                combined.put("pcOs", "N/A");
-                combined.put("pcUptime", "N/A");
-                combined.put("pcError", "Errore recupero info: " + e.getMessage());
             }
         } else {
-            combined.put("pcHostname", "N/A");
-            combined.put("pcOs", "N/A");
-            combined.put("pcUptime", "N/A");
-            combined.put("pcError", "PC offline - nessun ping ricevuto");
+            pcError = pcState == PcPingMonitorService.PcState.SHUTTING_DOWN
+                ? "PC in spegnimento"
+                : "PC offline - nessun ping ricevuto";
         }
 
-        // Stato della IP Cam (solo ping, NO SSH)
+        return new CombinedStatus(timestamp, pcIpAddress, pcOnline, pcState.name(), shutdownMs, stale,
+            systemInfo.getOrDefault("hostname", CombinedStatus.NOT_AVAILABLE),
+            systemInfo.getOrDefault("os", CombinedStatus.NOT_AVAILABLE),
+            systemInfo.getOrDefault("uptime", CombinedStatus.NOT_AVAILABLE),
+            pcError, pcSshCircuit, camera);
+    }
+
+    /**
+     * Campi della IP Cam per lo stato combinato (solo ping, NO SSH)
+     * Se nulla è cambiato dal ciclo precedente restituisce lo stesso oggetto
+     */
+    private CombinedStatus.Camera buildCameraStatus() {
         String camIp = ipCamScannerService != null ? ipCamScannerService.getCurrentCamIp() : null;
+        CombinedStatus.Camera previous = lastCamera;
+        CombinedStatus.Camera camera;
         if (camIp != null && !camIp.isEmpty()) {
-            Map<String, Object> camStatus = getCameraStatus(camIp);
-            combined.put("camIp", camIp);
-            combined.put("camOnline", camStatus.getOrDefault("online", false));
-            combined.put("camRtspUrl", "rtsp://" + camIp + ":554/");
-
-            if (camStatus.containsKey("error")) {
-                combined.put("camError", camStatus.get("error"));
+            String camError = null;
+            boolean camOnline;
+            try {
+                // Ping diretto alla camera - verifica porta RTSP 554
+                camOnline = checkCameraOnline(camIp);
+                if (!camOnline) {
+                    camError = "Camera offline - ping fallito";
+                }
+            } catch (Exception e) {
+                camOnline = false;
+                camError = "Errore controllo camera: " + e.getMessage();
+            }
+            if (previous != null && camIp.equals(previous.camIp()) && camOnline == previous.camOnline()
+                && Objects.equals(camError, previous.camError())) {
+                return previous;
             }
+            camera = new CombinedStatus.Camera(camIp, camOnline, "rtsp://" + camIp + ":554/", camError);
         } else {
-            combined.put("camIp", null);
-            combined.put("camOnline", false);
-            combined.put("camError", "IP cam non ancora trovata");
+            if (previous != null && previous.camIp() == null) {
+                return previous;
+            }
+            camera = new CombinedStatus.Camera(null, false, null, "IP cam non ancora trovata");
         }
-
-        return combined;
+        lastCamera = camera;
+        return camera;
     }
 
     /**
-     * Ottiene lo stato della camera IP (solo ping, senza SSH)
+     * Copia dello stato per dispositivo, per lo snapshot
      */
-    private Map<String, Object> getCameraStatus(String ipAddress) {
-        Map<String, Object> status = new HashMap<>();
-        status.put("ip", ipAddress);
-        status.put("timestamp", System.currentTimeMillis());
-
-        try {
-            // Ping diretto alla camera - verifica porta RTSP 554
-            boolean isOnline = checkCameraOnline(ipAddress);
-            status.put("online", isOnline);
+    public Map<String, Map<String, Object>> getDeviceStatusSnapshot() {
+        Map<String, Map<String, Object>> snapshot = new HashMap<>();
+        deviceStatusCache.forEach((ip, status) -> snapshot.put(ip, new HashMap<>(status.toMap())));
+        return snapshot;
+    }
 
-            if (!isOnline) {
-                status.put("error", "Camera offline - ping fallito");
-            }
-        } catch (Exception e) {
-            status.put("online", false);
-            status.put("error", "Errore controllo camera: " + e.getMessage());
-        }
+    /**
+     * Copia delle ultime info di sistema per PC, per lo snapshot
+     */
+    public Map<String, Map<String, String>> getLastSystemInfoSnapshot() {
+        return new HashMap<>(lastSystemInfo);
+    }
 
-        return status;
+    /**
+     * Ripristina gli stati da snapshot all'avvio, marcandoli come non verificati
+     */
+    public void restoreState(Map<String, Map<String, Object>> deviceStatus, Map<String, Map<String, String>> systemInfo) {
+        deviceStatus.forEach((ip, status) -> {
+            Map<String, Object> restored = new HashMap<>(status);
+            restored.put("stale", true);
+            deviceStatusCache.putIfAbsent(ip, new MapStatus(restored));
+        });
+        systemInfo.forEach(lastSystemInfo::putIfAbsent);
     }
 
     /**
-     * Verifica se una camera è online controllando la porta RTSP
+     * Verifica se una camera è online (porta RTSP o ICMP) tramite la cache condivisa
      */
     private boolean checkCameraOnline(String ipAddress) {
-        try {
-            // Metodo 1: Prova ping ICMP
-            InetAddress inet = InetAddress.getByName(ipAddress);
-            if (inet.isReachable(1000)) {
-                return true;
-            }
-
-            // Metodo 2: Verifica porta RTSP 554
-            try (Socket socket = new Socket()) {
-                socket.connect(new InetSocketAddress(ipAddress, 554), 1000);
-                return true;
-            } catch (IOException e) {
-                // Porta non disponibile
-            }
-
-            return false;
-        } catch (Exception e) {
-            return false;
-        }
+        return reachabilityService.isReachable(ipAddress, ReachabilityService.Profile.CAMERA, 1000);
     }
 
     /**
-     * Broadcast dello stato combinato a tutti i client sottoscritti
+     * Invia lo stato combinato ai soli client che monitorano quel PC
      */
-    private void broadcastCombinedStatus(Map<String, Object> status) {
-        combinedEmitters.removeIf(emitter -> {
-            try {
-                emitter.send(SseEmitter.event().name("systemStatus").data(status));
-                return false;
-            } catch (IOException e) {
-                System.out.println("Errore invio SSE, rimuovo emitter");
-                return true;
-            }
-        });
+    private void broadcastCombinedStatus(String pcIpAddress, CombinedStatus status) {
+        List<StatusStream> emitters = combinedEmittersByPc.get(pcIpAddress);
+        if (emitters == null) {
+            return;
+        }
+        // Serializzato una volta, solo accodamento: la scrittura avviene sui thread di consegna SSE
+        SseEvent event = sseDeliveryService.event(pcIpAddress, "systemStatus", status);
+        for (StatusStream stream : emitters) {
+            stream.publish(event);
+        }
     }
 
     /**
@@ -0,0 +1,156 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.configs.SchedulerConfig;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Esecuzione differita e accorpata dei controlli di stato forzati
+ *
+ * I controlli forzati (cambio di stato da ping o heartbeat, spegnimento remoto) possono fare SSH:
+ * eseguiti sul thread della richiesta HTTP la bloccavano per secondi, e con più PC che si
+ * accendono insieme partivano decine di valutazioni identiche. Qui ogni richiesta ritorna subito:
+ * - le richieste con la stessa chiave entro la finestra di debounce diventano una sola esecuzione
+ * - se arriva una richiesta mentre quella chiave è in esecuzione, ne segue una sola al termine,
+ *   così l'ultimo cambiamento non va perso
+ * - chiavi diverse (PC diversi) vengono valutate in parallelo su un piccolo pool
+ */
+@Service
+public class ForcedCheckDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForcedCheckDispatcher.class);
+
+    /**
+     * Contatori del dispatcher
+     * @param coalesced richieste assorbite da un'esecuzione già pianificata
+     */
+    public record Metrics(long debounceMs, int threads, long requested, long coalesced, long executed,
+                          long failures, int pending) {
+    }
+
+    /**
+     * Stato di una chiave; accesso sotto il lock del dispatcher
+     */
+    private static final class Slot {
+        Runnable task;
+        boolean scheduled;
+        boolean running;
+        boolean rerun;
+    }
+
+    private final long debounceMs;
+    private final int threads;
+    private final ScheduledExecutorService executor;
+    private final Map<String, Slot> slots = new HashMap<>();
+
+    private long requested;
+    private long coalesced;
+    private long executed;
+    private long failures;
+
+    public ForcedCheckDispatcher(SchedulerConfig schedulerConfig) {
+        this.debounceMs = Math.max(0, schedulerConfig.getForcedCheckDebounceMs());
+        this.threads = Math.max(1, schedulerConfig.getForcedCheckThreads());
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(threads, r -> {
+            Thread t = new Thread(r, "forced-check-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Richiede un controllo senza attenderlo
+     * @param key risorsa del controllo (es. "system:192.168.1.10"): richieste con la stessa chiave si accorpano
+     * @param task controllo da eseguire; se arrivano più richieste vale l'ultima
+     */
+    public void submit(String key, Runnable task) {
+        synchronized (slots) {
+            requested++;
+            Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+            slot.task = task;
+            if (slot.scheduled || slot.rerun) {
+                coalesced++;
+                return;
+            }
+            if (slot.running) {
+                slot.rerun = true;
+                return;
+            }
+            slot.scheduled = true;
+        }
+        schedule(key);
+    }
+
+    private void schedule(String key) {
+        try {
+            executor.schedule(() -> run(key), debounceMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            synchronized (slots) {
+                slots.remove(key); // Dispatcher in chiusura
+            }
+        }
+    }
+
+    private void run(String key) {
+        Slot slot;
+        Runnable task;
+        synchronized (slots) {
+            slot = slots.get(key);
+            if (slot == null) {
+                return;
+            }
+            slot.scheduled = false;
+            slot.running = true;
+            task = slot.task;
+        }
+
+        boolean failed = false;
+        try {
+            task.run();
+        } catch (Throwable t) {
+            failed = true;
+            logger.error("Errore nel controllo forzato {}", key, t);
+        }
+
+        boolean again;
+        synchronized (slots) {
+            executed++;
+            if (failed) {
+                failures++;
+            }
+            slot.running = false;
+            again = slot.rerun;
+            if (again) {
+                slot.rerun = false;
+                slot.scheduled = true;
+            } else {
+                slots.remove(key);
+            }
+        }
+        if (again) {
+            schedule(key);
+        }
+    }
+
+    public Metrics getMetrics() {
+        synchronized (slots) {
+            return new Metrics(debounceMs, threads, requested, coalesced, executed, failures, slots.size());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
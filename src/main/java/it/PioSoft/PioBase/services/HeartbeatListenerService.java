@@ -0,0 +1,276 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.configs.PcMappingConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ricevitore UDP degli heartbeat inviati dai PC, alternativa leggera a POST /api/pc/ping.
+ *
+ * Un thread dedicato legge i datagrammi da un {@link DatagramChannel} non bloccante e li
+ * accumula per una finestra di pochi millisecondi: lo stato del monitor viene aggiornato
+ * una volta per finestra, con un solo lock per tutti i PC, senza passare da Tomcat.
+ *
+ * Il ricevitore non è autenticato, quindi accetta solo:
+ * - datagrammi il cui campo host coincide con l'indirizzo sorgente (o è 0): un mittente non può
+ *   segnalare la presenza di altri PC
+ * - PC già noti: configurati in pc.mapping o già monitorati (es. registrati con POST /api/pc/ping);
+ *   un IP qualsiasi della rete non viene aggiunto alle sonde né ai controlli forzati
+ * I PC tracciati sono comunque al massimo {@link #MAX_TRACKED_HOSTS}.
+ *
+ * Formato del datagramma (big-endian, 24 byte, 36 con le metriche):
+ * <pre>
+ * 0  magic     4 byte  "PBHB"
+ * 4  versione  1 byte  1
+ * 5  flag      1 byte  bit 0 = metriche presenti
+ * 6  riservato 2 byte
+ * 8  host      4 byte  IPv4 del PC, uguale all'indirizzo sorgente (0 = indirizzo sorgente)
+ * 12 sequenza  4 byte  contatore senza segno, incrementato a ogni invio
+ * 16 timestamp 8 byte  epoch in millisecondi del PC
+ * 24 cpu       4 byte  utilizzo CPU in centesimi di punto percentuale
+ * 28 ram usata 4 byte  MB
+ * 32 ram tot.  4 byte  MB
+ * </pre>
+ */
+@Service
+public class HeartbeatListenerService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatListenerService.class);
+
+    public static final int MAGIC = 0x50424842; // "PBHB"
+    public static final int VERSION = 1;
+    public static final int FLAG_METRICS = 1;
+    public static final int BASE_LENGTH = 24;
+    public static final int METRICS_LENGTH = 36;
+    // Un salto indietro della sequenza oltre questa soglia indica un riavvio del client
+    private static final long SEQUENCE_RESTART_GAP = 1024;
+    // Limite ai PC tracciati (sequenze e ultimi heartbeat)
+    static final int MAX_TRACKED_HOSTS = 1024;
+
+    /**
+     * Ultimo heartbeat ricevuto da un PC; le metriche valgono -1 se non inviate
+     */
+    public record Heartbeat(String ip, long sequence, long sentAtMillis, long receivedAtMillis,
+                            double cpuPercent, long ramUsedMb, long ramTotalMb) {
+    }
+
+    /**
+     * Stato del ricevitore e ultimo heartbeat di ogni PC, con CPU e RAM se inviate
+     * @param discarded datagrammi non validi, di host non ammessi, duplicati o fuori ordine
+     */
+    public record Metrics(boolean listening, int port, long received, long discarded, List<Heartbeat> hosts) {
+    }
+
+    private final PcMappingConfig config;
+    private final PcPingMonitorService pcPingMonitorService;
+    private final DeviceMonitoringService deviceMonitoringService;
+
+    private final Map<String, Heartbeat> lastHeartbeats = new ConcurrentHashMap<>();
+    // Confinata al thread ricevitore
+    private final Map<String, Long> lastSequences = new HashMap<>();
+
+    private volatile DatagramChannel channel;
+    private volatile Selector selector;
+    private volatile Thread receiverThread;
+    private volatile long received;
+    private volatile long discarded;
+
+    public HeartbeatListenerService(PcMappingConfig config, PcPingMonitorService pcPingMonitorService,
+                                    DeviceMonitoringService deviceMonitoringService) {
+        this.config = config;
+        this.pcPingMonitorService = pcPingMonitorService;
+        this.deviceMonitoringService = deviceMonitoringService;
+    }
+
+    @PostConstruct
+    public void start() {
+        PcMappingConfig.Heartbeat settings = config.getHeartbeat();
+        if (!settings.isEnabled()) {
+            return;
+        }
+        try {
+            selector = Selector.open();
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(settings.getPort()));
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            // La porta occupata non deve impedire l'avvio: resta disponibile l'endpoint HTTP
+            logger.warn("Impossibile avviare il ricevitore heartbeat UDP sulla porta {}: {}",
+                settings.getPort(), e.getMessage());
+            closeQuietly();
+            return;
+        }
+
+        receiverThread = new Thread(() -> receiveLoop(Math.max(1, settings.getBatchMs())), "heartbeat-udp");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+        logger.info("Ricevitore heartbeat UDP in ascolto sulla porta {}", settings.getPort());
+    }
+
+    private void receiveLoop(int batchMs) {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        Map<String, Heartbeat> batch = new LinkedHashMap<>();
+        long batchStart = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // Con un lotto aperto si attende solo il resto della finestra
+                long wait = batch.isEmpty()
+                    ? 0
+                    : Math.max(1, batchMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStart));
+                selector.select(wait);
+                selector.selectedKeys().clear();
+
+                SocketAddress source;
+                while ((source = channel.receive(buffer.clear())) != null) {
+                    buffer.flip();
+                    Heartbeat heartbeat = parse(buffer, source);
+                    if (heartbeat == null || !isKnownHost(heartbeat.ip()) || !acceptSequence(heartbeat)) {
+                        discarded++;
+                        continue;
+                    }
+                    received++;
+                    if (batch.isEmpty()) {
+                        batchStart = System.nanoTime();
+                    }
+                    batch.put(heartbeat.ip(), heartbeat); // Nel lotto conta solo l'ultimo per PC
+                }
+
+                if (!batch.isEmpty() && System.nanoTime() - batchStart >= TimeUnit.MILLISECONDS.toNanos(batchMs)) {
+                    flush(batch);
+                    batch.clear();
+                }
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException e) {
+                if (!channel.isOpen()) {
+                    return;
+                }
+                logger.warn("Errore ricezione heartbeat UDP: {}", e.getMessage());
+            } catch (RuntimeException e) {
+                logger.error("Errore elaborazione heartbeat UDP", e);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Decodifica un datagramma
+     * @return heartbeat o null se il formato non è valido o l'host dichiarato non è il mittente
+     */
+    static Heartbeat parse(ByteBuffer buffer, SocketAddress source) {
+        if (buffer.remaining() < BASE_LENGTH || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+            return null;
+        }
+        int flags = buffer.get();
+        buffer.getShort();
+        int host = buffer.getInt();
+        long sequence = Integer.toUnsignedLong(buffer.getInt());
+        long sentAt = buffer.getLong();
+
+        if (!(source instanceof InetSocketAddress socket) || socket.getAddress() == null
+            || !HostStateTable.isIpv4(socket.getAddress().getHostAddress())) {
+            return null;
+        }
+        String ip = socket.getAddress().getHostAddress();
+        if (host != 0 && !ip.equals(HostStateTable.unpackIpv4(host))) {
+            return null; // Heartbeat per conto di un altro host
+        }
+
+        double cpu = -1;
+        long ramUsed = -1;
+        long ramTotal = -1;
+        if ((flags & FLAG_METRICS) != 0) {
+            if (buffer.remaining() < METRICS_LENGTH - BASE_LENGTH) {
+                return null;
+            }
+            cpu = buffer.getInt() / 100.0;
+            ramUsed = Integer.toUnsignedLong(buffer.getInt());
+            ramTotal = Integer.toUnsignedLong(buffer.getInt());
+        }
+        return new Heartbeat(ip, sequence, sentAt, System.currentTimeMillis(), cpu, ramUsed, ramTotal);
+    }
+
+    /**
+     * PC configurato in pc.mapping o già monitorato
+     */
+    private boolean isKnownHost(String ip) {
+        return pcPingMonitorService.isMonitored(ip) || config.getMapping().containsValue(ip);
+    }
+
+    /**
+     * Scarta duplicati e datagrammi arrivati fuori ordine, accettando il riavvio del client
+     */
+    private boolean acceptSequence(Heartbeat heartbeat) {
+        Long last = lastSequences.get(heartbeat.ip());
+        if (last == null && lastSequences.size() >= MAX_TRACKED_HOSTS) {
+            return false;
+        }
+        if (last != null && heartbeat.sequence() <= last && last - heartbeat.sequence() < SEQUENCE_RESTART_GAP) {
+            return false;
+        }
+        lastSequences.put(heartbeat.ip(), heartbeat.sequence());
+        return true;
+    }
+
+    private void flush(Map<String, Heartbeat> batch) {
+        lastHeartbeats.putAll(batch);
+        List<String> changed = pcPingMonitorService.receiveHeartbeats(batch.keySet());
+        for (String pcIp : changed) {
+            // Se lo stato è cambiato, forza aggiornamento SSE (accodato, SSH fuori dal thread ricevitore)
+            deviceMonitoringService.forceCombinedStatusCheck(pcIp);
+        }
+    }
+
+    public Metrics getMetrics() {
+        DatagramChannel current = channel;
+        List<Heartbeat> heartbeats = new ArrayList<>(lastHeartbeats.values());
+        heartbeats.sort((a, b) -> a.ip().compareTo(b.ip()));
+        return new Metrics(current != null && current.isOpen(), config.getHeartbeat().getPort(), received, discarded,
+            heartbeats);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Thread thread = receiverThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException ignored) {
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package it.PioSoft.PioBase.services;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tabella compatta dello stato degli host monitorati.
+ *
+ * Ogni host è identificato dall'indirizzo IPv4 impacchettato in un int e occupa uno slot
+ * negli array primitivi (timestamp monotoni in nanosecondi, bit di stato, contatori).
+ * I timestamp sono valori di System.nanoTime(): la loro validità è indicata dai bit di stato
+ * e vanno confrontati per differenza.
+ * Le letture sono lock-free; le scritture sono serializzate sul monitor della tabella,
+ * che i chiamanti possono usare anche per aggiornamenti composti di più campi.
+ * Il ciclo di sonda non alloca oggetti per aggiornare lo stato.
+ */
+public final class HostStateTable {
+
+    // Bit di stato
+    public static final int FLAG_KNOWN = 1;       // Stato determinato almeno una volta
+    public static final int FLAG_ONLINE = 1 << 1;
+    public static final int FLAG_SEEN = 1 << 2;        // lastSeenNanos valido
+    public static final int FLAG_TRANSITION = 1 << 3;  // transitionUntilNanos valido
+    public static final int FLAG_SHUTTING_DOWN = 1 << 4;     // Spegnimento in verifica, shutdownStartedNanos valido
+    public static final int FLAG_SHUTDOWN_MEASURED = 1 << 5; // lastShutdownMs valido
+    public static final int FLAG_STALE = 1 << 6;             // Stato ripristinato da snapshot, non ancora riverificato
+
+    public static final int NO_SLOT = -1;
+
+    /**
+     * Array di una generazione della tabella; sostituiti in blocco quando la tabella cresce
+     */
+    private static final class Storage {
+        final AtomicIntegerArray bucketKeys;  // 0 = bucket libero
+        final int[] bucketSlots;
+        final int mask;
+
+        final String[] ips;
+        final AtomicLongArray lastSeenNanos;
+        final AtomicLongArray nextProbeNanos;
+        final AtomicLongArray transitionUntilNanos;
+        final AtomicLongArray shutdownStartedNanos;
+        final AtomicIntegerArray flags;
+        final AtomicIntegerArray consecutiveFailures;
+        final AtomicIntegerArray intervalMs;
+        final AtomicIntegerArray preferredMethod; // ordinale + 1, 0 = nessuno
+        final AtomicIntegerArray lastShutdownMs;
+        volatile int size;
+
+        Storage(int capacity) {
+            int buckets = Integer.highestOneBit(Math.max(4, capacity * 2 - 1)) << 1;
+            bucketKeys = new AtomicIntegerArray(buckets);
+            bucketSlots = new int[buckets];
+            mask = buckets - 1;
+            ips = new String[capacity];
+            lastSeenNanos = new AtomicLongArray(capacity);
+            nextProbeNanos = new AtomicLongArray(capacity);
+            transitionUntilNanos = new AtomicLongArray(capacity);
+            shutdownStartedNanos = new AtomicLongArray(capacity);
+            flags = new AtomicIntegerArray(capacity);
+            consecutiveFailures = new AtomicIntegerArray(capacity);
+            intervalMs = new AtomicIntegerArray(capacity);
+            preferredMethod = new AtomicIntegerArray(capacity);
+            lastShutdownMs = new AtomicIntegerArray(capacity);
+        }
+
+        int capacity() {
+            return ips.length;
+        }
+
+        int find(int key) {
+            if (key == 0) {
+                return NO_SLOT; // 0 segna il bucket libero: 0.0.0.0 non è mai registrato
+            }
+            for (int b = mix(key) & mask; ; b = (b + 1) & mask) {
+                int k = bucketKeys.get(b);
+                if (k == key) {
+                    return bucketSlots[b];
+                }
+                if (k == 0) {
+                    return NO_SLOT;
+                }
+            }
+        }
+
+        void index(int key, int slot) {
+            int b = mix(key) & mask;
+            while (bucketKeys.get(b) != 0) {
+                b = (b + 1) & mask;
+            }
+            bucketSlots[b] = slot;
+            bucketKeys.set(b, key); // Scrittura volatile: pubblica lo slot ai lettori
+        }
+    }
+
+    private volatile Storage storage;
+
+    public HostStateTable(int initialCapacity) {
+        this.storage = new Storage(Math.max(4, initialCapacity));
+    }
+
+    /**
+     * Impacchetta un indirizzo IPv4 in notazione decimale puntata in un int
+     * @throws IllegalArgumentException se l'indirizzo non è IPv4
+     */
+    public static int packIpv4(String ip) {
+        int result = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    throw new IllegalArgumentException("Indirizzo IPv4 non valido: " + ip);
+                }
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                result = (result << 8) | octet;
+                octet = -1;
+                dots++;
+            } else {
+                throw new IllegalArgumentException("Indirizzo IPv4 non valido: " + ip);
+            }
+        }
+        if (dots != 3 || octet < 0) {
+            throw new IllegalArgumentException("Indirizzo IPv4 non valido: " + ip);
+        }
+        return (result << 8) | octet;
+    }
+
+    /**
+     * true se l'indirizzo è un IPv4 che può essere un host monitorato (0.0.0.0 escluso)
+     */
+    public static boolean isIpv4(String ip) {
+        try {
+            return packIpv4(ip) != 0;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public static String unpackIpv4(int key) {
+        return ((key >>> 24) & 0xFF) + "." + ((key >>> 16) & 0xFF) + "." + ((key >>> 8) & 0xFF) + "." + (key & 0xFF);
+    }
+
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Slot dell'host o {@link #NO_SLOT} se non registrato (lock-free)
+     */
+    public int slotOf(int key) {
+        return storage.find(key);
+    }
+
+    public int slotOf(String ip) {
+        return slotOf(packIpv4(ip));
+    }
+
+    /**
+     * Registra un host se assente
+     * @return slot dell'host
+     */
+    public synchronized int register(String ip) {
+        int key = packIpv4(ip);
+        if (key == 0) {
+            throw new IllegalArgumentException("Indirizzo IPv4 non valido: " + ip);
+        }
+        Storage st = storage;
+        int slot = st.find(key);
+        if (slot != NO_SLOT) {
+            return slot;
+        }
+        if (st.size == st.capacity()) {
+            st = grow(st);
+        }
+        slot = st.size;
+        st.ips[slot] = ip;
+        st.index(key, slot);
+        st.size = slot + 1;
+        return slot;
+    }
+
+    private Storage grow(Storage old) {
+        Storage grown = new Storage(old.capacity() * 2);
+        for (int slot = 0; slot < old.size; slot++) {
+            grown.ips[slot] = old.ips[slot];
+            grown.lastSeenNanos.set(slot, old.lastSeenNanos.get(slot));
+            grown.nextProbeNanos.set(slot, old.nextProbeNanos.get(slot));
+            grown.transitionUntilNanos.set(slot, old.transitionUntilNanos.get(slot));
+            grown.shutdownStartedNanos.set(slot, old.shutdownStartedNanos.get(slot));
+            grown.flags.set(slot, old.flags.get(slot));
+            grown.consecutiveFailures.set(slot, old.consecutiveFailures.get(slot));
+            grown.intervalMs.set(slot, old.intervalMs.get(slot));
+            grown.preferredMethod.set(slot, old.preferredMethod.get(slot));
+            grown.lastShutdownMs.set(slot, old.lastShutdownMs.get(slot));
+            grown.index(packIpv4(old.ips[slot]), slot);
+        }
+        grown.size = old.size;
+        storage = grown;
+        return grown;
+    }
+
+    public int size() {
+        return storage.size;
+    }
+
+    public String ipAt(int slot) {
+        return storage.ips[slot];
+    }
+
+    // --- Letture lock-free ---
+
+    public int flags(int slot) {
+        return storage.flags.get(slot);
+    }
+
+    public boolean isOnline(int slot) {
+        return (flags(slot) & FLAG_ONLINE) != 0;
+    }
+
+    public boolean isKnown(int slot) {
+        return (flags(slot) & FLAG_KNOWN) != 0;
+    }
+
+    public long lastSeenNanos(int slot) {
+        return storage.lastSeenNanos.get(slot);
+    }
+
+    public long nextProbeNanos(int slot) {
+        return storage.nextProbeNanos.get(slot);
+    }
+
+    public long transitionUntilNanos(int slot) {
+        return storage.transitionUntilNanos.get(slot);
+    }
+
+    public long shutdownStartedNanos(int slot) {
+        return storage.shutdownStartedNanos.get(slot);
+    }
+
+    public int lastShutdownMs(int slot) {
+        return storage.lastShutdownMs.get(slot);
+    }
+
+    public int consecutiveFailures(int slot) {
+        return storage.consecutiveFailures.get(slot);
+    }
+
+    public int intervalMs(int slot) {
+        return storage.intervalMs.get(slot);
+    }
+
+    /**
+     * @return ordinale + 1 del metodo di sonda preferito, 0 se nessuno
+     */
+    public int preferredMethod(int slot) {
+        return storage.preferredMethod.get(slot);
+    }
+
+    // --- Scritture serializzate ---
+
+    public synchronized void setFlag(int slot, int flag, boolean value) {
+        AtomicIntegerArray flags = storage.flags;
+        int current = flags.get(slot);
+        flags.set(slot, value ? current | flag : current & ~flag);
+    }
+
+    /**
+     * Imposta lo stato online/offline e marca lo stato come determinato
+     */
+    public synchronized void setOnline(int slot, boolean online) {
+        AtomicIntegerArray flags = storage.flags;
+        int current = flags.get(slot) | FLAG_KNOWN;
+        flags.set(slot, online ? current | FLAG_ONLINE : current & ~FLAG_ONLINE);
+    }
+
+    public synchronized void setLastSeenNanos(int slot, long nanos) {
+        storage.lastSeenNanos.set(slot, nanos);
+    }
+
+    public synchronized void setNextProbeNanos(int slot, long nanos) {
+        storage.nextProbeNanos.set(slot, nanos);
+    }
+
+    public synchronized void setTransitionUntilNanos(int slot, long nanos) {
+        storage.transitionUntilNanos.set(slot, nanos);
+    }
+
+    public synchronized void setShutdownStartedNanos(int slot, long nanos) {
+        storage.shutdownStartedNanos.set(slot, nanos);
+    }
+
+    public synchronized void setLastShutdownMs(int slot, int ms) {
+        storage.lastShutdownMs.set(slot, ms);
+    }
+
+    public synchronized void setConsecutiveFailures(int slot, int failures) {
+        storage.consecutiveFailures.set(slot, failures);
+    }
+
+    public synchronized void setIntervalMs(int slot, int intervalMs) {
+        storage.intervalMs.set(slot, intervalMs);
+    }
+
+    public synchronized void setPreferredMethod(int slot, int methodOrdinalPlusOne) {
+        storage.preferredMethod.set(slot, methodOrdinalPlusOne);
+    }
+}
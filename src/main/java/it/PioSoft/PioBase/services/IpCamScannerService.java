@@ -1,9 +1,9 @@
 package it.PioSoft.PioBase.services;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import it.PioSoft.PioBase.dto.CameraStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
@@ -28,14 +28,25 @@ public class IpCamScannerService {
     private static final long RESCAN_INTERVAL_MS = 20 * 60 * 1000; // 20 minuti in millisecondi
 
     private final DeviceMonitoringService monitoringService;
+    private final ReachabilityService reachabilityService;
+    private final NeighborTableService neighborTableService;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     private String currentCamIp = null;
+    private String currentCamMac = null; // Dalla tabella ARP, per seguire la cam se cambia IP
+    // URL RTSP dell'ultimo IP visto, per non ricostruire la stringa a ogni controllo
+    private String rtspUrlIp;
+    private String lastRtspUrl;
     private boolean isScanning = false;
     private long lastScanTime = 0; // Timestamp dell'ultima scansione
 
-    public IpCamScannerService(DeviceMonitoringService monitoringService) {
+    public IpCamScannerService(DeviceMonitoringService monitoringService, ReachabilityService reachabilityService,
+                               NeighborTableService neighborTableService, MonitoringScheduler monitoringScheduler) {
         this.monitoringService = monitoringService;
+        this.reachabilityService = reachabilityService;
+        this.neighborTableService = neighborTableService;
+        // Corsia propria: la scansione della subnet non ritarda più gli altri controlli
+        monitoringScheduler.schedule("check-cam-status", 3000, this::checkCamStatus);
         // Registra questo service nel monitoring service per evitare dipendenze circolari
         monitoringService.setIpCamScannerService(this);
         initializeConfigDirectory();
@@ -120,8 +131,12 @@ public class IpCamScannerService {
                 return;
             }
 
-            logger.info("Scansione rete: {}", network);
-            List<String> foundDevices = scanNetworkForRtspDevices(network);
+            // Prima i vicini già risolti nella tabella ARP, poi l'intera sottorete
+            List<String> foundDevices = scanKnownNeighbors(network);
+            if (foundDevices.isEmpty()) {
+                logger.info("Scansione rete: {}", network);
+                foundDevices = scanNetworkForRtspDevices(network);
+            }
 
             if (!foundDevices.isEmpty()) {
                 String foundIp = foundDevices.get(0);
@@ -157,7 +172,6 @@ public class IpCamScannerService {
      * Verifica periodicamente lo stato della cam (ogni 3 secondi)
      * Esegue scansione completa della rete solo se offline E sono passati almeno 20 minuti
      */
-    @Scheduled(fixedDelay = 3000)
     public void checkCamStatus() {
         if (currentCamIp == null) {
             // Se non abbiamo un IP, prova a scansionare (solo se non stiamo già scansionando)
@@ -177,21 +191,29 @@ public class IpCamScannerService {
 
         // Verifica se la cam è online (ping veloce - operazione leggera)
         boolean isOnline = isCamOnline(currentCamIp);
+        if (isOnline) {
+            String mac = neighborTableService.getMacByIp(currentCamIp);
+            if (mac != null) {
+                currentCamMac = mac;
+            }
+        } else {
+            isOnline = followCamByMac();
+        }
 
-        // Prepara lo stato da broadcast
-        Map<String, Object> status = new HashMap<>();
-        status.put("ip", currentCamIp);
-        status.put("timestamp", System.currentTimeMillis());
-        status.put("online", isOnline);
-        status.put("type", "ipcam");
-        status.put("port", RTSP_PORT);
-
+        // Prepara lo stato da broadcast (URL RTSP riusato finché l'IP non cambia)
+        String camIp = currentCamIp;
+        String rtspUrl = null;
         if (isOnline) {
-            status.put("rtspUrl", "rtsp://" + currentCamIp + ":" + RTSP_PORT + "/");
+            if (!camIp.equals(rtspUrlIp)) {
+                rtspUrlIp = camIp;
+                lastRtspUrl = "rtsp://" + camIp + ":" + RTSP_PORT + "/";
+            }
+            rtspUrl = lastRtspUrl;
         }
+        CameraStatus status = new CameraStatus(camIp, System.currentTimeMillis(), isOnline, RTSP_PORT, rtspUrl);
 
         // Usa il broadcast del DeviceMonitoringService
-        broadcastCamStatus(currentCamIp, status);
+        broadcastCamStatus(camIp, status);
 
         // Se offline, ri-scansiona la rete SOLO se sono passati almeno 20 minuti
         if (!isOnline && !isScanning) {
@@ -207,28 +229,36 @@ public class IpCamScannerService {
     }
 
     /**
-     * Verifica se la cam è online tramite ping sulla porta RTSP
+     * Se la cam offline compare nella tabella ARP con un altro IP (es. nuovo lease DHCP)
+     * la segue senza attendere la ri-scansione della rete
+     * @return true se la cam è stata ritrovata online al nuovo IP
      */
-    private boolean isCamOnline(String ip) {
-        try {
-            // Prima prova un ping ICMP veloce
-            InetAddress inet = InetAddress.getByName(ip);
-            if (!inet.isReachable(PING_TIMEOUT_MS)) {
-                return false;
-            }
-
-            // Poi verifica la porta RTSP
-            return checkPort(ip, RTSP_PORT);
-
-        } catch (Exception e) {
+    private boolean followCamByMac() {
+        if (currentCamMac == null) {
+            return false;
+        }
+        String relocatedIp = neighborTableService.getIpByMac(currentCamMac);
+        if (relocatedIp == null || relocatedIp.equals(currentCamIp) || !isCamOnline(relocatedIp)) {
             return false;
         }
+        logger.info("IP cam {} spostata da {} a {} (tabella ARP)", currentCamMac, currentCamIp, relocatedIp);
+        saveCamIpToConfig(relocatedIp);
+        return true;
+    }
+
+    /**
+     * Verifica se la cam è online tramite la cache condivisa
+     * Serve la porta RTSP: un ping da solo non basta, perché la cam con il servizio video fermo o un altro
+     * dispositivo che ha ricevuto lo stesso IP dal DHCP risulterebbero online e la ri-scansione non partirebbe
+     */
+    private boolean isCamOnline(String ip) {
+        return reachabilityService.isReachable(ip, ReachabilityService.Profile.CAMERA_RTSP, PING_TIMEOUT_MS);
     }
 
     /**
      * Broadcast dello stato della cam usando il sistema esistente
      */
-    private void broadcastCamStatus(String ipAddress, Map<String, Object> status) {
+    private void broadcastCamStatus(String ipAddress, CameraStatus status) {
         // Utilizza il metodo broadcast del DeviceMonitoringService
         // tramite riflessione o esponendo un metodo pubblico
         try {
@@ -388,6 +418,23 @@ public class IpCamScannerService {
         return null;
     }
 
+    /**
+     * Verifica solo gli host della sottorete presenti nella tabella ARP
+     */
+    private List<String> scanKnownNeighbors(String networkPrefix) {
+        List<String> foundDevices = new ArrayList<>();
+        Set<String> localIps = getLocalIps();
+        for (String ip : neighborTableService.getResolvedIps()) {
+            if (ip.startsWith(networkPrefix) && !localIps.contains(ip)
+                && checkPort(ip, RTSP_PORT) && isRealIpCam(ip)) {
+                logger.info("IP Cam RTSP confermata tra i vicini ARP: {}", ip);
+                foundDevices.add(ip);
+                break;
+            }
+        }
+        return foundDevices;
+    }
+
     /**
      * Scansiona la rete per dispositivi con porta RTSP aperta
      */
@@ -468,6 +515,26 @@ public class IpCamScannerService {
         return currentCamIp;
     }
 
+    /**
+     * MAC della cam dalla tabella ARP (null se non ancora rilevato)
+     */
+    public String getCurrentCamMac() {
+        return currentCamMac;
+    }
+
+    /**
+     * Ripristina la cam nota da snapshot se la configurazione non l'ha già fornita
+     */
+    public void restoreCamInventory(String ip, String mac) {
+        if (currentCamIp == null && ip != null) {
+            logger.info("IP cam ripristinato da snapshot: {}", ip);
+            currentCamIp = ip;
+        }
+        if (currentCamMac == null && mac != null && ip != null && ip.equals(currentCamIp)) {
+            currentCamMac = mac;
+        }
+    }
+
     /**
      * Forza una nuova scansione della rete
      */
@@ -0,0 +1,147 @@
+package it.PioSoft.PioBase.services;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Istogramma di latenza a memoria fissa con bucket logaritmici e finestre scorrevoli.
+ *
+ * I valori sono in microsecondi: ogni potenza di 2 è divisa in 8 sotto-bucket
+ * (precisione ~12%) fino a circa 67 secondi. Le misure sono raccolte in 15 slot
+ * da un minuto ciascuno, riutilizzati a rotazione: la memoria resta costante
+ * e si possono interrogare finestre da 1 a 15 minuti.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 26; // 2^26 µs ~ 67 secondi
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long MAX_VALUE_MICROS = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    public static final long SLOT_MS = 60_000;
+    public static final int SLOTS = 15;
+
+    private final int[][] counts = new int[SLOTS][BUCKETS];
+    private final long[] slotIds = new long[SLOTS];
+    private final long[] samples = new long[SLOTS];
+    private final long[] losses = new long[SLOTS];
+    private final long[] maxMicros = new long[SLOTS];
+
+    /**
+     * Riepilogo di una finestra: percentili e massimo in microsecondi, -1 se nessun campione
+     */
+    public record Summary(long samples, long losses, double lossRate,
+                          long p50Micros, long p90Micros, long p99Micros, long maxMicros) {
+    }
+
+    public LatencyHistogram() {
+        Arrays.fill(slotIds, -1);
+    }
+
+    /**
+     * Registra un RTT misurato
+     */
+    public void record(long rttNanos, long nowMillis) {
+        long micros = Math.max(1, Math.min(MAX_VALUE_MICROS, TimeUnit.NANOSECONDS.toMicros(rttNanos)));
+        synchronized (this) {
+            int slot = slotFor(nowMillis);
+            counts[slot][bucketIndex(micros)]++;
+            samples[slot]++;
+            if (micros > maxMicros[slot]) {
+                maxMicros[slot] = micros;
+            }
+        }
+    }
+
+    /**
+     * Registra una sonda senza risposta
+     */
+    public synchronized void recordLoss(long nowMillis) {
+        losses[slotFor(nowMillis)]++;
+    }
+
+    private int slotFor(long nowMillis) {
+        long id = nowMillis / SLOT_MS;
+        int slot = (int) (id % SLOTS);
+        if (slotIds[slot] != id) {
+            // Slot di un giro precedente: azzeralo prima di riusarlo
+            Arrays.fill(counts[slot], 0);
+            samples[slot] = 0;
+            losses[slot] = 0;
+            maxMicros[slot] = 0;
+            slotIds[slot] = id;
+        }
+        return slot;
+    }
+
+    /**
+     * Calcola il riepilogo sugli ultimi windowMinutes minuti (slot corrente incluso)
+     */
+    public synchronized Summary summary(int windowMinutes, long nowMillis) {
+        int window = Math.max(1, Math.min(SLOTS, windowMinutes));
+        long currentId = nowMillis / SLOT_MS;
+        long[] merged = new long[BUCKETS];
+        long totalSamples = 0;
+        long totalLosses = 0;
+        long max = -1;
+
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long id = slotIds[slot];
+            if (id < 0 || id > currentId || currentId - id >= window) {
+                continue;
+            }
+            for (int b = 0; b < BUCKETS; b++) {
+                merged[b] += counts[slot][b];
+            }
+            totalSamples += samples[slot];
+            totalLosses += losses[slot];
+            if (samples[slot] > 0) {
+                max = Math.max(max, maxMicros[slot]);
+            }
+        }
+
+        long probes = totalSamples + totalLosses;
+        double lossRate = probes == 0 ? 0.0 : (double) totalLosses / probes;
+        // Il limite superiore del bucket non può superare il massimo osservato
+        return new Summary(totalSamples, totalLosses, lossRate,
+            Math.min(max, percentile(merged, totalSamples, 0.50)),
+            Math.min(max, percentile(merged, totalSamples, 0.90)),
+            Math.min(max, percentile(merged, totalSamples, 0.99)),
+            max);
+    }
+
+    private static long percentile(long[] merged, long total, double quantile) {
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += merged[b];
+            if (seen >= rank) {
+                return bucketUpperBound(b);
+            }
+        }
+        return MAX_VALUE_MICROS;
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,49 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.services.ReachabilityEngine.ProbeResult;
+import org.springframework.stereotype.Service;
+
+/**
+ * Misura della latenza verso un host interamente nella JVM, senza lanciare processi ping.
+ *
+ * L'RTT viene misurato come tempo di handshake TCP (SYN -> SYN/ACK) sulle porte note del PC,
+ * con ICMP come alternativa. Java 17 non espone i socket ICMP datagram non privilegiati senza
+ * codice nativo, quindi l'handshake TCP è la misura principale: su LAN è equivalente a un ping.
+ * Se la cache condivisa ha già una misura recente dell'host viene riutilizzata.
+ */
+@Service
+public class LatencyProber {
+
+    private final ReachabilityService reachabilityService;
+
+    public LatencyProber(ReachabilityService reachabilityService) {
+        this.reachabilityService = reachabilityService;
+    }
+
+    /**
+     * Misura la latenza verso un host
+     * @param ipAddress IP dell'host
+     * @param timeoutMs timeout della misura
+     * @return esito tipizzato: raggiungibilità, RTT in nanosecondi e metodo usato
+     */
+    public ProbeResult measure(String ipAddress, int timeoutMs) {
+        return reachabilityService.check(ipAddress, ReachabilityService.Profile.HOST, timeoutMs);
+    }
+
+    /**
+     * Misura che accetta solo risultati molto recenti (per i controlli dopo spegnimento)
+     */
+    public ProbeResult measureFresh(String ipAddress, int timeoutMs) {
+        return reachabilityService.check(ipAddress, ReachabilityService.Profile.HOST, timeoutMs, timeoutMs);
+    }
+
+    /**
+     * Formatta l'esito per i payload testuali esistenti (es. "0.42 ms")
+     */
+    public static String format(ProbeResult result) {
+        if (result == null || !result.reachable() || result.rttNanos() < 0) {
+            return "Ping non disponibile";
+        }
+        return String.format("%.2f ms", result.rttMicros() / 1000.0);
+    }
+}
@@ -0,0 +1,110 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.services.ReachabilityEngine.ProbeMethod;
+import it.PioSoft.PioBase.services.ReachabilityEngine.ProbeResult;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Statistiche di latenza per ogni host monitorato (PC e IP cam)
+ *
+ * Ogni sonda realmente eseguita viene registrata in un {@link LatencyHistogram} per host
+ * (RTT della sonda vincente e perdite) e in uno per host e metodo di sonda.
+ * Le statistiche servono a scegliere i timeout in base ai dati invece che a costanti fisse.
+ */
+@Service
+public class LatencyStatsService {
+
+    // Finestre scorrevoli esposte, in minuti
+    private static final int[] WINDOWS_MINUTES = {1, 5, 15};
+
+    private static final class HostStats {
+        final LatencyHistogram overall = new LatencyHistogram();
+        final Map<ProbeMethod, LatencyHistogram> byMethod = new EnumMap<>(ProbeMethod.class);
+
+        synchronized LatencyHistogram forMethod(ProbeMethod method) {
+            return byMethod.computeIfAbsent(method, m -> new LatencyHistogram());
+        }
+
+        synchronized Map<ProbeMethod, LatencyHistogram> methods() {
+            return new EnumMap<>(byMethod);
+        }
+    }
+
+    private final Map<String, HostStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Registra l'esito di una sonda
+     */
+    public void record(ProbeResult result) {
+        long now = System.currentTimeMillis();
+        HostStats host = stats.computeIfAbsent(result.ip(), ip -> new HostStats());
+        if (result.reachable() && result.rttNanos() >= 0) {
+            host.overall.record(result.rttNanos(), now);
+            if (result.method() != null) {
+                host.forMethod(result.method()).record(result.rttNanos(), now);
+            }
+        } else {
+            host.overall.recordLoss(now);
+        }
+    }
+
+    public boolean hasStats(String ip) {
+        return stats.containsKey(ip);
+    }
+
+    /**
+     * Riepilogo delle latenze di un host: p50/p90/p99/max e tasso di perdita per ogni finestra,
+     * complessivo e per metodo di sonda
+     */
+    public Map<String, Object> getLatencyReport(String ip) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("ip", ip);
+        report.put("timestamp", System.currentTimeMillis());
+
+        HostStats host = stats.get(ip);
+        if (host == null) {
+            report.put("error", "Nessuna misura disponibile per " + ip);
+            return report;
+        }
+
+        long now = System.currentTimeMillis();
+        report.put("overall", windows(host.overall, now));
+
+        Map<String, Object> methods = new LinkedHashMap<>();
+        host.methods().forEach((method, histogram) -> methods.put(method.name(), windows(histogram, now)));
+        report.put("methods", methods);
+
+        // Timeout suggerito: 3 volte il p99 degli ultimi 15 minuti, almeno 100ms
+        LatencyHistogram.Summary longest = host.overall.summary(WINDOWS_MINUTES[WINDOWS_MINUTES.length - 1], now);
+        if (longest.p99Micros() > 0) {
+            report.put("suggestedTimeoutMs", Math.max(100, longest.p99Micros() * 3 / 1000));
+        }
+        return report;
+    }
+
+    private Map<String, Object> windows(LatencyHistogram histogram, long now) {
+        Map<String, Object> windows = new LinkedHashMap<>();
+        for (int minutes : WINDOWS_MINUTES) {
+            LatencyHistogram.Summary summary = histogram.summary(minutes, now);
+            Map<String, Object> window = new LinkedHashMap<>();
+            window.put("samples", summary.samples());
+            window.put("losses", summary.losses());
+            window.put("lossRate", summary.lossRate());
+            window.put("p50Ms", toMillis(summary.p50Micros()));
+            window.put("p90Ms", toMillis(summary.p90Micros()));
+            window.put("p99Ms", toMillis(summary.p99Micros()));
+            window.put("maxMs", toMillis(summary.maxMicros()));
+            windows.put(minutes + "m", window);
+        }
+        return windows;
+    }
+
+    private static Double toMillis(long micros) {
+        return micros < 0 ? null : micros / 1000.0;
+    }
+}
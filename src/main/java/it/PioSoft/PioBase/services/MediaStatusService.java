@@ -0,0 +1,108 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.dto.MapStatus;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Eventi di stato di thumbnails e stream HLS per i client in ascolto
+ *
+ * Finora lo stato era solo interrogabile (GET /api/thumbnails/status, GET /api/stream/status):
+ * questo servizio lo legge periodicamente, solo per i topic con almeno un client, e pubblica
+ * un evento quando cambia, con la stessa consegna degli eventi di {@link DeviceMonitoringService}.
+ */
+@Service
+public class MediaStatusService {
+
+    public static final String THUMBNAILS = "thumbnails";
+    public static final String STREAM = "stream";
+
+    private final ThumbnailService thumbnailService;
+    private final HlsStreamService hlsStreamService;
+    private final SseDeliveryService sseDeliveryService;
+
+    private final Map<String, List<StatusStream>> streamsByTopic = new ConcurrentHashMap<>();
+    private final Map<String, MapStatus> lastStatus = new ConcurrentHashMap<>();
+
+    public MediaStatusService(ThumbnailService thumbnailService, HlsStreamService hlsStreamService,
+                              SseDeliveryService sseDeliveryService, MonitoringScheduler monitoringScheduler) {
+        this.thumbnailService = thumbnailService;
+        this.hlsStreamService = hlsStreamService;
+        this.sseDeliveryService = sseDeliveryService;
+        monitoringScheduler.schedule("check-media-status", 2000, this::checkMediaStatus);
+    }
+
+    public static boolean isTopic(String topic) {
+        return THUMBNAILS.equals(topic) || STREAM.equals(topic);
+    }
+
+    /**
+     * Nome dell'evento di un topic
+     */
+    public static String eventName(String topic) {
+        return THUMBNAILS.equals(topic) ? "thumbnailStatus" : "streamStatus";
+    }
+
+    /**
+     * Apre uno stream sullo stato di thumbnails o stream HLS
+     * @param topic {@link #THUMBNAILS} o {@link #STREAM}
+     */
+    public StatusStream open(String topic, StatusStream.Transport transport, StatusStream.Mode mode,
+                             StatusStream.Options options, String lastEventId) {
+        if (!isTopic(topic)) {
+            throw new IllegalArgumentException("Topic sconosciuto: " + topic);
+        }
+        StatusStream stream = sseDeliveryService.open(transport, topic, eventName(topic), mode, options);
+        stream.onClose(() -> remove(topic, stream));
+        streamsByTopic.computeIfAbsent(topic, k -> new CopyOnWriteArrayList<>()).add(stream);
+
+        if (!sseDeliveryService.resume(stream, lastEventId)) {
+            // Lettura locale economica: lo stato corrente si invia subito; lastStatus resta quello
+            // pubblicato, così un cambiamento visto qui arriva anche agli altri client al prossimo ciclo
+            stream.publish(sseDeliveryService.snapshot(topic, eventName(topic), readStatus(topic)));
+        }
+        return stream;
+    }
+
+    private void remove(String topic, StatusStream stream) {
+        sseDeliveryService.unregister(stream);
+        streamsByTopic.computeIfPresent(topic, (key, list) -> {
+            list.remove(stream);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    /**
+     * Pubblica i cambi di stato dei topic con almeno un client (corsia check-media-status)
+     */
+    public void checkMediaStatus() {
+        streamsByTopic.forEach((topic, streams) -> {
+            MapStatus status = readStatus(topic);
+            if (StatusStream.sameState(lastStatus.get(topic), status)) {
+                return;
+            }
+            lastStatus.put(topic, status);
+            SseEvent event = sseDeliveryService.event(topic, eventName(topic), status);
+            for (StatusStream stream : streams) {
+                stream.publish(event);
+            }
+        });
+    }
+
+    private MapStatus readStatus(String topic) {
+        Map<String, Object> status;
+        if (THUMBNAILS.equals(topic)) {
+            status = new HashMap<>(thumbnailService.getStatus());
+            status.put("latest", thumbnailService.getLatestThumbnail());
+        } else {
+            status = new HashMap<>(hlsStreamService.getStreamStatus());
+        }
+        status.put("timestamp", System.currentTimeMillis());
+        return new MapStatus(status);
+    }
+}
@@ -0,0 +1,335 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.configs.PcMappingConfig;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Agente remoto che invia in continuo le metriche di sistema dei PC Windows
+ *
+ * Ogni lettura di getSystemInfoQuick avviava un nuovo powershell.exe sul PC: l'avvio di PowerShell
+ * costa da solo un secondo o più di CPU sul PC ed era la latenza principale di ogni aggiornamento.
+ * Qui per ogni PC monitorato c'è un solo processo PowerShell, avviato su un canale SSH del
+ * {@link SshSessionPool}. All'avvio scrive l'inventario statico ({@link SystemInventory}), poi ogni
+ * pc.agent.interval-ms solo i contatori:
+ * <pre>
+ * I|hostname|core|RAM totale KB|avvio|sistema operativo     (una volta all'avvio)
+ * S|cpu%|RAM libera KB
+ * </pre>
+ * Le righe vengono lette man mano dallo stream del canale e l'ultimo campione di ogni PC resta in
+ * cache, già convertito nella mappa di info di sistema. Un riavvio del PC chiude il canale, quindi
+ * l'inventario viene riletto al riavvio dell'agente. L'agente parte alla prima richiesta, si
+ * ferma se nessuno legge i suoi campioni per pc.agent.idle-stop-ms e, se non parte o si interrompe,
+ * viene riprovato dopo pc.agent.retry-ms: nel frattempo i chiamanti tornano al comando singolo.
+ */
+@Service
+public class MetricsAgentService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsAgentService.class);
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    // Un campione è valido per tre intervalli: oltre, l'agente è considerato fermo
+    private static final int STALE_INTERVALS = 3;
+
+    /**
+     * Ultimo campione di un PC
+     */
+    public record Sample(long receivedAtMillis, int cpuPercent, long freeKb) {
+    }
+
+    /**
+     * Stato di un agente
+     * @param lastSampleAgeMs età dell'ultimo campione, -1 se non ne è mai arrivato uno
+     */
+    public record AgentMetrics(String host, boolean running, long starts, long samples, long failures,
+                               long lastSampleAgeMs, String lastError) {
+    }
+
+    private final SshSessionPool sshSessionPool;
+    private final PcMappingConfig.Agent config;
+    private final Map<String, Agent> agents = new ConcurrentHashMap<>();
+
+    public MetricsAgentService(PcMappingConfig pcMappingConfig, SshSessionPool sshSessionPool,
+                               MonitoringScheduler monitoringScheduler) {
+        this.sshSessionPool = sshSessionPool;
+        this.config = pcMappingConfig.getAgent();
+        monitoringScheduler.schedule("metrics-agents", 5000, this::stopIdleAgents);
+    }
+
+    /**
+     * Info di sistema dall'ultimo campione dell'agente, avviandolo se non è in esecuzione
+     * @return cpuUsage, ramUsage, availableRam e i campi dell'inventario (hostname, os, cores, totalRam,
+     *         bootTime, uptime);
+     *         null se l'agente è disattivato o non ha un campione recente
+     */
+    public Map<String, String> latest(String host) {
+        if (!config.isEnabled()) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Agent agent = agents.computeIfAbsent(host, Agent::new);
+        agent.lastRequestMillis = now;
+        agent.ensureRunning(now);
+
+        Sample sample = agent.sample;
+        long staleAfterMs = (long) Math.max(1000, config.getIntervalMs()) * STALE_INTERVALS;
+        return sample != null && now - sample.receivedAtMillis() <= staleAfterMs ? agent.info : null;
+    }
+
+    /**
+     * Ferma gli agenti i cui campioni non vengono più letti (corsia metrics-agents)
+     */
+    public void stopIdleAgents() {
+        long now = System.currentTimeMillis();
+        for (Agent agent : agents.values()) {
+            if (agent.isRunning() && now - agent.lastRequestMillis > config.getIdleStopMs()) {
+                logger.debug("Agente metriche inattivo, arresto per {}", agent.host);
+                agent.stop();
+            }
+        }
+    }
+
+    public List<AgentMetrics> getMetrics() {
+        long now = System.currentTimeMillis();
+        List<AgentMetrics> metrics = new ArrayList<>();
+        for (Agent agent : agents.values()) {
+            Sample sample = agent.sample;
+            metrics.add(new AgentMetrics(agent.host, agent.isRunning(), agent.starts, agent.samples, agent.failures,
+                sample != null ? now - sample.receivedAtMillis() : -1, agent.lastError));
+        }
+        metrics.sort((a, b) -> a.host().compareTo(b.host()));
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        agents.values().forEach(Agent::stop);
+    }
+
+    /**
+     * Comando dell'agente: le scritture su Console vengono svuotate subito, e se il canale è chiuso
+     * la scrittura fallisce e il processo termina
+     */
+    static String agentCommand(int intervalMs) {
+        return "powershell.exe -NoProfile -NonInteractive -Command \"" +
+            "$os = Get-CimInstance Win32_OperatingSystem; " +
+            SystemInventory.BOOT_SCRIPT +
+            SystemInventory.SCRIPT +
+            "try { [Console]::Out.WriteLine($inventory); [Console]::Out.Flush() } catch { exit 1 }; " +
+            "while ($true) { " +
+            "  $cpu = [int](Get-CimInstance Win32_Processor | Measure-Object -Property LoadPercentage -Average).Average; " +
+            "  $free = (Get-CimInstance Win32_OperatingSystem -Property FreePhysicalMemory).FreePhysicalMemory; " +
+            "  try { [Console]::Out.WriteLine('S|' + $cpu + '|' + $free); [Console]::Out.Flush() } catch { exit 1 }; " +
+            "  Start-Sleep -Milliseconds " + intervalMs + " " +
+            "}\"";
+    }
+
+    /**
+     * Agente di un PC: un thread che legge lo stream del canale finché resta aperto
+     */
+    private final class Agent {
+
+        final String host;
+        volatile long lastRequestMillis;
+        volatile Sample sample;
+        // Mappa già pronta per i chiamanti, ricostruita solo quando arriva un campione
+        volatile Map<String, String> info;
+        volatile String lastError;
+        volatile long starts;
+        volatile long samples;
+        volatile long failures;
+
+        // Accesso sotto il lock dell'agente
+        private Thread thread;
+        private SshSessionPool.StreamChannel channel;
+        private boolean stopRequested;
+        private long lastFailureMillis;
+
+        // Scritto solo dal thread di lettura
+        private SystemInventory inventory;
+
+        Agent(String host) {
+            this.host = host;
+        }
+
+        synchronized boolean isRunning() {
+            return thread != null && thread.isAlive();
+        }
+
+        synchronized void ensureRunning(long now) {
+            if (isRunning() || (lastFailureMillis > 0 && now - lastFailureMillis < config.getRetryMs())) {
+                return;
+            }
+            stopRequested = false;
+            thread = new Thread(this::run, "metrics-agent-" + host);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        synchronized void stop() {
+            stopRequested = true;
+            if (channel != null) {
+                channel.close(); // Lo stream termina e il thread esce
+            }
+        }
+
+        private void run() {
+            SshSessionPool.StreamChannel opened = null;
+            try {
+                opened = sshSessionPool.openStream(host, SshSessionPool.Operation.MONITORING,
+                    agentCommand(Math.max(100, config.getIntervalMs())), CONNECT_TIMEOUT_MS);
+                synchronized (this) {
+                    channel = opened;
+                    if (stopRequested) {
+                        return;
+                    }
+                }
+                starts++;
+                logger.debug("Agente metriche avviato per {}", host);
+
+                LineParser parser = new LineParser(this::onLine);
+                InputStream in = opened.stdout();
+                byte[] buffer = new byte[512];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    parser.feed(buffer, read);
+                }
+                lastError = "Agente terminato";
+            } catch (Exception e) {
+                lastError = e.getMessage();
+            } finally {
+                if (opened != null) {
+                    opened.close();
+                }
+                synchronized (this) {
+                    channel = null;
+                    if (!stopRequested) {
+                        failures++;
+                        lastFailureMillis = System.currentTimeMillis();
+                        logger.debug("Agente metriche interrotto per {}: {}", host, lastError);
+                    }
+                }
+                sample = null;
+                info = null;
+            }
+        }
+
+        private void onLine(byte[] line, int length) {
+            if (length > 2 && line[1] == '|') {
+                if (line[0] == 'S') {
+                    onSample(line, length);
+                } else if (line[0] == 'I') {
+                    inventory = SystemInventory.parse(new String(line, 0, length, StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        private void onSample(byte[] line, int length) {
+            SystemInventory current = inventory;
+            if (current == null) {
+                return; // Senza inventario manca la RAM totale
+            }
+            Sample next = parseSample(line, length, System.currentTimeMillis());
+            if (next == null) {
+                return;
+            }
+            info = sampleInfo(current, next);
+            sample = next;
+            samples++;
+        }
+    }
+
+    /**
+     * Interpreta la riga di un campione "S|cpu|RAM libera KB" senza creare stringhe
+     * @return null se la riga non è un campione valido (es. errore di WMI)
+     */
+    static Sample parseSample(byte[] line, int length, long receivedAtMillis) {
+        if (length < 3 || line[0] != 'S' || line[1] != '|') {
+            return null;
+        }
+        long[] values = new long[2];
+        int field = 0;
+        long value = 0;
+        boolean digits = false;
+        for (int i = 2; i <= length; i++) {
+            byte b = i < length ? line[i] : (byte) '|';
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                digits = true;
+            } else if (b == '|' && digits && field < values.length) {
+                values[field++] = value;
+                value = 0;
+                digits = false;
+            } else {
+                return null;
+            }
+        }
+        if (field != values.length) {
+            return null;
+        }
+        return new Sample(receivedAtMillis, (int) values[0], values[1]);
+    }
+
+    /**
+     * Info di sistema di un campione: contatori più inventario
+     */
+    static Map<String, String> sampleInfo(SystemInventory inventory, Sample sample) {
+        Map<String, String> info = new HashMap<>();
+        info.put("cpuUsage", sample.cpuPercent() + "%");
+        info.put("ramUsage", String.format(Locale.ROOT, "%.2f%%",
+            (inventory.totalRamKb() - sample.freeKb()) * 100.0 / inventory.totalRamKb()));
+        info.put("availableRam", sample.freeKb() / 1024 + " MB");
+        inventory.putInto(info, sample.receivedAtMillis());
+        return Map.copyOf(info);
+    }
+
+    /**
+     * Divide in righe i byte letti dal canale, senza creare stringhe per le righe dei campioni
+     * Le righe più lunghe del buffer vengono scartate; i \r di Windows vengono ignorati.
+     */
+    static final class LineParser {
+
+        interface LineHandler {
+            void onLine(byte[] line, int length);
+        }
+
+        private final byte[] line = new byte[1024];
+        private final LineHandler handler;
+        private int length;
+        private boolean overflow;
+
+        LineParser(LineHandler handler) {
+            this.handler = handler;
+        }
+
+        void feed(byte[] data, int count) {
+            for (int i = 0; i < count; i++) {
+                byte b = data[i];
+                if (b == '\n') {
+                    if (!overflow && length > 0) {
+                        handler.onLine(line, length);
+                    }
+                    length = 0;
+                    overflow = false;
+                } else if (b != '\r') {
+                    if (length < line.length) {
+                        line[length++] = b;
+                    } else {
+                        overflow = true;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.configs.SchedulerConfig;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler dei job periodici di monitoraggio, una corsia (thread) per ogni job
+ *
+ * Con lo scheduler predefinito di Spring (un solo thread) una scansione della subnet o una
+ * connessione SSH lenta ritardava tutti gli altri job. Qui ogni job ha il suo thread:
+ * - i tick sono a frequenza fissa; se un'esecuzione è ancora in corso i tick persi vengono
+ *   saltati (mai esecuzioni sovrapposte né raffiche di recupero)
+ * - per ogni job si registrano ritardo di avvio rispetto al tick, durata, sforamenti del
+ *   periodo, tick saltati e byte allocati per esecuzione, esposti da GET /api/monitor/scheduler
+ * Il periodo di ogni job si può cambiare con monitor.scheduler.periods.&lt;nome&gt;.
+ * I job partono a contesto Spring pronto, come quelli @Scheduled.
+ */
+@Service
+public class MonitoringScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(MonitoringScheduler.class);
+
+    /**
+     * Metriche di una corsia; i tempi sono in millisecondi
+     */
+    public record LaneMetrics(String name, long periodMs, boolean running, long runs, long failures,
+                              long overruns, long skippedTicks, double lastLagMs, double maxLagMs,
+                              double lastDurationMs, double avgDurationMs, double maxDurationMs,
+                              long lastAllocatedBytes, long avgAllocatedBytes, long lastStartEpochMillis) {
+    }
+
+    // Allocazione per thread: disponibile su HotSpot, altrimenti le metriche restano a -1
+    private static final com.sun.management.ThreadMXBean ALLOCATION = allocationBean();
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean hotspot && hotspot.isThreadAllocatedMemorySupported()) {
+            hotspot.setThreadAllocatedMemoryEnabled(true);
+            return hotspot;
+        }
+        return null;
+    }
+
+    private final SchedulerConfig schedulerConfig;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private volatile boolean started;
+
+    public MonitoringScheduler(SchedulerConfig schedulerConfig) {
+        this.schedulerConfig = schedulerConfig;
+    }
+
+    /**
+     * Registra un job periodico nella sua corsia
+     * @param name nome del job (chiave della configurazione e nome del thread)
+     * @param defaultPeriodMs periodo se non configurato
+     * @param initialDelayMs attesa prima della prima esecuzione
+     */
+    public void schedule(String name, long defaultPeriodMs, long initialDelayMs, Runnable job) {
+        long periodMs = Math.max(1, schedulerConfig.getPeriods().getOrDefault(name, defaultPeriodMs));
+        Lane lane = new Lane(name, periodMs, initialDelayMs, job);
+        if (lanes.putIfAbsent(name, lane) != null) {
+            throw new IllegalStateException("Job già registrato: " + name);
+        }
+        if (started) {
+            lane.start();
+        }
+    }
+
+    public void schedule(String name, long defaultPeriodMs, Runnable job) {
+        schedule(name, defaultPeriodMs, 0, job);
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        lanes.values().forEach(Lane::start);
+        logger.info("Scheduler di monitoraggio avviato con {} job", lanes.size());
+    }
+
+    public List<LaneMetrics> getMetrics() {
+        List<LaneMetrics> metrics = new ArrayList<>();
+        for (Lane lane : lanes.values()) {
+            metrics.add(lane.metrics());
+        }
+        metrics.sort((a, b) -> a.name().compareTo(b.name()));
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lanes.values().forEach(lane -> lane.executor.shutdownNow());
+    }
+
+    /**
+     * Corsia di un job: thread dedicato e tick a frequenza fissa con salto dei tick persi
+     */
+    private static final class Lane implements Runnable {
+
+        private final String name;
+        private final long periodNanos;
+        private final long initialDelayMs;
+        private final Runnable job;
+        private final ScheduledExecutorService executor;
+
+        // Scritti solo dal thread della corsia
+        private long nextTickNanos;
+        private volatile boolean running;
+        private volatile long runs;
+        private volatile long failures;
+        private volatile long overruns;
+        private volatile long skippedTicks;
+        private volatile long lastLagNanos;
+        private volatile long maxLagNanos;
+        private volatile long lastDurationNanos;
+        private volatile long totalDurationNanos;
+        private volatile long maxDurationNanos;
+        private volatile long lastAllocatedBytes = -1;
+        private volatile long totalAllocatedBytes;
+        private volatile long lastStartEpochMillis;
+
+        Lane(String name, long periodMs, long initialDelayMs, Runnable job) {
+            this.name = name;
+            this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMs);
+            this.initialDelayMs = initialDelayMs;
+            this.job = job;
+            this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "lane-" + name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        void start() {
+            nextTickNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(initialDelayMs);
+            executor.schedule(this, initialDelayMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            long allocatedBefore = ALLOCATION != null ? ALLOCATION.getCurrentThreadAllocatedBytes() : -1;
+            long start = System.nanoTime();
+            long lag = Math.max(0, start - nextTickNanos);
+            lastStartEpochMillis = System.currentTimeMillis();
+            running = true;
+            try {
+                job.run();
+            } catch (Throwable t) {
+                failures++;
+                logger.error("Errore nel job di monitoraggio {}", name, t);
+            } finally {
+                running = false;
+            }
+            long end = System.nanoTime();
+            long duration = end - start;
+            if (allocatedBefore >= 0) {
+                lastAllocatedBytes = ALLOCATION.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                totalAllocatedBytes += lastAllocatedBytes;
+            }
+
+            runs++;
+            lastLagNanos = lag;
+            maxLagNanos = Math.max(maxLagNanos, lag);
+            lastDurationNanos = duration;
+            totalDurationNanos += duration;
+            maxDurationNanos = Math.max(maxDurationNanos, duration);
+            if (duration > periodNanos) {
+                overruns++;
+            }
+
+            // Prossimo tick libero dopo la fine: i tick caduti durante l'esecuzione si saltano
+            long missed = Math.max(0, (end - nextTickNanos) / periodNanos);
+            skippedTicks += missed;
+            nextTickNanos += (missed + 1) * periodNanos;
+            try {
+                executor.schedule(this, Math.max(0, nextTickNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // Scheduler in chiusura
+            }
+        }
+
+        LaneMetrics metrics() {
+            long count = runs;
+            return new LaneMetrics(name, TimeUnit.NANOSECONDS.toMillis(periodNanos), running, count, failures,
+                overruns, skippedTicks, lastLagNanos / 1e6, maxLagNanos / 1e6, lastDurationNanos / 1e6,
+                count == 0 ? 0 : totalDurationNanos / 1e6 / count, maxDurationNanos / 1e6, lastAllocatedBytes,
+                count == 0 || lastAllocatedBytes < 0 ? -1 : totalAllocatedBytes / count, lastStartEpochMillis);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package it.PioSoft.PioBase.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot binario e journal dello stato di monitoraggio per il riavvio a caldo
+ *
+ * Ogni minuto salva in un file binario compatto la tabella dei PC, le ultime info di sistema,
+ * lo stato per dispositivo e la IP cam nota; ogni secondo accoda a un journal i cambi di stato
+ * online/offline avvenuti dall'ultimo controllo. All'avvio lo snapshot e il journal vengono
+ * riletti in pochi millisecondi: lo stato ripristinato è marcato come non verificato finché
+ * le sonde non lo confermano, così i primi eventi SSE dopo un riavvio sono già significativi.
+ */
+@Service
+public class MonitoringSnapshotService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MonitoringSnapshotService.class);
+    private static final String STATE_DIR = "config";
+    private static final Path SNAPSHOT_FILE = Paths.get(STATE_DIR, "monitor-state.bin");
+    private static final Path JOURNAL_FILE = Paths.get(STATE_DIR, "monitor-state.journal");
+
+    private static final int MAGIC = 0x50424D53; // "PBMS"
+    private static final int VERSION = 1;
+
+    // Record del journal: tipo (1 byte), IPv4 (4), epoch ms (8), online (1)
+    private static final byte JOURNAL_PC_STATE = 1;
+
+    // Tag dei valori nello stato per dispositivo
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_BOOLEAN = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_DOUBLE = 4;
+
+    private final PcPingMonitorService pcPingMonitorService;
+    private final DeviceMonitoringService deviceMonitoringService;
+    private final IpCamScannerService ipCamScannerService;
+
+    // Ultimo stato scritto nel journal per PC: confinato ai metodi sincronizzati
+    private final Map<String, Boolean> journaledStates = new HashMap<>();
+
+    public MonitoringSnapshotService(PcPingMonitorService pcPingMonitorService,
+                                     DeviceMonitoringService deviceMonitoringService,
+                                     IpCamScannerService ipCamScannerService,
+                                     MonitoringScheduler monitoringScheduler) {
+        this.pcPingMonitorService = pcPingMonitorService;
+        this.deviceMonitoringService = deviceMonitoringService;
+        this.ipCamScannerService = ipCamScannerService;
+        monitoringScheduler.schedule("journal-changes", 1000, this::journalChanges);
+        monitoringScheduler.schedule("snapshot", 60_000, 60_000, this::snapshot);
+    }
+
+    /**
+     * Ripristina lo stato all'avvio, prima dei controlli schedulati
+     */
+    @PostConstruct
+    public synchronized void restore() {
+        if (!Files.exists(SNAPSHOT_FILE) && !Files.exists(JOURNAL_FILE)) {
+            return;
+        }
+        long start = System.nanoTime();
+        Map<String, PcPingMonitorService.HostSnapshot> hosts = new LinkedHashMap<>();
+        Map<String, Map<String, String>> systemInfo = new HashMap<>();
+        Map<String, Map<String, Object>> deviceStatus = new HashMap<>();
+        String camIp = null;
+        String camMac = null;
+
+        if (Files.exists(SNAPSHOT_FILE)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(SNAPSHOT_FILE)))) {
+                if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                    throw new IOException("formato non riconosciuto");
+                }
+                in.readLong(); // Istante di salvataggio
+
+                int hostCount = in.readInt();
+                for (int i = 0; i < hostCount; i++) {
+                    String ip = HostStateTable.unpackIpv4(in.readInt());
+                    int flags = in.readUnsignedByte();
+                    long lastSeen = in.readLong();
+                    int preferredMethod = in.readUnsignedByte();
+                    int lastShutdownMs = in.readInt();
+                    hosts.put(ip, new PcPingMonitorService.HostSnapshot(ip, (flags & 1) != 0, (flags & 2) != 0,
+                        lastSeen, preferredMethod, lastShutdownMs));
+                }
+
+                int infoCount = in.readInt();
+                for (int i = 0; i < infoCount; i++) {
+                    String ip = in.readUTF();
+                    int fields = in.readUnsignedShort();
+                    Map<String, String> info = new HashMap<>();
+                    for (int f = 0; f < fields; f++) {
+                        info.put(in.readUTF(), in.readUTF());
+                    }
+                    systemInfo.put(ip, info);
+                }
+
+                int deviceCount = in.readInt();
+                for (int i = 0; i < deviceCount; i++) {
+                    String ip = in.readUTF();
+                    deviceStatus.put(ip, readValues(in));
+                }
+
+                if (in.readBoolean()) {
+                    camIp = in.readUTF();
+                    String mac = in.readUTF();
+                    camMac = mac.isEmpty() ? null : mac;
+                }
+            } catch (IOException e) {
+                // Snapshot corrotto o troncato: si riparte dalle sole sonde
+                logger.warn("Snapshot stato monitoraggio non leggibile: {}", e.getMessage());
+                hosts.clear();
+                systemInfo.clear();
+                deviceStatus.clear();
+                camIp = null;
+                camMac = null;
+            }
+        }
+
+        int replayed = replayJournal(hosts);
+
+        pcPingMonitorService.restoreHosts(hosts.values());
+        deviceMonitoringService.restoreState(deviceStatus, systemInfo);
+        if (camIp != null) {
+            ipCamScannerService.restoreCamInventory(camIp, camMac);
+        }
+        hosts.values().forEach(host -> {
+            if (host.known()) {
+                journaledStates.put(host.ip(), host.online());
+            }
+        });
+
+        logger.info("Stato monitoraggio ripristinato in {} ms: {} PC, {} cambi di stato dal journal",
+            (System.nanoTime() - start) / 1_000_000, hosts.size(), replayed);
+    }
+
+    /**
+     * Applica al contenuto dello snapshot i cambi di stato successivi
+     * @return numero di record applicati
+     */
+    private int replayJournal(Map<String, PcPingMonitorService.HostSnapshot> hosts) {
+        if (!Files.exists(JOURNAL_FILE)) {
+            return 0;
+        }
+        int replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(JOURNAL_FILE)))) {
+            while (true) {
+                byte type = in.readByte();
+                String ip = HostStateTable.unpackIpv4(in.readInt());
+                long at = in.readLong();
+                boolean online = in.readBoolean();
+                if (type != JOURNAL_PC_STATE) {
+                    continue;
+                }
+                PcPingMonitorService.HostSnapshot previous = hosts.get(ip);
+                long lastSeen = online ? at : previous != null ? previous.lastSeenEpochMillis() : -1;
+                hosts.put(ip, new PcPingMonitorService.HostSnapshot(ip, true, online, lastSeen,
+                    previous != null ? previous.preferredMethod() : 0,
+                    previous != null ? previous.lastShutdownMs() : -1));
+                replayed++;
+            }
+        } catch (EOFException e) {
+            // Fine del journal (un record troncato da uno spegnimento improvviso viene ignorato)
+        } catch (IOException e) {
+            logger.warn("Journal stato monitoraggio non leggibile: {}", e.getMessage());
+        }
+        return replayed;
+    }
+
+    /**
+     * Accoda al journal i cambi di stato dei PC avvenuti dall'ultimo controllo
+     */
+    public synchronized void journalChanges() {
+        List<PcPingMonitorService.HostSnapshot> hosts = pcPingMonitorService.exportHosts();
+        DataOutputStream out = null;
+        try {
+            long now = System.currentTimeMillis();
+            for (PcPingMonitorService.HostSnapshot host : hosts) {
+                if (!host.known() || pcPingMonitorService.isStale(host.ip())) {
+                    continue;
+                }
+                Boolean journaled = journaledStates.get(host.ip());
+                if (journaled != null && journaled == host.online()) {
+                    continue;
+                }
+                if (out == null) {
+                    Files.createDirectories(JOURNAL_FILE.getParent());
+                    out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(JOURNAL_FILE,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+                }
+                out.writeByte(JOURNAL_PC_STATE);
+                out.writeInt(HostStateTable.packIpv4(host.ip()));
+                out.writeLong(host.online() ? Math.max(host.lastSeenEpochMillis(), 0) : now);
+                out.writeBoolean(host.online());
+                journaledStates.put(host.ip(), host.online());
+            }
+        } catch (IOException e) {
+            logger.warn("Errore scrittura journal stato monitoraggio: {}", e.getMessage());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Salva lo snapshot completo e azzera il journal
+     */
+    @PreDestroy
+    public synchronized void snapshot() {
+        List<PcPingMonitorService.HostSnapshot> hosts = pcPingMonitorService.exportHosts();
+        Map<String, Map<String, String>> systemInfo = deviceMonitoringService.getLastSystemInfoSnapshot();
+        Map<String, Map<String, Object>> deviceStatus = deviceMonitoringService.getDeviceStatusSnapshot();
+        String camIp = ipCamScannerService.getCurrentCamIp();
+        if (hosts.isEmpty() && systemInfo.isEmpty() && deviceStatus.isEmpty() && camIp == null) {
+            return; // Niente da salvare
+        }
+
+        try {
+            Files.createDirectories(SNAPSHOT_FILE.getParent());
+            Path temp = SNAPSHOT_FILE.resolveSibling(SNAPSHOT_FILE.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeLong(System.currentTimeMillis());
+
+                out.writeInt(hosts.size());
+                for (PcPingMonitorService.HostSnapshot host : hosts) {
+                    out.writeInt(HostStateTable.packIpv4(host.ip()));
+                    out.writeByte((host.known() ? 1 : 0) | (host.online() ? 2 : 0));
+                    out.writeLong(host.lastSeenEpochMillis());
+                    out.writeByte(host.preferredMethod());
+                    out.writeInt(host.lastShutdownMs());
+                }
+
+                out.writeInt(systemInfo.size());
+                for (Map.Entry<String, Map<String, String>> entry : systemInfo.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeShort(entry.getValue().size());
+                    for (Map.Entry<String, String> field : entry.getValue().entrySet()) {
+                        out.writeUTF(field.getKey());
+                        out.writeUTF(field.getValue() != null ? field.getValue() : "");
+                    }
+                }
+
+                out.writeInt(deviceStatus.size());
+                for (Map.Entry<String, Map<String, Object>> entry : deviceStatus.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    writeValues(out, entry.getValue());
+                }
+
+                out.writeBoolean(camIp != null);
+                if (camIp != null) {
+                    String camMac = ipCamScannerService.getCurrentCamMac();
+                    out.writeUTF(camIp);
+                    out.writeUTF(camMac != null ? camMac : "");
+                }
+            }
+            // Sostituzione atomica: un riavvio durante il salvataggio lascia lo snapshot precedente
+            Files.move(temp, SNAPSHOT_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(JOURNAL_FILE);
+        } catch (IOException e) {
+            logger.warn("Errore salvataggio snapshot stato monitoraggio: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Scrive i valori semplici di una mappa di stato; gli altri tipi vengono omessi
+     */
+    private static void writeValues(DataOutputStream out, Map<String, Object> values) throws IOException {
+        int count = 0;
+        for (Object value : values.values()) {
+            if (isSupported(value)) {
+                count++;
+            }
+        }
+        out.writeShort(count);
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (!isSupported(value)) {
+                continue;
+            }
+            out.writeUTF(entry.getKey());
+            if (value instanceof Boolean b) {
+                out.writeByte(TAG_BOOLEAN);
+                out.writeBoolean(b);
+            } else if (value instanceof Double || value instanceof Float) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble(((Number) value).doubleValue());
+            } else if (value instanceof Number n) {
+                out.writeByte(TAG_LONG);
+                out.writeLong(n.longValue());
+            } else {
+                out.writeByte(TAG_STRING);
+                out.writeUTF((String) value);
+            }
+        }
+    }
+
+    private static boolean isSupported(Object value) {
+        return value instanceof String || value instanceof Boolean || value instanceof Number;
+    }
+
+    private static Map<String, Object> readValues(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            byte tag = in.readByte();
+            switch (tag) {
+                case TAG_BOOLEAN -> values.put(key, in.readBoolean());
+                case TAG_DOUBLE -> values.put(key, in.readDouble());
+                case TAG_LONG -> values.put(key, in.readLong());
+                case TAG_STRING -> values.put(key, in.readUTF());
+                default -> throw new IOException("tipo di valore sconosciuto: " + tag);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,177 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.configs.PcMappingConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rilevamento passivo della presenza degli host dalla tabella ARP del kernel
+ *
+ * Legge periodicamente /proc/net/arp (costo trascurabile, nessun traffico di rete)
+ * e confronta la tabella con la lettura precedente:
+ * - un host che diventa risolto (o cambia MAC) è probabilmente appena comparso in rete
+ * - un host che non è più risolvibile (voce incompleta) è probabilmente spento
+ * Questi indizi vengono passati a {@link PcPingMonitorService}, che sonda subito solo
+ * gli host il cui stato noto è in contrasto con la tabella.
+ * La tabella risolve inoltre MAC -> IP per i PC configurati in pc.mapping e per la IP cam.
+ */
+@Service
+public class NeighborTableService {
+
+    private static final Logger logger = LoggerFactory.getLogger(NeighborTableService.class);
+    private static final Path ARP_TABLE = Paths.get("/proc/net/arp");
+    private static final int ATF_COM = 0x2; // Voce risolta
+    private static final String EMPTY_MAC = "000000000000";
+
+    /**
+     * Voce della tabella dei vicini; il MAC è normalizzato (minuscolo, senza separatori)
+     */
+    public record Neighbor(String ip, String mac, boolean complete, String device) {
+    }
+
+    private final PcMappingConfig pcMappingConfig;
+    private final PcPingMonitorService pcPingMonitorService;
+
+    private volatile Map<String, Neighbor> neighborsByIp = Map.of();
+    private volatile Map<String, String> ipsByMac = Map.of();
+    private volatile boolean available = true;
+
+    public NeighborTableService(PcMappingConfig pcMappingConfig, PcPingMonitorService pcPingMonitorService,
+                                MonitoringScheduler monitoringScheduler) {
+        this.pcMappingConfig = pcMappingConfig;
+        this.pcPingMonitorService = pcPingMonitorService;
+        monitoringScheduler.schedule("refresh-neighbors", 2000, this::refresh);
+    }
+
+    /**
+     * Rilegge la tabella ARP e invia al monitor gli indizi sulle variazioni
+     */
+    public void refresh() {
+        if (!available) {
+            return;
+        }
+
+        Map<String, Neighbor> current;
+        try {
+            current = read(ARP_TABLE);
+        } catch (IOException e) {
+            // Sistema senza /proc (es. sviluppo su Windows/macOS): si resta sulle sole sonde attive
+            logger.info("Tabella ARP non disponibile ({}), rilevamento passivo disattivato", e.getMessage());
+            available = false;
+            return;
+        }
+
+        Map<String, Neighbor> previous = neighborsByIp;
+        Map<String, String> macs = new HashMap<>();
+        for (Neighbor neighbor : current.values()) {
+            if (neighbor.complete()) {
+                macs.put(neighbor.mac(), neighbor.ip());
+            }
+
+            Neighbor before = previous.get(neighbor.ip());
+            if (neighbor.complete()) {
+                if (before == null || !before.complete() || !before.mac().equals(neighbor.mac())) {
+                    pcPingMonitorService.applyPresenceHint(neighbor.ip(), true);
+                }
+            } else if (before != null && before.complete()) {
+                // Risoluzione fallita per un host prima raggiungibile
+                pcPingMonitorService.applyPresenceHint(neighbor.ip(), false);
+            }
+        }
+
+        logMappingChanges(ipsByMac, macs);
+        neighborsByIp = current;
+        ipsByMac = macs;
+    }
+
+    static Map<String, Neighbor> read(Path table) throws IOException {
+        Map<String, Neighbor> neighbors = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(table)) {
+            reader.readLine(); // Intestazione
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // IP address, HW type, Flags, HW address, Mask, Device
+                String[] columns = line.trim().split("\\s+");
+                if (columns.length < 6 || !HostStateTable.isIpv4(columns[0])) {
+                    continue;
+                }
+                int flags;
+                try {
+                    flags = Integer.decode(columns[2]);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                String mac = normalizeMac(columns[3]);
+                boolean complete = (flags & ATF_COM) != 0 && !EMPTY_MAC.equals(mac);
+                neighbors.put(columns[0], new Neighbor(columns[0], mac, complete, columns[5]));
+            }
+        }
+        return neighbors;
+    }
+
+    private void logMappingChanges(Map<String, String> before, Map<String, String> after) {
+        for (Map.Entry<String, String> entry : pcMappingConfig.getMapping().entrySet()) {
+            String mac = normalizeMac(entry.getKey());
+            String ip = after.get(mac);
+            if (ip != null && !ip.equals(before.get(mac)) && !ip.equals(entry.getValue())) {
+                logger.info("PC {} rilevato all'IP {} (configurato: {})", mac, ip, entry.getValue());
+            }
+        }
+    }
+
+    public static String normalizeMac(String mac) {
+        return mac.toLowerCase().replace(":", "").replace("-", "");
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * IP attuale di un MAC secondo la tabella ARP (null se non risolto)
+     */
+    public String getIpByMac(String macAddress) {
+        return ipsByMac.get(normalizeMac(macAddress));
+    }
+
+    /**
+     * MAC di un IP secondo la tabella ARP (null se non risolto)
+     */
+    public String getMacByIp(String ip) {
+        Neighbor neighbor = neighborsByIp.get(ip);
+        return neighbor != null && neighbor.complete() ? neighbor.mac() : null;
+    }
+
+    /**
+     * Voce della tabella per un IP (null se assente)
+     */
+    public Neighbor getNeighbor(String ip) {
+        return neighborsByIp.get(ip);
+    }
+
+    /**
+     * Vicini risolti, utili come primi candidati di una scansione
+     */
+    public List<String> getResolvedIps() {
+        List<String> ips = new ArrayList<>();
+        Collection<Neighbor> neighbors = neighborsByIp.values();
+        for (Neighbor neighbor : neighbors) {
+            if (neighbor.complete()) {
+                ips.add(neighbor.ip());
+            }
+        }
+        return ips;
+    }
+}
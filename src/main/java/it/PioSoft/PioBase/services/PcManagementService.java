@@ -2,7 +2,8 @@
  * Servizio di gestione centralizzata per i PC remoti
  *
  * Fornisce funzionalità di alto livello per la gestione dei PC tramite:
- * - Mappatura MAC address -> IP address da configurazione
+ * - Mappatura MAC address -> IP address da configurazione, aggiornata
+ *   dalla tabella ARP se il PC ha cambiato IP
  * - Integrazione con servizi di stato e controllo PC
  * - Normalizzazione e pulizia degli indirizzi MAC
  *
@@ -31,11 +32,21 @@ public class PcManagementService {
     @Autowired
     private PcStatusService pcStatusService;
 
+    @Autowired
+    private NeighborTableService neighborTableService;
+
     public String getIpByMac(String macAddress) {
         String cleanMac = macAddress.toLowerCase().replace(":", "").replace("-", "");
         String ip = pcMappingConfig.getIpByMac(cleanMac);
 
-        return ip;
+        // Per i PC configurati prevale l'IP attuale rilevato dalla tabella ARP
+        if (ip != null) {
+            String resolvedIp = neighborTableService.getIpByMac(cleanMac);
+            if (resolvedIp != null) {
+                return resolvedIp;
+            }
+        }
+        return ip == null || ip.isBlank() ? null : ip;
     }
 
     public boolean isPcOnlineByMac(String macAddress) {
@@ -1,64 +1,211 @@
 package it.PioSoft.PioBase.services;
 
-import org.springframework.scheduling.annotation.Scheduled;
+import it.PioSoft.PioBase.services.ReachabilityEngine.ProbeMethod;
+import it.PioSoft.PioBase.services.ReachabilityEngine.ProbeResult;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.net.Socket;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Servizio per monitoraggio attivo dello stato dei PC tramite ping periodici
- * Il server fa ping attivi ai PC registrati ogni 2 secondi
+ * Tutti i PC dovuti vengono sondati in parallelo tramite {@link ReachabilityEngine},
+ * quindi un ciclo dura al massimo un timeout anche con più PC spenti. I risultati passano
+ * dalla cache condivisa di {@link ReachabilityService}, così gli altri servizi li riutilizzano.
+ *
+ * Ogni PC ha una propria pianificazione adattiva: la sonda che ha risposto per ultima
+ * viene provata per prima, i PC stabili vengono sondati sempre meno spesso mentre
+ * i PC in transizione (appena accesi via WOL o spenti via SSH) vengono sondati ogni 500ms.
+ *
+ * Gli indizi passivi di {@link NeighborTableService} anticipano la sonda dei PC
+ * il cui stato noto è in contrasto con la tabella ARP.
+ *
+ * Dopo uno spegnimento remoto il PC passa in {@link PcState#SHUTTING_DOWN}: una raffica di sonde
+ * ravvicinate attende la perdita confermata di raggiungibilità e misura la durata dello spegnimento,
+ * senza che le risposte durante la chiusura dello stack di rete lo riportino online.
+ *
+ * Lo stato di tutti i PC è in una {@link HostStateTable} indicizzata per IPv4:
+ * le letture (isPcOnline) sono lock-free e l'aggiornamento dopo le sonde non alloca.
  */
 @Service
 public class PcPingMonitorService {
 
-    private final Map<String, LocalDateTime> lastPingMap = new ConcurrentHashMap<>();
-    private final Map<String, Boolean> pcStatusMap = new ConcurrentHashMap<>();
-    private final Set<String> monitoredPcs = ConcurrentHashMap.newKeySet();
+    private final HostStateTable hosts = new HostStateTable(16);
     private static final int PING_TIMEOUT_MS = 2000; // 2 secondi timeout per ping
     private static final int OFFLINE_THRESHOLD_SECONDS = 10;
+    private static final long OFFLINE_THRESHOLD_NANOS = TimeUnit.SECONDS.toNanos(OFFLINE_THRESHOLD_SECONDS);
+    // Ordine di default delle sonde: ICMP, SSH (22) e Windows RPC (135)
+    private static final List<ProbeMethod> PROBE_METHODS = List.of(ProbeMethod.ICMP, ProbeMethod.TCP_SSH, ProbeMethod.TCP_RPC);
+    // Ordine delle sonde per ogni metodo preferito (indice = ordinale + 1), calcolato una volta sola
+    private static final List<List<ProbeMethod>> PROBE_ORDERS = buildProbeOrders();
+    // Attesa prima di avviare la sonda successiva se la preferita non risponde
+    private static final int ESCALATION_MS = 300;
+
+    private static final int MIN_PROBE_INTERVAL_MS = 2000;
+    private static final int MAX_ONLINE_INTERVAL_MS = 6000;
+    private static final int MAX_OFFLINE_INTERVAL_MS = 10000;
+    private static final int TRANSITION_INTERVAL_MS = 500;
+    private static final long WAKE_UP_TRANSITION_MS = 180_000; // Il boot di Windows può durare qualche minuto
+    private static final long SHUTDOWN_TRANSITION_MS = 60_000; // Oltre questo tempo lo spegnimento è considerato fallito
+    // Raffica di sonde durante lo spegnimento: offline dopo 3 sonde fallite consecutive
+    private static final int SHUTDOWN_BURST_INTERVAL_MS = 200;
+    private static final int SHUTDOWN_PROBE_TIMEOUT_MS = 400;
+    private static final int SHUTDOWN_FAILURES_FOR_OFFLINE = 3;
+    // Durante una transizione attesa bastano 3 sonde fallite consecutive per dichiarare offline
+    private static final int TRANSITION_FAILURES_FOR_OFFLINE = 3;
+
+    /**
+     * Stato di un PC esposto ai client
+     */
+    public enum PcState {
+        UNKNOWN,
+        ONLINE,
+        OFFLINE,
+        SHUTTING_DOWN
+    }
+
+    /**
+     * Stato persistente di un PC per snapshot e ripristino
+     * @param lastSeenEpochMillis ultima risposta in epoch ms, -1 se mai visto
+     * @param preferredMethod ordinale + 1 del metodo di sonda preferito, 0 se nessuno
+     * @param lastShutdownMs durata dell'ultimo spegnimento, -1 se mai misurato
+     */
+    public record HostSnapshot(String ip, boolean known, boolean online, long lastSeenEpochMillis,
+                               int preferredMethod, int lastShutdownMs) {
+    }
+
+    private final ReachabilityService reachabilityService;
+
+    private volatile int shuttingDownCount;
+
+    public PcPingMonitorService(ReachabilityService reachabilityService, MonitoringScheduler monitoringScheduler) {
+        this.reachabilityService = reachabilityService;
+        monitoringScheduler.schedule("check-ping-timeouts", TRANSITION_INTERVAL_MS, this::checkPingTimeouts);
+        monitoringScheduler.schedule("shutdown-burst", SHUTDOWN_BURST_INTERVAL_MS, this::probeShuttingDown);
+    }
+
+    private static List<List<ProbeMethod>> buildProbeOrders() {
+        List<List<ProbeMethod>> orders = new ArrayList<>();
+        orders.add(PROBE_METHODS);
+        for (ProbeMethod preferred : ProbeMethod.values()) {
+            if (!PROBE_METHODS.contains(preferred) || preferred == PROBE_METHODS.get(0)) {
+                orders.add(PROBE_METHODS);
+                continue;
+            }
+            List<ProbeMethod> order = new ArrayList<>(PROBE_METHODS.size());
+            order.add(preferred);
+            for (ProbeMethod method : PROBE_METHODS) {
+                if (method != preferred) {
+                    order.add(method);
+                }
+            }
+            orders.add(List.copyOf(order));
+        }
+        return List.copyOf(orders);
+    }
 
     /**
      * Registra un PC per il monitoraggio attivo
      * @param pcIp IP del PC da monitorare
      */
     public void registerPcForMonitoring(String pcIp) {
-        if (!monitoredPcs.contains(pcIp)) {
+        if (!HostStateTable.isIpv4(pcIp)) {
+            System.out.println("IP non valido per il monitoraggio: " + pcIp);
+            return;
+        }
+        if (hosts.slotOf(pcIp) == HostStateTable.NO_SLOT) {
             System.out.println("Registrato PC per monitoraggio attivo: " + pcIp);
-            monitoredPcs.add(pcIp);
+            int slot = hosts.register(pcIp);
+            hosts.setIntervalMs(slot, MIN_PROBE_INTERVAL_MS);
             // Esegui ping immediato per avere subito lo stato
             checkPcStatusNow(pcIp);
         }
     }
 
+    /**
+     * Slot dell'host, registrandolo senza ping immediato se assente
+     */
+    private int slotFor(String pcIp) {
+        int slot = hosts.slotOf(pcIp);
+        if (slot == HostStateTable.NO_SLOT) {
+            slot = hosts.register(pcIp);
+            hosts.setIntervalMs(slot, MIN_PROBE_INTERVAL_MS);
+        }
+        return slot;
+    }
+
+    /**
+     * Segnala che è stato inviato un Wake-on-LAN: il PC viene sondato ravvicinato
+     * finché non risulta online o scade la finestra di transizione
+     * @param pcIp IP del PC
+     */
+    public void notifyWakeUpRequested(String pcIp) {
+        if (!HostStateTable.isIpv4(pcIp)) {
+            return;
+        }
+        System.out.println("PC " + pcIp + " in accensione, monitoraggio ravvicinato");
+        expectTransition(slotFor(pcIp), WAKE_UP_TRANSITION_MS);
+    }
+
+    private void expectTransition(int slot, long windowMs) {
+        long now = System.nanoTime();
+        synchronized (hosts) {
+            hosts.setTransitionUntilNanos(slot, now + TimeUnit.MILLISECONDS.toNanos(windowMs));
+            hosts.setFlag(slot, HostStateTable.FLAG_TRANSITION, true);
+            hosts.setIntervalMs(slot, TRANSITION_INTERVAL_MS);
+            hosts.setNextProbeNanos(slot, now);
+        }
+    }
+
+    private boolean inTransition(int slot, long now) {
+        return (hosts.flags(slot) & HostStateTable.FLAG_TRANSITION) != 0
+            && now - hosts.transitionUntilNanos(slot) < 0;
+    }
+
+    private List<ProbeMethod> probeOrder(int slot) {
+        return PROBE_ORDERS.get(hosts.preferredMethod(slot));
+    }
+
     /**
      * Esegue un controllo immediato dello stato di un PC
      * @param pcIp IP del PC
      */
     public void checkPcStatusNow(String pcIp) {
-        LocalDateTime now = LocalDateTime.now();
-        boolean isReachable = doPing(pcIp);
+        int slot = slotFor(pcIp);
+        if (isShuttingDown(slot)) {
+            return; // Verificato dalla raffica di spegnimento
+        }
+        ProbeResult result = probe(Map.of(pcIp, probeOrder(slot))).get(pcIp);
+        long now = System.nanoTime();
 
-        if (isReachable) {
-            lastPingMap.put(pcIp, now);
-            Boolean wasOnline = pcStatusMap.get(pcIp);
-            if (wasOnline == null || !wasOnline) {
-                System.out.println("PC " + pcIp + " è ONLINE (ping immediato riuscito)");
-                pcStatusMap.put(pcIp, true);
+        synchronized (hosts) {
+            if (isShuttingDown(slot)) {
+                return;
             }
-        } else {
-            // Se ping fallisce, marca come offline
-            pcStatusMap.put(pcIp, false);
-            lastPingMap.put(pcIp, now.minusSeconds(OFFLINE_THRESHOLD_SECONDS + 1));
-            System.out.println("PC " + pcIp + " è OFFLINE (ping immediato fallito)");
+            boolean wasOnline = hosts.isOnline(slot);
+            boolean changed;
+            if (result.reachable()) {
+                hosts.setLastSeenNanos(slot, now);
+                hosts.setFlag(slot, HostStateTable.FLAG_SEEN, true);
+                changed = !hosts.isKnown(slot) || !wasOnline;
+                if (changed) {
+                    System.out.println("PC " + pcIp + " è ONLINE (ping immediato riuscito)");
+                }
+                hosts.setOnline(slot, true);
+            } else {
+                // Se ping fallisce, marca come offline
+                changed = !hosts.isKnown(slot) || wasOnline;
+                hosts.setOnline(slot, false);
+                hosts.setFlag(slot, HostStateTable.FLAG_SEEN, false);
+                System.out.println("PC " + pcIp + " è OFFLINE (ping immediato fallito)");
+            }
+            updateSchedule(slot, now, result, wasOnline, changed);
         }
     }
 
@@ -68,103 +215,211 @@ public class PcPingMonitorService {
      * @return true se il PC era offline ed è tornato online, false altrimenti
      */
     public boolean receivePing(String pcIp) {
-        LocalDateTime now = LocalDateTime.now();
-        lastPingMap.put(pcIp, now);
-
         // Registra automaticamente per monitoraggio
         registerPcForMonitoring(pcIp);
+        if (!HostStateTable.isIpv4(pcIp)) {
+            return false;
+        }
 
-        Boolean wasOnline = pcStatusMap.get(pcIp);
+        int slot = hosts.slotOf(pcIp);
+        long now = System.nanoTime();
+        synchronized (hosts) {
+            return applyClientPing(slot, now);
+        }
+    }
+
+    /**
+     * Riceve in blocco gli heartbeat UDP raccolti dal ricevitore
+     * Il ricevitore passa solo PC già noti; quelli di pc.mapping non ancora in tabella vengono
+     * registrati senza ping immediato per non bloccare il ricevitore
+     * @param pcIps IP dei PC che hanno inviato almeno un heartbeat valido
+     * @return IP dei PC tornati online
+     */
+    public List<String> receiveHeartbeats(Collection<String> pcIps) {
+        List<String> changed = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (hosts) {
+            for (String pcIp : pcIps) {
+                if (hosts.slotOf(pcIp) == HostStateTable.NO_SLOT) {
+                    System.out.println("Registrato PC per monitoraggio attivo: " + pcIp + " (heartbeat UDP)");
+                }
+                if (applyClientPing(slotFor(pcIp), now)) {
+                    changed.add(pcIp);
+                }
+            }
+        }
+        return changed;
+    }
 
-        if (wasOnline == null || !wasOnline) {
+    /**
+     * Applica un segnale di presenza inviato dal client (chiamato con il lock della tabella)
+     * @return true se il PC era offline ed è tornato online
+     */
+    private boolean applyClientPing(int slot, long now) {
+        hosts.setFlag(slot, HostStateTable.FLAG_STALE, false);
+        hosts.setLastSeenNanos(slot, now);
+        hosts.setFlag(slot, HostStateTable.FLAG_SEEN, true);
+        if (isShuttingDown(slot)) {
+            return false; // Il client può inviare ancora qualche ping mentre Windows si spegne
+        }
+        hosts.setConsecutiveFailures(slot, 0);
+        // Il client ha appena confermato di essere online: nessuna sonda necessaria a breve
+        long next = now + TimeUnit.MILLISECONDS.toNanos(hosts.intervalMs(slot));
+        if (next - hosts.nextProbeNanos(slot) > 0) {
+            hosts.setNextProbeNanos(slot, next);
+        }
+
+        if (!hosts.isOnline(slot)) {
             // PC appena tornato online o primo ping
-            System.out.println("PC " + pcIp + " è ONLINE (ping ricevuto dal client)");
-            pcStatusMap.put(pcIp, true);
+            System.out.println("PC " + hosts.ipAt(slot) + " è ONLINE (ping ricevuto dal client)");
+            hosts.setOnline(slot, true);
             return true; // Cambio di stato
         }
-
         return false; // Nessun cambio di stato
     }
 
     /**
-     * Esegue ping attivo verso un PC specifico
+     * Indizio passivo sulla presenza di un PC (es. dalla tabella ARP)
+     * Se contraddice lo stato noto il PC viene sondato subito, altrimenti la pianificazione non cambia
      * @param pcIp IP del PC
-     * @return true se il PC è raggiungibile, false altrimenti
+     * @param present true se l'host risulta presente in rete
      */
-    private boolean doPing(String pcIp) {
-        try {
-            // Metodo 1: Prova InetAddress.isReachable
-            InetAddress address = InetAddress.getByName(pcIp);
-            if (address.isReachable(PING_TIMEOUT_MS)) {
-                return true;
+    public void applyPresenceHint(String pcIp, boolean present) {
+        int slot = hosts.slotOf(pcIp);
+        if (slot == HostStateTable.NO_SLOT) {
+            return; // Solo i PC monitorati
+        }
+        long now = System.nanoTime();
+        synchronized (hosts) {
+            if (isShuttingDown(slot) || (hosts.isKnown(slot) && hosts.isOnline(slot) == present)) {
+                return;
             }
+            System.out.println("PC " + pcIp + " rilevato " + (present ? "presente" : "assente")
+                + " nella tabella ARP, verifica immediata");
+            hosts.setIntervalMs(slot, TRANSITION_INTERVAL_MS);
+            hosts.setNextProbeNanos(slot, now);
+        }
+    }
 
-            // Metodo 2: Prova connessione socket su porta SSH (22) come fallback
-            // Se il PC ha SSH attivo, è sicuramente online
-            try (Socket socket = new Socket()) {
-                socket.connect(new InetSocketAddress(pcIp, 22), PING_TIMEOUT_MS);
-                return true;
-            } catch (IOException e) {
-                // Porta SSH non disponibile, ma potrebbe essere comunque online
-                // Proviamo altre porte comuni
-            }
+    /**
+     * Sonda i PC indicati riutilizzando solo risultati più recenti di un tick
+     */
+    private Map<String, ProbeResult> probe(Map<String, List<ProbeMethod>> plan) {
+        return reachabilityService.checkAll(plan, ReachabilityService.Profile.HOST,
+            PING_TIMEOUT_MS, ESCALATION_MS, TRANSITION_INTERVAL_MS);
+    }
+
+    /**
+     * Verifica periodicamente lo stato dei PC registrati tramite ping attivo.
+     * Il tick è di 500ms ma ogni PC viene sondato solo quando la sua pianificazione lo prevede.
+     */
+    public void checkPingTimeouts() {
+        int size = hosts.size();
+        if (size == 0) {
+            return;
+        }
 
-            // Metodo 3: Prova porta 135 (Windows RPC) o 445 (SMB)
-            try (Socket socket = new Socket()) {
-                socket.connect(new InetSocketAddress(pcIp, 135), PING_TIMEOUT_MS);
-                return true;
-            } catch (IOException e) {
-                // Ignora
+        long start = System.nanoTime();
+        Map<String, List<ProbeMethod>> plan = null;
+        for (int slot = 0; slot < size; slot++) {
+            if (!isShuttingDown(slot) && start - hosts.nextProbeNanos(slot) >= 0) {
+                if (plan == null) {
+                    plan = new LinkedHashMap<>();
+                }
+                plan.put(hosts.ipAt(slot), probeOrder(slot));
             }
+        }
+        if (plan == null) {
+            return;
+        }
 
-            return false;
-        } catch (IOException e) {
-            return false;
+        // Ping attivo ai PC dovuti, avviato in parallelo e raccolto in un solo passaggio
+        Map<String, ProbeResult> results = probe(plan);
+        long now = System.nanoTime();
+
+        for (ProbeResult result : results.values()) {
+            int slot = hosts.slotOf(result.ip());
+            synchronized (hosts) {
+                if (!isShuttingDown(slot)) { // Spegnimento iniziato durante la sonda
+                    applyProbeResult(slot, result, now);
+                }
+            }
         }
     }
 
     /**
-     * Verifica periodicamente lo stato dei PC registrati tramite ping attivo
-     * Esegue ogni 2 secondi per rilevamento rapido
+     * Applica l'esito di una sonda periodica allo stato del PC (chiamato con il lock della tabella)
      */
-    @Scheduled(fixedDelay = 2000)
-    public void checkPingTimeouts() {
-        LocalDateTime now = LocalDateTime.now();
+    private void applyProbeResult(int slot, ProbeResult result, long now) {
+        boolean known = hosts.isKnown(slot);
+        boolean wasOnline = hosts.isOnline(slot);
+        boolean changed = false;
 
-        // Ping attivo a tutti i PC monitorati
-        for (String pcIp : monitoredPcs) {
-            boolean isReachable = doPing(pcIp);
+        if (result.reachable()) {
+            // Aggiorna timestamp ultimo ping riuscito
+            hosts.setLastSeenNanos(slot, now);
+            hosts.setFlag(slot, HostStateTable.FLAG_SEEN, true);
 
-            if (isReachable) {
-                // Aggiorna timestamp ultimo ping riuscito
-                lastPingMap.put(pcIp, now);
+            if (!known || !wasOnline) {
+                System.out.println("PC " + result.ip() + " è ONLINE (ping attivo riuscito via " + result.method() + ")");
+                hosts.setOnline(slot, true);
+                changed = true;
+            }
+        } else if ((hosts.flags(slot) & HostStateTable.FLAG_SEEN) != 0) {
+            // Ping fallito, controlla se è timeout
+            long sinceLastPing = now - hosts.lastSeenNanos(slot);
+            // In transizione attesa non serve aspettare la soglia fissa
+            boolean transitionConfirmed = inTransition(slot, now)
+                && hosts.consecutiveFailures(slot) + 1 >= TRANSITION_FAILURES_FOR_OFFLINE;
 
-                Boolean wasOnline = pcStatusMap.get(pcIp);
-                if (wasOnline == null || !wasOnline) {
-                    System.out.println("PC " + pcIp + " è ONLINE (ping attivo riuscito)");
-                    pcStatusMap.put(pcIp, true);
-                }
-            } else {
-                // Ping fallito, controlla se è timeout
-                LocalDateTime lastPing = lastPingMap.get(pcIp);
-
-                if (lastPing != null) {
-                    long secondsSinceLastPing = ChronoUnit.SECONDS.between(lastPing, now);
-
-                    if (secondsSinceLastPing > OFFLINE_THRESHOLD_SECONDS) {
-                        Boolean wasOnline = pcStatusMap.get(pcIp);
-                        if (wasOnline == null || wasOnline) {
-                            System.out.println("PC " + pcIp + " è OFFLINE (nessun ping riuscito da " + secondsSinceLastPing + " secondi)");
-                            pcStatusMap.put(pcIp, false);
-                        }
-                    }
-                } else {
-                    // Primo ping fallito, marca come offline
-                    pcStatusMap.put(pcIp, false);
-                    lastPingMap.put(pcIp, now.minusSeconds(OFFLINE_THRESHOLD_SECONDS + 1));
-                }
+            if ((sinceLastPing > OFFLINE_THRESHOLD_NANOS || transitionConfirmed) && (!known || wasOnline)) {
+                System.out.println("PC " + result.ip() + " è OFFLINE (nessun ping riuscito da "
+                    + TimeUnit.NANOSECONDS.toSeconds(sinceLastPing) + " secondi)");
+                hosts.setOnline(slot, false);
+                changed = true;
+            }
+        } else {
+            // Mai visto online: marca come offline
+            changed = !known || wasOnline;
+            hosts.setOnline(slot, false);
+        }
+
+        updateSchedule(slot, now, result, wasOnline, changed);
+    }
+
+    /**
+     * Aggiorna la pianificazione del PC dopo una sonda (chiamato con il lock della tabella)
+     * @param wasOnline stato prima della sonda
+     * @param stateChanged true se la sonda ha cambiato lo stato del PC
+     */
+    private void updateSchedule(int slot, long now, ProbeResult result, boolean wasOnline, boolean stateChanged) {
+        hosts.setFlag(slot, HostStateTable.FLAG_STALE, false); // Stato riverificato
+        if (result.reachable()) {
+            hosts.setConsecutiveFailures(slot, 0);
+            if (result.method() != null) {
+                hosts.setPreferredMethod(slot, result.method().ordinal() + 1);
             }
+        } else {
+            hosts.setConsecutiveFailures(slot, hosts.consecutiveFailures(slot) + 1);
         }
+
+        if (stateChanged) {
+            hosts.setFlag(slot, HostStateTable.FLAG_TRANSITION, false); // Transizione avvenuta
+        }
+
+        int intervalMs;
+        if (inTransition(slot, now) || (result.reachable() != wasOnline && !stateChanged)) {
+            // Transizione attesa o esito in contrasto con lo stato noto: sonda ravvicinata
+            intervalMs = TRANSITION_INTERVAL_MS;
+        } else if (stateChanged) {
+            intervalMs = MIN_PROBE_INTERVAL_MS;
+        } else {
+            // Stato confermato: allunga progressivamente l'intervallo
+            int max = wasOnline ? MAX_ONLINE_INTERVAL_MS : MAX_OFFLINE_INTERVAL_MS;
+            intervalMs = Math.min(max, Math.max(MIN_PROBE_INTERVAL_MS, hosts.intervalMs(slot) * 3 / 2));
+        }
+        hosts.setIntervalMs(slot, intervalMs);
+        hosts.setNextProbeNanos(slot, now + TimeUnit.MILLISECONDS.toNanos(intervalMs));
     }
 
     /**
@@ -173,7 +428,18 @@ public class PcPingMonitorService {
      * @return true se online, false se offline
      */
     public boolean isPcOnline(String pcIp) {
-        return pcStatusMap.getOrDefault(pcIp, false);
+        if (!HostStateTable.isIpv4(pcIp)) {
+            return false;
+        }
+        int slot = hosts.slotOf(pcIp);
+        return slot != HostStateTable.NO_SLOT && hosts.isOnline(slot);
+    }
+
+    /**
+     * @return true se il PC è già nella tabella del monitoraggio (registrato, configurato o ripristinato)
+     */
+    public boolean isMonitored(String pcIp) {
+        return HostStateTable.isIpv4(pcIp) && hosts.slotOf(pcIp) != HostStateTable.NO_SLOT;
     }
 
     /**
@@ -182,16 +448,240 @@ public class PcPingMonitorService {
      * @return LocalDateTime dell'ultimo ping o null se mai ricevuto
      */
     public LocalDateTime getLastPingTime(String pcIp) {
-        return lastPingMap.get(pcIp);
+        if (!HostStateTable.isIpv4(pcIp)) {
+            return null;
+        }
+        int slot = hosts.slotOf(pcIp);
+        if (slot == HostStateTable.NO_SLOT || (hosts.flags(slot) & HostStateTable.FLAG_SEEN) == 0) {
+            return null;
+        }
+        long agoNanos = System.nanoTime() - hosts.lastSeenNanos(slot);
+        return LocalDateTime.now().minus(agoNanos / 1000, ChronoUnit.MICROS);
+    }
+
+    /**
+     * Stato corrente di un PC, incluso lo spegnimento in corso
+     * @param pcIp IP del PC
+     */
+    public PcState getPcState(String pcIp) {
+        if (!HostStateTable.isIpv4(pcIp)) {
+            return PcState.UNKNOWN;
+        }
+        int slot = hosts.slotOf(pcIp);
+        if (slot == HostStateTable.NO_SLOT) {
+            return PcState.UNKNOWN;
+        }
+        int flags = hosts.flags(slot);
+        if ((flags & HostStateTable.FLAG_SHUTTING_DOWN) != 0) {
+            return PcState.SHUTTING_DOWN;
+        }
+        if ((flags & HostStateTable.FLAG_KNOWN) == 0) {
+            return PcState.UNKNOWN;
+        }
+        return (flags & HostStateTable.FLAG_ONLINE) != 0 ? PcState.ONLINE : PcState.OFFLINE;
+    }
+
+    public boolean isShuttingDown(String pcIp) {
+        return getPcState(pcIp) == PcState.SHUTTING_DOWN;
+    }
+
+    private boolean isShuttingDown(int slot) {
+        return (hosts.flags(slot) & HostStateTable.FLAG_SHUTTING_DOWN) != 0;
+    }
+
+    /**
+     * Durata dell'ultimo spegnimento confermato, dal comando all'ultima risposta del PC
+     * @param pcIp IP del PC
+     * @return millisecondi o -1 se mai misurato
+     */
+    public long getLastShutdownDurationMs(String pcIp) {
+        if (!HostStateTable.isIpv4(pcIp)) {
+            return -1;
+        }
+        int slot = hosts.slotOf(pcIp);
+        if (slot == HostStateTable.NO_SLOT || (hosts.flags(slot) & HostStateTable.FLAG_SHUTDOWN_MEASURED) == 0) {
+            return -1;
+        }
+        return hosts.lastShutdownMs(slot);
+    }
+
+    /**
+     * true se lo stato del PC è stato ripristinato da snapshot e non ancora riverificato
+     * @param pcIp IP del PC
+     */
+    public boolean isStale(String pcIp) {
+        if (!HostStateTable.isIpv4(pcIp)) {
+            return false;
+        }
+        int slot = hosts.slotOf(pcIp);
+        return slot != HostStateTable.NO_SLOT && (hosts.flags(slot) & HostStateTable.FLAG_STALE) != 0;
+    }
+
+    /**
+     * Esporta lo stato di tutti i PC monitorati (lettura lock-free, per lo snapshot)
+     */
+    public List<HostSnapshot> exportHosts() {
+        long nowNanos = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        int size = hosts.size();
+        List<HostSnapshot> snapshot = new ArrayList<>(size);
+        for (int slot = 0; slot < size; slot++) {
+            int flags = hosts.flags(slot);
+            long lastSeen = (flags & HostStateTable.FLAG_SEEN) != 0
+                ? nowMillis - TimeUnit.NANOSECONDS.toMillis(nowNanos - hosts.lastSeenNanos(slot))
+                : -1;
+            int lastShutdown = (flags & HostStateTable.FLAG_SHUTDOWN_MEASURED) != 0 ? hosts.lastShutdownMs(slot) : -1;
+            snapshot.add(new HostSnapshot(hosts.ipAt(slot), (flags & HostStateTable.FLAG_KNOWN) != 0,
+                (flags & HostStateTable.FLAG_ONLINE) != 0, lastSeen, hosts.preferredMethod(slot), lastShutdown));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Ripristina lo stato dei PC da uno snapshot all'avvio
+     * Gli stati ripristinati sono marcati come non verificati e vengono sondati subito;
+     * i PC già verificati in questa esecuzione non vengono toccati
+     */
+    public void restoreHosts(Collection<HostSnapshot> snapshot) {
+        long nowNanos = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        synchronized (hosts) {
+            for (HostSnapshot host : snapshot) {
+                if (!HostStateTable.isIpv4(host.ip()) || hosts.slotOf(host.ip()) != HostStateTable.NO_SLOT) {
+                    continue;
+                }
+                int slot = slotFor(host.ip());
+                if (host.known()) {
+                    hosts.setOnline(slot, host.online());
+                }
+                if (host.lastSeenEpochMillis() >= 0) {
+                    long agoMillis = Math.max(0, nowMillis - host.lastSeenEpochMillis());
+                    hosts.setLastSeenNanos(slot, nowNanos - TimeUnit.MILLISECONDS.toNanos(agoMillis));
+                    hosts.setFlag(slot, HostStateTable.FLAG_SEEN, true);
+                }
+                if (host.preferredMethod() > 0 && host.preferredMethod() <= ProbeMethod.values().length) {
+                    hosts.setPreferredMethod(slot, host.preferredMethod());
+                }
+                if (host.lastShutdownMs() >= 0) {
+                    hosts.setLastShutdownMs(slot, host.lastShutdownMs());
+                    hosts.setFlag(slot, HostStateTable.FLAG_SHUTDOWN_MEASURED, true);
+                }
+                hosts.setFlag(slot, HostStateTable.FLAG_STALE, true);
+                hosts.setNextProbeNanos(slot, nowNanos);
+            }
+        }
     }
 
     /**
      * Forza un PC come offline (utile per shutdown remoto)
+     * Il PC passa in {@link PcState#SHUTTING_DOWN} finché la raffica di sonde non conferma
+     * la perdita di raggiungibilità; nel frattempo risulta offline e le risposte residue
+     * non lo riportano online
      * @param pcIp IP del PC
      */
     public void markAsOffline(String pcIp) {
-        System.out.println("PC " + pcIp + " forzato OFFLINE");
-        pcStatusMap.put(pcIp, false);
-        lastPingMap.remove(pcIp);
+        if (!HostStateTable.isIpv4(pcIp)) {
+            return;
+        }
+        System.out.println("PC " + pcIp + " in spegnimento, verifica con raffica di sonde");
+        int slot = slotFor(pcIp);
+        long now = System.nanoTime();
+        synchronized (hosts) {
+            if (!isShuttingDown(slot)) {
+                shuttingDownCount++;
+            }
+            hosts.setOnline(slot, false);
+            hosts.setFlag(slot, HostStateTable.FLAG_STALE, false);
+            hosts.setFlag(slot, HostStateTable.FLAG_SHUTTING_DOWN, true);
+            hosts.setFlag(slot, HostStateTable.FLAG_TRANSITION, false);
+            hosts.setShutdownStartedNanos(slot, now);
+            // Il comando SSH è appena riuscito: il PC era raggiungibile in questo istante
+            hosts.setLastSeenNanos(slot, now);
+            hosts.setFlag(slot, HostStateTable.FLAG_SEEN, true);
+            hosts.setConsecutiveFailures(slot, 0);
+        }
+        reachabilityService.invalidate(pcIp);
+    }
+
+    /**
+     * Raffica di sonde verso i PC in spegnimento (corsia shutdown-burst, ogni 200ms)
+     */
+    private void probeShuttingDown() {
+        if (shuttingDownCount == 0) {
+            return;
+        }
+        try {
+            Map<String, List<ProbeMethod>> plan = new LinkedHashMap<>();
+            int size = hosts.size();
+            for (int slot = 0; slot < size; slot++) {
+                if (isShuttingDown(slot)) {
+                    // Tutte le sonde insieme: basta una risposta qualsiasi per sapere che è ancora acceso
+                    plan.put(hosts.ipAt(slot), PROBE_METHODS);
+                }
+            }
+            if (plan.isEmpty()) {
+                return;
+            }
+
+            Map<String, ProbeResult> results = reachabilityService.checkAll(plan, ReachabilityService.Profile.HOST,
+                SHUTDOWN_PROBE_TIMEOUT_MS, 0, 0);
+            long now = System.nanoTime();
+            for (ProbeResult result : results.values()) {
+                int slot = hosts.slotOf(result.ip());
+                synchronized (hosts) {
+                    if (isShuttingDown(slot)) {
+                        applyShutdownProbe(slot, result, now);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // Un errore non deve fermare il task periodico
+            System.out.println("Errore verifica spegnimento: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applica una sonda della raffica di spegnimento (chiamato con il lock della tabella)
+     */
+    private void applyShutdownProbe(int slot, ProbeResult result, long now) {
+        String pcIp = hosts.ipAt(slot);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(now - hosts.shutdownStartedNanos(slot));
+
+        if (result.reachable()) {
+            hosts.setLastSeenNanos(slot, now);
+            hosts.setConsecutiveFailures(slot, 0);
+            if (elapsedMs >= SHUTDOWN_TRANSITION_MS) {
+                // Il PC risponde ancora: lo spegnimento non è avvenuto
+                System.out.println("PC " + pcIp + " ancora raggiungibile dopo " + elapsedMs / 1000
+                    + " secondi, spegnimento non riuscito");
+                endShutdown(slot, now, true);
+            }
+            return;
+        }
+
+        int failures = hosts.consecutiveFailures(slot) + 1;
+        hosts.setConsecutiveFailures(slot, failures);
+        if (failures >= SHUTDOWN_FAILURES_FOR_OFFLINE || elapsedMs >= SHUTDOWN_TRANSITION_MS) {
+            long durationMs = TimeUnit.NANOSECONDS.toMillis(hosts.lastSeenNanos(slot) - hosts.shutdownStartedNanos(slot));
+            hosts.setLastShutdownMs(slot, (int) Math.min(Integer.MAX_VALUE, durationMs));
+            hosts.setFlag(slot, HostStateTable.FLAG_SHUTDOWN_MEASURED, true);
+            System.out.println("PC " + pcIp + " è OFFLINE (spegnimento confermato, ultima risposta dopo "
+                + durationMs + "ms)");
+            endShutdown(slot, now, false);
+        }
+    }
+
+    /**
+     * Esce dallo stato di spegnimento e riprende la pianificazione normale (chiamato con il lock della tabella)
+     */
+    private void endShutdown(int slot, long now, boolean online) {
+        shuttingDownCount--;
+        hosts.setFlag(slot, HostStateTable.FLAG_SHUTTING_DOWN, false);
+        hosts.setOnline(slot, online);
+        hosts.setFlag(slot, HostStateTable.FLAG_SEEN, online);
+        hosts.setConsecutiveFailures(slot, 0);
+        hosts.setIntervalMs(slot, MIN_PROBE_INTERVAL_MS);
+        hosts.setNextProbeNanos(slot, now + TimeUnit.MILLISECONDS.toNanos(MIN_PROBE_INTERVAL_MS));
+        reachabilityService.invalidate(hosts.ipAt(slot));
     }
 }
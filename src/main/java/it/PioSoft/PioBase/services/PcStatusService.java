@@ -2,12 +2,12 @@
  * Servizio per il controllo dello stato dei PC remoti
  *
  * Implementa la funzionalità di verifica dello stato dei PC tramite:
- * - Ping ICMP per verificare la raggiungibilità di rete
+ * - Ping ICMP e connessioni TCP (SSH, RPC) per verificare la raggiungibilità di rete
  * - Timeout configurabile per evitare attese prolungate
  * - Restituzione stato formattato (online/offline)
  *
- * Utilizza la classe InetAddress di Java per inviare ping
- * di rete e determinare se un PC è acceso e raggiungibile.
+ * Le verifiche passano dalla cache condivisa di ReachabilityService,
+ * senza lanciare processi ping esterni.
  *
  * @author Federico
  * @email feder@piosoft.it
@@ -18,55 +18,22 @@
 package it.PioSoft.PioBase.services;
 
 import org.springframework.stereotype.Service;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.InetAddress;
 
 @Service
 public class PcStatusService {
 
-    public boolean isPcOnline(String ipAddress) {
-        try {
-            // Prova prima con il metodo nativo Java con timeout ridotto
-            InetAddress inet = InetAddress.getByName(ipAddress);
-            if (inet.isReachable(1500)) { // Ridotto da 3000 a 1500ms
-                return true;
-            }
+    private final ReachabilityService reachabilityService;
 
-            // Se il metodo nativo fallisce, usa il comando ping esterno con timeout più basso
-            return pingWithCommand(ipAddress);
-
-        } catch (Exception e) {
-            System.err.println("Errore durante controllo connettività per " + ipAddress + ": " + e.getMessage());
-            return false;
-        }
+    public PcStatusService(ReachabilityService reachabilityService) {
+        this.reachabilityService = reachabilityService;
     }
 
-    private boolean pingWithCommand(String ipAddress) {
+    public boolean isPcOnline(String ipAddress) {
         try {
-            // Comando ping per macOS/Linux: ping -c 2 -W 2000 IP (ridotto timeout e tentativi)
-            ProcessBuilder processBuilder = new ProcessBuilder("ping", "-c", "2", "-W", "2000", ipAddress);
-            Process process = processBuilder.start();
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-            boolean isReachable = false;
-
-            while ((line = reader.readLine()) != null) {
-                // Controlla se la risposta contiene "bytes from" (indica successo del ping)
-                if (line.contains("bytes from")) {
-                    isReachable = true;
-                    break;
-                }
-            }
-
-            process.waitFor();
-            reader.close();
-
-            return isReachable;
-
+            // Usa la cache condivisa (ICMP + SSH + RPC in parallelo) con timeout ridotto
+            return reachabilityService.isReachable(ipAddress, ReachabilityService.Profile.HOST, 1500); // Ridotto da 3000 a 1500ms
         } catch (Exception e) {
-            System.err.println("Errore durante ping command per " + ipAddress + ": " + e.getMessage());
+            System.err.println("Errore durante controllo connettività per " + ipAddress + ": " + e.getMessage());
             return false;
         }
     }
@@ -76,9 +43,8 @@ public class PcStatusService {
      */
     public boolean isPcOnlineFast(String ipAddress) {
         try {
-            // Timeout molto ridotto per controllo veloce
-            InetAddress inet = InetAddress.getByName(ipAddress);
-            return inet.isReachable(800); // Solo 800ms di timeout
+            // Timeout molto ridotto per controllo veloce, accetta solo risultati freschi
+            return reachabilityService.check(ipAddress, ReachabilityService.Profile.HOST, 800, 500).reachable(); // Solo 800ms di timeout
         } catch (Exception e) {
             return false;
         }
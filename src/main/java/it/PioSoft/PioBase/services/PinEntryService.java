@@ -6,7 +6,8 @@
  * - Invia automaticamente il PIN di accesso configurato
  * - Utilizza PowerShell per simulare l'input del PIN
  *
- * Il servizio si connette via SSH al PC target e utilizza comandi
+ * Il servizio si connette via SSH al PC target (sessioni condivise di
+ * {@link SshSessionPool}) e utilizza comandi
  * PowerShell per automatizzare l'inserimento delle credenziali.
  *
  * @author Federico
@@ -17,22 +18,16 @@
  */
 package it.PioSoft.PioBase.services;
 
-import com.jcraft.jsch.ChannelExec;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
-import it.PioSoft.PioBase.configs.PcMappingConfig;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.util.concurrent.CompletableFuture;
 
 @Service
 public class PinEntryService {
 
     @Autowired
-    private PcMappingConfig pcMappingConfig;
+    private SshSessionPool sshSessionPool;
 
     @Autowired
     private PcStatusService pcStatusService;
@@ -224,52 +219,23 @@ public class PinEntryService {
     }
 
     private String executeCommand(String command, String ipAddress) throws Exception {
-        JSch jsch = new JSch();
-        Session session = null;
-        ChannelExec channel = null;
+        SshSessionPool.ExecResult execResult =
+            sshSessionPool.exec(ipAddress, SshSessionPool.Operation.INTERACTIVE, command, 10000, 30000);
 
-        try {
-            session = jsch.getSession(
-                pcMappingConfig.getSsh().getUsername(),
-                ipAddress,
-                pcMappingConfig.getSsh().getPort()
-            );
-            session.setPassword(pcMappingConfig.getSsh().getPassword());
-            session.setConfig("StrictHostKeyChecking", "no");
-            session.connect(10000);
-
-            channel = (ChannelExec) session.openChannel("exec");
-            channel.setCommand(command);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(channel.getInputStream()));
-            BufferedReader errorReader = new BufferedReader(new InputStreamReader(channel.getErrStream()));
-
-            channel.connect();
-
-            StringBuilder output = new StringBuilder();
-            StringBuilder errors = new StringBuilder();
-            String line;
-
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                System.out.println("Output: " + line);
-            }
-
-            while ((line = errorReader.readLine()) != null) {
-                errors.append(line).append("\n");
-                System.err.println("Error: " + line);
-            }
-
-            String result = output.toString().trim();
-            if (errors.length() > 0) {
-                result += " (Errors: " + errors.toString().trim() + ")";
-            }
-
-            return result.isEmpty() ? "Comando eseguito senza output" : result;
+        for (String line : execResult.lines()) {
+            System.out.println("Output: " + line);
+        }
+        String errors = execResult.stderr().trim();
+        if (!errors.isEmpty()) {
+            System.err.println("Error: " + errors);
+        }
 
-        } finally {
-            if (channel != null) channel.disconnect();
-            if (session != null) session.disconnect();
+        String result = execResult.stdout().trim();
+        if (!errors.isEmpty()) {
+            result += " (Errors: " + errors + ")";
         }
+
+        return result.isEmpty() ? "Comando eseguito senza output" : result;
     }
 
     /**
@@ -0,0 +1,389 @@
+package it.PioSoft.PioBase.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Motore di raggiungibilità non bloccante basato su NIO Selector.
+ * Avvia in parallelo tutte le sonde (ICMP e connessioni TCP) verso tutti gli host
+ * e raccoglie i risultati in un unico passaggio: la durata di un ciclo resta
+ * limitata da un singolo timeout indipendentemente dal numero di host.
+ *
+ * Il ping ICMP usa InetAddress.isReachable, bloccante e non interrompibile: ogni ping occupa un
+ * thread fino al suo timeout, anche oltre la fine del ciclo. Per non accodare i ping di un ciclo
+ * dietro quelli del precedente:
+ * - i thread ICMP vengono creati su richiesta, uno per ping in corso (quindi in base al numero
+ *   di host), fino a {@link #MAX_ICMP_THREADS}; senza coda
+ * - un host con un ping ancora in corso da un ciclo precedente non ne avvia un altro
+ * In entrambi i casi l'ICMP viene saltato e l'host passa subito alla sonda successiva (TCP).
+ * Limite: oltre MAX_ICMP_THREADS host contemporanei l'ICMP non copre tutti gli host.
+ */
+@Component
+public class ReachabilityEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReachabilityEngine.class);
+    private static final int MAX_ICMP_THREADS = 256;
+    // Thread ICMP inattivi oltre questo tempo vengono chiusi
+    private static final long ICMP_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Tipi di sonda supportati. Per le sonde TCP la porta indica il servizio verificato.
+     */
+    public enum ProbeMethod {
+        ICMP(-1),
+        TCP_SSH(22),
+        TCP_RPC(135),
+        TCP_RTSP(554);
+
+        private final int port;
+
+        ProbeMethod(int port) {
+            this.port = port;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public boolean isTcp() {
+            return port > 0;
+        }
+    }
+
+    /**
+     * Esito di una sonda: raggiungibilità, metodo che ha risposto e tempo di risposta
+     */
+    public record ProbeResult(String ip, boolean reachable, ProbeMethod method, long rttNanos) {
+
+        public static ProbeResult unreachable(String ip) {
+            return new ProbeResult(ip, false, null, -1);
+        }
+
+        public long rttMicros() {
+            return rttNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(rttNanos);
+        }
+    }
+
+    /**
+     * Stato delle sonde di un host durante un ciclo
+     */
+    private static final class HostProbe {
+        final String ip;
+        final InetAddress address;
+        final List<ProbeMethod> methods;
+        final List<SelectionKey> keys = new ArrayList<>();
+        int nextMethod;
+        int inFlight;
+        long nextEscalationNanos;
+
+        HostProbe(String ip, InetAddress address, List<ProbeMethod> methods) {
+            this.ip = ip;
+            this.address = address;
+            this.methods = methods;
+        }
+
+        boolean hasMoreMethods() {
+            return nextMethod < methods.size();
+        }
+    }
+
+    /**
+     * Sonda TCP in corso, associata alla SelectionKey
+     */
+    private record PendingConnect(HostProbe host, ProbeMethod method, long startNanos) {
+    }
+
+    private final ThreadPoolExecutor icmpExecutor;
+    // Host con un ping ICMP in corso, anche di un ciclo già terminato
+    private final Set<String> icmpInFlight = ConcurrentHashMap.newKeySet();
+
+    public ReachabilityEngine() {
+        AtomicInteger counter = new AtomicInteger();
+        this.icmpExecutor = new ThreadPoolExecutor(0, MAX_ICMP_THREADS, ICMP_THREAD_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                Thread thread = new Thread(r, "reachability-icmp-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /**
+     * Sonda un singolo host con i metodi indicati
+     */
+    public ProbeResult probe(String ip, List<ProbeMethod> methods, int timeoutMs) {
+        return probeAll(List.of(ip), methods, timeoutMs).get(ip);
+    }
+
+    /**
+     * Sonda tutti gli host in parallelo avviando subito tutte le sonde.
+     * Un host è raggiungibile appena una qualsiasi delle sonde risponde;
+     * le sonde rimanenti per quell'host vengono chiuse subito.
+     * @param ips host da verificare
+     * @param methods sonde da avviare per ogni host
+     * @param timeoutMs timeout complessivo del ciclo
+     * @return mappa IP -> esito (sempre presente per ogni IP richiesto)
+     */
+    public Map<String, ProbeResult> probeAll(Collection<String> ips, List<ProbeMethod> methods, int timeoutMs) {
+        Map<String, List<ProbeMethod>> plan = new LinkedHashMap<>();
+        for (String ip : ips) {
+            plan.put(ip, methods);
+        }
+        return probeAll(plan, timeoutMs, 0);
+    }
+
+    /**
+     * Sonda tutti gli host in parallelo seguendo per ciascuno un ordine di sonde.
+     * La prima sonda parte subito; la successiva parte quando la precedente fallisce
+     * oppure dopo escalationMs senza risposta. Con escalationMs = 0 partono tutte insieme.
+     * @param plan mappa IP -> sonde in ordine di preferenza
+     * @param timeoutMs timeout complessivo del ciclo
+     * @param escalationMs attesa prima di avviare la sonda successiva
+     * @return mappa IP -> esito (sempre presente per ogni IP richiesto)
+     */
+    public Map<String, ProbeResult> probeAll(Map<String, List<ProbeMethod>> plan, int timeoutMs, int escalationMs) {
+        Map<String, ProbeResult> results = new HashMap<>();
+        if (plan.isEmpty()) {
+            return results;
+        }
+
+        long escalationNanos = TimeUnit.MILLISECONDS.toNanos(escalationMs);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        Map<String, HostProbe> outstanding = new HashMap<>();
+        ConcurrentLinkedQueue<IcmpOutcome> icmpResults = new ConcurrentLinkedQueue<>();
+
+        try (Selector selector = Selector.open()) {
+            for (Map.Entry<String, List<ProbeMethod>> entry : plan.entrySet()) {
+                String ip = entry.getKey();
+                InetAddress address;
+                try {
+                    address = InetAddress.getByName(ip);
+                } catch (IOException e) {
+                    results.put(ip, ProbeResult.unreachable(ip));
+                    continue;
+                }
+
+                HostProbe host = new HostProbe(ip, address, entry.getValue());
+                outstanding.put(ip, host);
+                do {
+                    startNext(host, selector, timeoutMs, escalationNanos, results, outstanding, icmpResults);
+                } while (escalationNanos == 0 && host.hasMoreMethods() && outstanding.containsKey(ip));
+            }
+
+            while (!outstanding.isEmpty()) {
+                long now = System.nanoTime();
+                if (now >= deadline) {
+                    break;
+                }
+                long waitUntil = deadline;
+                for (HostProbe host : outstanding.values()) {
+                    if (host.hasMoreMethods()) {
+                        waitUntil = Math.min(waitUntil, host.nextEscalationNanos);
+                    }
+                }
+                long waitMs = TimeUnit.NANOSECONDS.toMillis(waitUntil - now);
+                if (waitMs > 0) {
+                    selector.select(waitMs);
+                } else {
+                    selector.selectNow();
+                }
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    PendingConnect pending = (PendingConnect) key.attachment();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    boolean connected;
+                    try {
+                        connected = channel.finishConnect();
+                    } catch (IOException e) {
+                        connected = false;
+                    }
+                    key.cancel();
+                    closeQuietly(channel);
+                    ProbeResult result = connected
+                        ? new ProbeResult(pending.host().ip, true, pending.method(), System.nanoTime() - pending.startNanos())
+                        : null;
+                    complete(pending.host(), result, selector, timeoutMs, escalationNanos,
+                        results, outstanding, icmpResults);
+                }
+                selector.selectedKeys().clear();
+
+                IcmpOutcome icmp;
+                while ((icmp = icmpResults.poll()) != null) {
+                    complete(icmp.host(), icmp.result().reachable() ? icmp.result() : null, selector, timeoutMs,
+                        escalationNanos, results, outstanding, icmpResults);
+                }
+
+                // Escalation: avvia la sonda successiva per gli host che non hanno ancora risposto
+                long escalationNow = System.nanoTime();
+                for (HostProbe host : new ArrayList<>(outstanding.values())) {
+                    if (host.hasMoreMethods() && escalationNow >= host.nextEscalationNanos) {
+                        startNext(host, selector, timeoutMs, escalationNanos, results, outstanding, icmpResults);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Errore nel ciclo di raggiungibilità", e);
+        } finally {
+            for (HostProbe host : outstanding.values()) {
+                host.keys.forEach(key -> closeQuietly((SocketChannel) key.channel()));
+            }
+            // I ping ICMP ancora in corso terminano da soli entro il loro timeout (vedi icmpInFlight)
+        }
+
+        for (String ip : plan.keySet()) {
+            results.putIfAbsent(ip, ProbeResult.unreachable(ip));
+        }
+        return results;
+    }
+
+    /**
+     * Esito di un ping ICMP completato su un thread del pool
+     */
+    private record IcmpOutcome(HostProbe host, ProbeResult result) {
+    }
+
+    /**
+     * Avvia la prossima sonda dell'host. Se la sonda fallisce subito passa alla successiva;
+     * se non ci sono altre sonde e nessuna è in corso l'host è irraggiungibile.
+     */
+    private void startNext(HostProbe host, Selector selector, int timeoutMs, long escalationNanos,
+                           Map<String, ProbeResult> results, Map<String, HostProbe> outstanding,
+                           ConcurrentLinkedQueue<IcmpOutcome> icmpResults) {
+        while (host.hasMoreMethods()) {
+            ProbeMethod method = host.methods.get(host.nextMethod++);
+            host.nextEscalationNanos = System.nanoTime() + escalationNanos;
+
+            if (!method.isTcp()) {
+                if (startIcmp(host, timeoutMs, icmpResults, selector)) {
+                    host.inFlight++;
+                    return;
+                }
+                continue; // Ping già in corso o thread esauriti, prova la successiva
+            }
+
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                long start = System.nanoTime();
+                if (channel.connect(new InetSocketAddress(host.address, method.getPort()))) {
+                    closeQuietly(channel);
+                    resolve(host, new ProbeResult(host.ip, true, method, System.nanoTime() - start), results, outstanding);
+                    return;
+                }
+                host.keys.add(channel.register(selector, SelectionKey.OP_CONNECT, new PendingConnect(host, method, start)));
+                host.inFlight++;
+                return;
+            } catch (IOException e) {
+                closeQuietly(channel);
+                // Sonda non avviabile, prova la successiva
+            }
+        }
+
+        if (host.inFlight == 0) {
+            resolve(host, ProbeResult.unreachable(host.ip), results, outstanding);
+        }
+    }
+
+    /**
+     * Avvia il ping ICMP su un thread dedicato; l'esito viene accodato e il selector risvegliato
+     * @return false se l'host ha già un ping in corso o non ci sono thread liberi
+     */
+    private boolean startIcmp(HostProbe host, int timeoutMs, ConcurrentLinkedQueue<IcmpOutcome> icmpResults,
+                              Selector selector) {
+        if (!icmpInFlight.add(host.ip)) {
+            return false;
+        }
+        try {
+            icmpExecutor.execute(() -> {
+                long start = System.nanoTime();
+                boolean reachable;
+                try {
+                    reachable = host.address.isReachable(timeoutMs);
+                } catch (IOException e) {
+                    reachable = false;
+                } finally {
+                    icmpInFlight.remove(host.ip);
+                }
+                icmpResults.add(new IcmpOutcome(host, reachable
+                    ? new ProbeResult(host.ip, true, ProbeMethod.ICMP, System.nanoTime() - start)
+                    : new ProbeResult(host.ip, false, ProbeMethod.ICMP, -1)));
+                selector.wakeup();
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            icmpInFlight.remove(host.ip);
+            logger.debug("Thread ICMP esauriti, sonda ICMP saltata per {}", host.ip);
+            return false;
+        }
+    }
+
+    /**
+     * Registra l'esito di una sonda: al primo successo chiude le sonde residue dell'host,
+     * in caso di fallimento avvia subito la sonda successiva
+     */
+    private void complete(HostProbe host, ProbeResult success, Selector selector, int timeoutMs, long escalationNanos,
+                          Map<String, ProbeResult> results, Map<String, HostProbe> outstanding,
+                          ConcurrentLinkedQueue<IcmpOutcome> icmpResults) {
+        if (!outstanding.containsKey(host.ip)) {
+            return; // Host già risolto
+        }
+
+        host.inFlight--;
+        if (success != null) {
+            resolve(host, success, results, outstanding);
+        } else if (host.hasMoreMethods()) {
+            startNext(host, selector, timeoutMs, escalationNanos, results, outstanding, icmpResults);
+        } else if (host.inFlight <= 0) {
+            resolve(host, ProbeResult.unreachable(host.ip), results, outstanding);
+        }
+    }
+
+    private void resolve(HostProbe host, ProbeResult result, Map<String, ProbeResult> results,
+                         Map<String, HostProbe> outstanding) {
+        results.put(host.ip, result);
+        outstanding.remove(host.ip);
+        for (SelectionKey key : host.keys) {
+            key.cancel();
+            closeQuietly((SocketChannel) key.channel());
+        }
+        host.keys.clear();
+    }
+
+    private void closeQuietly(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignora
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        icmpExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,166 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.services.ReachabilityEngine.ProbeMethod;
+import it.PioSoft.PioBase.services.ReachabilityEngine.ProbeResult;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servizio condiviso di raggiungibilità con cache a breve scadenza.
+ *
+ * Tutti i controlli online/offline (monitor ping, stato PC, camera, info sistema)
+ * passano da qui: un risultato recente viene riutilizzato e le richieste concorrenti
+ * per lo stesso IP condividono un'unica sonda in corso (single-flight).
+ * Ogni sonda realmente eseguita viene registrata in {@link LatencyStatsService}.
+ * In questo modo si evita traffico ICMP/TCP duplicato e tutte le API rispondono
+ * in modo coerente.
+ */
+@Service
+public class ReachabilityService {
+
+    // Scadenza di default: più breve del ciclo di monitoraggio da 2 secondi
+    public static final long DEFAULT_MAX_AGE_MS = 1500;
+
+    /**
+     * Profili di sonda: ogni tipo di dispositivo ha le sue porte significative
+     * CAMERA dice se il dispositivo risponde; CAMERA_RTSP solo se il servizio video è attivo
+     */
+    public enum Profile {
+        HOST(List.of(ProbeMethod.ICMP, ProbeMethod.TCP_SSH, ProbeMethod.TCP_RPC)),
+        CAMERA(List.of(ProbeMethod.TCP_RTSP, ProbeMethod.ICMP)),
+        CAMERA_RTSP(List.of(ProbeMethod.TCP_RTSP));
+
+        private final List<ProbeMethod> methods;
+
+        Profile(List<ProbeMethod> methods) {
+            this.methods = methods;
+        }
+
+        public List<ProbeMethod> getMethods() {
+            return methods;
+        }
+    }
+
+    private record CachedResult(ProbeResult result, long timestampNanos) {
+
+        boolean isFresh(long maxAgeMs) {
+            return System.nanoTime() - timestampNanos <= TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+        }
+    }
+
+    private final ReachabilityEngine reachabilityEngine;
+    private final LatencyStatsService latencyStatsService;
+    private final Map<String, CachedResult> cache = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<ProbeResult>> inFlight = new ConcurrentHashMap<>();
+
+    public ReachabilityService(ReachabilityEngine reachabilityEngine, LatencyStatsService latencyStatsService) {
+        this.reachabilityEngine = reachabilityEngine;
+        this.latencyStatsService = latencyStatsService;
+    }
+
+    /**
+     * Verifica la raggiungibilità usando la scadenza di default
+     */
+    public ProbeResult check(String ip, Profile profile, int timeoutMs) {
+        return check(ip, profile, timeoutMs, DEFAULT_MAX_AGE_MS);
+    }
+
+    /**
+     * Verifica la raggiungibilità di un host
+     * @param ip IP dell'host
+     * @param profile profilo di sonda
+     * @param timeoutMs timeout della sonda se serve sondare
+     * @param maxAgeMs età massima accettata per un risultato in cache
+     */
+    public ProbeResult check(String ip, Profile profile, int timeoutMs, long maxAgeMs) {
+        return checkAll(Map.of(ip, profile.getMethods()), profile, timeoutMs, 0, maxAgeMs).get(ip);
+    }
+
+    public boolean isReachable(String ip, Profile profile, int timeoutMs) {
+        return check(ip, profile, timeoutMs).reachable();
+    }
+
+    /**
+     * Verifica più host in un'unica passata del motore.
+     * Gli host con risultato recente vengono serviti dalla cache, quelli già in corso
+     * di verifica da un altro chiamante condividono la sonda, gli altri vengono sondati insieme.
+     * @param plan mappa IP -> ordine delle sonde
+     * @param profile profilo sotto cui memorizzare i risultati
+     * @param escalationMs attesa prima della sonda successiva (0 = tutte insieme)
+     */
+    public Map<String, ProbeResult> checkAll(Map<String, List<ProbeMethod>> plan, Profile profile,
+                                             int timeoutMs, int escalationMs, long maxAgeMs) {
+        Map<String, ProbeResult> results = new HashMap<>();
+        Map<String, CompletableFuture<ProbeResult>> joined = new HashMap<>();
+        Map<String, CompletableFuture<ProbeResult>> owned = new HashMap<>();
+        Map<String, List<ProbeMethod>> toProbe = new LinkedHashMap<>();
+
+        for (Map.Entry<String, List<ProbeMethod>> entry : plan.entrySet()) {
+            String key = key(entry.getKey(), profile);
+            CachedResult cached = cache.get(key);
+            if (cached != null && cached.isFresh(maxAgeMs)) {
+                results.put(entry.getKey(), cached.result());
+                continue;
+            }
+
+            CompletableFuture<ProbeResult> future = new CompletableFuture<>();
+            CompletableFuture<ProbeResult> existing = inFlight.putIfAbsent(key, future);
+            if (existing != null) {
+                joined.put(entry.getKey(), existing);
+            } else {
+                owned.put(entry.getKey(), future);
+                toProbe.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (!toProbe.isEmpty()) {
+            Map<String, ProbeResult> probed = Map.of();
+            try {
+                probed = reachabilityEngine.probeAll(toProbe, timeoutMs, escalationMs);
+            } finally {
+                long now = System.nanoTime();
+                for (Map.Entry<String, CompletableFuture<ProbeResult>> entry : owned.entrySet()) {
+                    String ip = entry.getKey();
+                    ProbeResult result = probed.getOrDefault(ip, ProbeResult.unreachable(ip));
+                    latencyStatsService.record(result);
+                    String key = key(ip, profile);
+                    cache.put(key, new CachedResult(result, now));
+                    inFlight.remove(key, entry.getValue());
+                    entry.getValue().complete(result);
+                    results.put(ip, result);
+                }
+            }
+        }
+
+        joined.forEach((ip, future) -> results.put(ip, future.join()));
+        return results;
+    }
+
+    /**
+     * Ultimo risultato noto senza sondare (null se mai verificato)
+     */
+    public ProbeResult getCached(String ip, Profile profile) {
+        CachedResult cached = cache.get(key(ip, profile));
+        return cached != null ? cached.result() : null;
+    }
+
+    /**
+     * Scarta il risultato in cache, ad esempio dopo uno spegnimento remoto
+     */
+    public void invalidate(String ip) {
+        for (Profile profile : Profile.values()) {
+            cache.remove(key(ip, profile));
+        }
+    }
+
+    private static String key(String ip, Profile profile) {
+        return profile.name() + ":" + ip;
+    }
+}
@@ -4,9 +4,9 @@
  * Implementa la funzionalità di spegnimento remoto dei PC tramite:
  * - Connessione SSH sicura con credenziali configurate
  * - Esecuzione comando shutdown su PC Windows remoti
- * - Gestione automatica della sessione SSH e cleanup risorse
+ * - Sessione SSH condivisa di {@link SshSessionPool}, chiusa dopo lo spegnimento
  *
- * Utilizza la libreria JSch per stabilire connessioni SSH e
+ * Utilizza la libreria JSch, tramite il pool di sessioni, per
  * eseguire comandi di sistema sui PC target. Le credenziali
  * sono caricate dalla configurazione applicativa.
  *
@@ -18,10 +18,6 @@
  */
 package it.PioSoft.PioBase.services;
 
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
-import com.jcraft.jsch.ChannelExec;
-import it.PioSoft.PioBase.configs.PcMappingConfig;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -29,42 +25,20 @@ import org.springframework.stereotype.Service;
 public class RemoteShutdownService {
 
     @Autowired
-    private PcMappingConfig pcMappingConfig;
+    private SshSessionPool sshSessionPool;
 
     @Autowired
     private DeviceMonitoringService deviceMonitoringService;
 
     public void shutdownPC(String ipAddress) throws Exception {
-        JSch jsch = new JSch();
-        Session session = null;
+        String command = "shutdown /s /t 0";
 
-        try {
-            PcMappingConfig.Ssh sshConfig = pcMappingConfig.getSsh();
+        sshSessionPool.exec(ipAddress, SshSessionPool.Operation.INTERACTIVE, command, 30000, 30000);
 
-            session = jsch.getSession(sshConfig.getUsername(), ipAddress, sshConfig.getPort());
-            session.setPassword(sshConfig.getPassword());
-            session.setConfig("StrictHostKeyChecking", "no");
-            session.connect(30000);
+        // Il PC si sta spegnendo: la sessione condivisa non servirà più
+        sshSessionPool.invalidate(ipAddress);
 
-            String command = "shutdown /s /t 0";
-
-            ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
-            channelExec.setCommand(command);
-            channelExec.connect();
-
-            while (channelExec.isConnected()) {
-                Thread.sleep(100);
-            }
-
-            channelExec.disconnect();
-
-            // NOTIFICA IMMEDIATA: Marca il dispositivo come offline dopo comando spegnimento
-            deviceMonitoringService.markDeviceOffline(ipAddress, "Spegnimento remoto eseguito");
-
-        } finally {
-            if (session != null) {
-                session.disconnect();
-            }
-        }
+        // NOTIFICA IMMEDIATA: Marca il dispositivo come offline dopo comando spegnimento
+        deviceMonitoringService.markDeviceOffline(ipAddress, "Spegnimento remoto eseguito");
     }
 }
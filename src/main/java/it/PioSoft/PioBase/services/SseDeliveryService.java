@@ -0,0 +1,250 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.configs.SseConfig;
+import it.PioSoft.PioBase.dto.StatusPayload;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consegna asincrona degli eventi SSE
+ *
+ * Crea gli {@link StatusStream} dei client e li fa svuotare da un pool di thread dedicato,
+ * separato dallo scheduler di Spring: un client con la connessione bloccata non ferma più
+ * checkPingTimeouts, checkCamStatus né gli altri client.
+ * Tiene il registro degli stream aperti per esporne le metriche.
+ *
+ * Crea inoltre gli {@link SseEvent} da pubblicare: ogni evento ha un id crescente e viene
+ * serializzato una sola volta, qualunque sia il numero di client del topic.
+ * Gli ultimi eventi di ogni topic restano in un buffer circolare in memoria: un client che si
+ * riconnette con Last-Event-ID riceve gli eventi persi senza ricalcolare lo stato.
+ * Lo stato iniziale di un singolo client ({@link #snapshot}) resta fuori dal buffer: non spinge
+ * fuori gli eventi degli altri client e non si inserisce tra un evento del topic e il successivo.
+ *
+ * La corsia "subscription-timers" (ogni 250ms) sveglia gli stream con intervallo minimo o
+ * massimo: invio degli aggiornamenti trattenuti e heartbeat.
+ */
+@Service
+public class SseDeliveryService {
+
+    private final SseConfig sseConfig;
+    private final ExecutorService executor;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Map<Long, StatusStream> streams = new ConcurrentHashMap<>();
+    // Parte dall'epoch in millisecondi: gli id restano crescenti anche dopo un riavvio del server
+    private final long firstEventId = System.currentTimeMillis();
+    private final AtomicLong nextEventId = new AtomicLong(firstEventId);
+    // Ultimi eventi per topic ("evento:risorsa")
+    private final Map<String, ReplayBuffer> topics = new ConcurrentHashMap<>();
+
+    /**
+     * Eventi da reinviare a un client che si riconnette
+     * @param missed eventi successivi a Last-Event-ID
+     * @param latest ultimo evento del topic
+     * @param complete false se parte degli eventi persi è già uscita dal buffer
+     */
+    public record Replay(List<SseEvent> missed, SseEvent latest, boolean complete) {
+    }
+
+    public SseDeliveryService(SseConfig sseConfig, MonitoringScheduler monitoringScheduler) {
+        this.sseConfig = sseConfig;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, sseConfig.getDeliveryThreads()), r -> {
+            Thread t = new Thread(r, "sse-delivery-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        monitoringScheduler.schedule("subscription-timers", 250, this::tickStreams);
+    }
+
+    /**
+     * Apre uno stream per un nuovo client su un canale qualsiasi (SSE o sottoscrizione WebSocket)
+     * @param topic risorsa monitorata (IP del dispositivo o del PC)
+     * @param eventName nome dell'evento SSE
+     * @param options opzioni di sottoscrizione scelte dal client
+     */
+    public StatusStream open(StatusStream.Transport transport, String topic, String eventName, StatusStream.Mode mode,
+                             StatusStream.Options options) {
+        long id = nextId.getAndIncrement();
+        StatusStream stream = new StatusStream(id, topic, transport, eventName, mode, options, executor,
+            sseConfig.getQueueCapacity(), sseConfig.getOverflowPolicy());
+        streams.put(id, stream);
+        return stream;
+    }
+
+    /**
+     * Crea l'evento da inviare a tutti i client di un topic
+     * @param topic risorsa monitorata (IP del dispositivo o del PC)
+     * @param eventName nome dell'evento SSE
+     */
+    public SseEvent event(String topic, String eventName, StatusPayload status) {
+        ReplayBuffer buffer = topics.computeIfAbsent(eventName + ":" + topic,
+            key -> new ReplayBuffer(sseConfig.getReplayBufferSize()));
+        // Sotto il lock del buffer: id e predecessore restano coerenti con pubblicazioni concorrenti
+        synchronized (buffer) {
+            SseEvent event = new SseEvent(nextEventId.getAndIncrement(), topic, eventName, status, buffer.latest());
+            buffer.add(event);
+            return event;
+        }
+    }
+
+    /**
+     * Crea l'evento con lo stato corrente per i soli client appena sottoscritti
+     * Ha un id proprio, così il client può riprendere da lì, ma non entra nel buffer del topic
+     */
+    public SseEvent snapshot(String topic, String eventName, StatusPayload status) {
+        return new SseEvent(nextEventId.getAndIncrement(), topic, eventName, status, null);
+    }
+
+    /**
+     * Ultimo evento pubblicato su un topic (null se nessuno)
+     */
+    public SseEvent getLastEvent(String topic, String eventName) {
+        ReplayBuffer buffer = topics.get(eventName + ":" + topic);
+        if (buffer == null) {
+            return null;
+        }
+        synchronized (buffer) {
+            return buffer.latest();
+        }
+    }
+
+    /**
+     * Eventi di un topic successivi a quello indicato dal client
+     * @return null se il topic non ha eventi in memoria
+     */
+    public Replay replay(String topic, String eventName, long lastEventId) {
+        ReplayBuffer buffer = topics.get(eventName + ":" + topic);
+        if (buffer == null) {
+            return null;
+        }
+        // Id assegnato da questo processo: un id oltre l'ultimo evento del topic è uno stato iniziale
+        // già aggiornato; altrimenti viene da prima di un riavvio e non dice cosa ha il client
+        boolean issuedHere = lastEventId >= firstEventId && lastEventId < nextEventId.get();
+        synchronized (buffer) {
+            return buffer.since(lastEventId, issuedHere);
+        }
+    }
+
+    /**
+     * Riprende uno stream dal buffer in memoria del suo topic
+     * Se gli eventi persi sono ancora tutti nel buffer vengono reinviati in ordine, altrimenti
+     * si invia l'ultimo stato noto; nessun ricalcolo dello stato
+     * @param lastEventId Last-Event-ID inviato dal client alla riconnessione (null se assente)
+     * @return false se non c'è una ripresa da fare (nessun id valido o nessun evento in memoria)
+     */
+    public boolean resume(StatusStream stream, String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return false;
+        }
+        long lastId;
+        try {
+            lastId = Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        Replay replay = replay(stream.getTopic(), stream.getEventName(), lastId);
+        if (replay == null) {
+            return false;
+        }
+        if (replay.complete()) {
+            stream.replay(replay.missed());
+        } else {
+            stream.publish(replay.latest());
+        }
+        System.out.println("Ripresa stream " + stream.getEventName() + " per " + stream.getTopic() + " da id " + lastId
+            + ": " + (replay.complete() ? replay.missed().size() + " eventi persi" : "solo ultimo stato"));
+        return true;
+    }
+
+    /**
+     * Rimuove lo stream dal registro (chiamato alla chiusura)
+     */
+    public void unregister(StatusStream stream) {
+        streams.remove(stream.getId());
+    }
+
+    /**
+     * Metriche di consegna di tutti i client connessi
+     */
+    public List<StatusStream.Metrics> getMetrics() {
+        List<StatusStream.Metrics> metrics = new ArrayList<>();
+        for (StatusStream stream : streams.values()) {
+            metrics.add(stream.metrics());
+        }
+        metrics.sort(Comparator.comparingLong(StatusStream.Metrics::id));
+        return metrics;
+    }
+
+    /**
+     * Scadenze di intervallo minimo e heartbeat degli stream (corsia subscription-timers)
+     */
+    public void tickStreams() {
+        long now = System.nanoTime();
+        for (StatusStream stream : streams.values()) {
+            stream.tick(now);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Buffer circolare a dimensione fissa degli ultimi eventi di un topic; accesso sotto il suo lock
+     */
+    private static final class ReplayBuffer {
+
+        private final SseEvent[] events;
+        private int next;
+        private int size;
+
+        ReplayBuffer(int capacity) {
+            this.events = new SseEvent[Math.max(1, capacity)];
+        }
+
+        void add(SseEvent event) {
+            events[next] = event;
+            next = (next + 1) % events.length;
+            size = Math.min(size + 1, events.length);
+        }
+
+        SseEvent latest() {
+            return size == 0 ? null : events[(next - 1 + events.length) % events.length];
+        }
+
+        /**
+         * @param issuedHere true se lastEventId è stato assegnato da questo processo
+         */
+        Replay since(long lastEventId, boolean issuedHere) {
+            SseEvent latest = latest();
+            if (latest == null) {
+                return null;
+            }
+            int oldest = (next - size + events.length) % events.length;
+            List<SseEvent> missed = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                SseEvent event = events[(oldest + i) % events.length];
+                if (event.getId() > lastEventId) {
+                    missed.add(event);
+                }
+            }
+            // Completo se il client aveva già l'evento che precede il più vecchio in memoria,
+            // o se non ha perso nulla (ultimo evento o stato iniziale successivo)
+            boolean complete = missed.isEmpty()
+                ? lastEventId == latest.getId() || issuedHere
+                : lastEventId >= missed.get(0).getPreviousId();
+            return new Replay(missed, latest, complete);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.dto.StatusJson;
+import it.PioSoft.PioBase.dto.StatusPayload;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Evento SSE pubblicato su un topic, serializzato una sola volta per tutti i client
+ *
+ * Il frame completo (id:, event:, data: e riga vuota finale) viene codificato in byte alla
+ * prima richiesta e poi riusato da ogni stream: il costo di serializzazione non dipende più
+ * dal numero di client.
+ * L'evento conserva lo stato dell'evento precedente sullo stesso topic, così anche il delta
+ * rispetto a quello viene calcolato e codificato una volta sola per tutti i client in modalità
+ * delta che avevano ricevuto l'evento precedente.
+ *
+ * Lo stesso evento può essere codificato come frame SSE o come messaggio del WebSocket
+ * multiplexato; ogni formato viene codificato al più una volta, con lo scrittore di
+ * {@link StatusPayload} senza passare da Jackson.
+ * I client che chiedono solo alcuni campi ricevono un frame proiettato, codificato una volta
+ * per ogni insieme di campi richiesto.
+ */
+public final class SseEvent {
+
+    /**
+     * Formato di codifica dei frame
+     */
+    public enum Framing {
+        SSE,      // id:, event:, data: e riga vuota finale
+        WEBSOCKET // {"type":"event","event":...,"resource":...,"id":...,"data":{...}}
+    }
+
+    private static final int INITIAL_FRAME_CAPACITY = 512;
+    private static final byte[] NO_DELTA = new byte[0];
+
+    private record Projection(Framing framing, Set<String> fields, boolean delta) {
+    }
+
+    private final long id;
+    private final String topic;
+    private final String name;
+    private final StatusPayload status;
+    private final long previousId;
+    private final StatusPayload previousStatus;
+
+    // Indicizzati per Framing.ordinal()
+    private final byte[][] frames = new byte[Framing.values().length][];
+    private final byte[][] sharedDeltas = new byte[Framing.values().length][];
+    private final boolean[] sharedDeltaReady = new boolean[Framing.values().length];
+    // Frame proiettati, creati alla prima richiesta di un insieme di campi; accesso sotto il lock dell'evento
+    private Map<Projection, byte[]> projectedFrames;
+    private volatile Map<String, Object> statusMap;
+
+    SseEvent(long id, String topic, String name, StatusPayload status, SseEvent previous) {
+        this.id = id;
+        this.topic = topic;
+        this.name = name;
+        this.status = status;
+        // Solo id e stato: un riferimento all'evento creerebbe una catena che non viene mai liberata
+        this.previousId = previous != null ? previous.id : 0;
+        this.previousStatus = previous != null ? previous.status : null;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Risorsa a cui si riferisce l'evento (IP del dispositivo o del PC, o nome del topic)
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public StatusPayload getStatus() {
+        return status;
+    }
+
+    /**
+     * Id dell'evento precedente sullo stesso topic (0 se è il primo)
+     */
+    public long getPreviousId() {
+        return previousId;
+    }
+
+    /**
+     * Frame SSE completo dell'evento, codificato alla prima chiamata
+     */
+    public byte[] frame() {
+        return frame(Framing.SSE);
+    }
+
+    /**
+     * Frame completo dell'evento nel formato richiesto, codificato alla prima chiamata
+     */
+    public synchronized byte[] frame(Framing framing) {
+        byte[] encoded = frames[framing.ordinal()];
+        if (encoded == null) {
+            encoded = encode(framing, name, status::writeTo);
+            frames[framing.ordinal()] = encoded;
+        }
+        return encoded;
+    }
+
+    /**
+     * Frame completo con i soli campi indicati (più il timestamp), condiviso dai client con gli stessi campi
+     * @param fields campi richiesti dal client, null per lo stato intero
+     */
+    public byte[] frame(Framing framing, Set<String> fields) {
+        if (fields == null) {
+            return frame(framing);
+        }
+        synchronized (this) {
+            return projected(new Projection(framing, fields, false),
+                () -> encode(framing, name, json -> json.value(project(statusMap(), fields))));
+        }
+    }
+
+    /**
+     * Come {@link #deltaFrame(SseEvent, Framing)}, limitato ai campi indicati
+     * @param fields campi richiesti dal client, null per lo stato intero
+     */
+    public byte[] deltaFrame(SseEvent lastSent, Framing framing, Set<String> fields) {
+        if (fields == null) {
+            return deltaFrame(lastSent, framing);
+        }
+        if (previousStatus != null && lastSent.id == previousId) {
+            byte[] frame;
+            synchronized (this) {
+                frame = projected(new Projection(framing, fields, true), () -> {
+                    byte[] delta = encodeDelta(framing, previousStatus.toMap(), fields);
+                    return delta != null ? delta : NO_DELTA;
+                });
+            }
+            return frame == NO_DELTA ? null : frame;
+        }
+        return encodeDelta(framing, lastSent.statusMap(), fields);
+    }
+
+    /**
+     * true se i due eventi hanno lo stesso stato sui campi indicati (timestamp escluso)
+     * @param fields campi richiesti dal client, null per lo stato intero
+     */
+    public boolean sameState(SseEvent other, Set<String> fields) {
+        if (fields == null) {
+            return status.sameState(other.status);
+        }
+        Map<String, Object> mine = statusMap();
+        Map<String, Object> theirs = other.statusMap();
+        for (String field : fields) {
+            if (mine.containsKey(field) != theirs.containsKey(field)
+                || !Objects.equals(mine.get(field), theirs.get(field))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] projected(Projection projection, Supplier<byte[]> encoder) {
+        if (projectedFrames == null) {
+            projectedFrames = new HashMap<>();
+        }
+        return projectedFrames.computeIfAbsent(projection, key -> encoder.get());
+    }
+
+    /**
+     * Stato come mappa, calcolato una volta per evento (serve solo a delta e proiezioni)
+     */
+    private Map<String, Object> statusMap() {
+        Map<String, Object> map = statusMap;
+        if (map == null) {
+            map = status.toMap();
+            statusMap = map;
+        }
+        return map;
+    }
+
+    private static Map<String, Object> project(Map<String, Object> values, Set<String> fields) {
+        Map<String, Object> projected = new HashMap<>();
+        for (String field : StatusStream.VOLATILE_FIELDS) {
+            if (values.containsKey(field)) {
+                projected.put(field, values.get(field));
+            }
+        }
+        for (String field : fields) {
+            if (values.containsKey(field)) {
+                projected.put(field, values.get(field));
+            }
+        }
+        return projected;
+    }
+
+    /**
+     * Frame "&lt;nome&gt;Delta" con i campi cambiati rispetto all'ultimo evento ricevuto dal client
+     * @param lastSent ultimo evento inviato al client
+     * @return frame condiviso se il client aveva ricevuto l'evento precedente del topic, altrimenti
+     *         un frame calcolato solo per lui; null se non è cambiato nulla
+     */
+    public byte[] deltaFrame(SseEvent lastSent, Framing framing) {
+        if (previousStatus != null && lastSent.id == previousId) {
+            synchronized (this) {
+                int index = framing.ordinal();
+                if (!sharedDeltaReady[index]) {
+                    sharedDeltas[index] = encodeDelta(framing, previousStatus.toMap(), null);
+                    sharedDeltaReady[index] = true;
+                }
+                return sharedDeltas[index];
+            }
+        }
+        return encodeDelta(framing, lastSent.statusMap(), null);
+    }
+
+    /**
+     * @param fields se non null il delta è calcolato solo su questi campi
+     */
+    private byte[] encodeDelta(Framing framing, Map<String, Object> base, Set<String> fields) {
+        Map<String, Object> current = statusMap();
+        if (fields != null) {
+            base = project(base, fields);
+            current = project(current, fields);
+        }
+        Map<String, Object> delta = StatusStream.diff(base, current);
+        if (delta.isEmpty()) {
+            return null;
+        }
+        for (String field : StatusStream.VOLATILE_FIELDS) {
+            if (current.containsKey(field)) {
+                delta.put(field, current.get(field));
+            }
+        }
+        return encode(framing, name + "Delta", json -> json.value(delta));
+    }
+
+    /**
+     * Frame nel formato richiesto; il JSON dello stato viene scritto direttamente nel frame
+     * (lo scrittore escapa i ritorni a capo, quindi basta una sola riga data:)
+     */
+    private byte[] encode(Framing framing, String eventName, Consumer<StatusJson> data) {
+        StatusJson json = new StatusJson(INITIAL_FRAME_CAPACITY);
+        if (framing == Framing.WEBSOCKET) {
+            json.beginObject()
+                .field("type", "event")
+                .field("event", eventName)
+                .field("resource", topic)
+                .field("id", id)
+                .key("data");
+            data.accept(json);
+            json.endObject();
+        } else {
+            json.ascii("id:").asciiNumber(id).ascii("\nevent:").ascii(eventName).ascii("\ndata:");
+            data.accept(json);
+            json.ascii("\n\n");
+        }
+        return json.toByteArray();
+    }
+}
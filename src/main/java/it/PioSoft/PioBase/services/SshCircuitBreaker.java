@@ -0,0 +1,183 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.configs.PcMappingConfig;
+
+/**
+ * Circuit breaker delle operazioni SSH verso un host, per un tipo di operazione
+ *
+ * - CLOSED: i tentativi passano; l'esito degli ultimi windowSize entra nella finestra e, con almeno
+ *   minCalls esiti e una quota di fallimenti oltre la soglia, il circuito si apre
+ * - OPEN: i tentativi vengono rifiutati subito, senza attendere timeout di connessione
+ * - HALF_OPEN: trascorso il tempo di apertura passa un solo tentativo di prova; se riesce il
+ *   circuito si richiude, altrimenti si riapre per il doppio del tempo (fino al massimo). Una prova
+ *   senza esito entro trialTimeoutMs conta come fallita, così un chiamante bloccato non lascia
+ *   il circuito a rifiutare per sempre
+ * Tutti i metodi sono sincronizzati: le chiamate sono al più qualche decina al secondo.
+ */
+public class SshCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Metriche del circuito
+     * @param failureRatePercent quota di fallimenti nella finestra corrente
+     * @param retryInMs attesa prima del prossimo tentativo di prova, 0 se non aperto
+     * @param lastError messaggio dell'ultimo fallimento, null se non ce ne sono stati
+     */
+    public record Metrics(State state, int windowCalls, int failureRatePercent, long opens, long rejected,
+                          long retryInMs, String lastError) {
+    }
+
+    private final PcMappingConfig.Ssh.Breaker config;
+    // Esiti recenti in un buffer circolare: true = fallimento
+    private final boolean[] window;
+    private int windowStart;
+    private int windowCalls;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private long openUntilMillis;
+    private long currentOpenMs;
+    private boolean trialInFlight;
+    private long trialStartedMillis;
+    private long opens;
+    private long rejected;
+    private String lastError;
+
+    public SshCircuitBreaker(PcMappingConfig.Ssh.Breaker config) {
+        this.config = config;
+        this.window = new boolean[Math.max(1, config.getWindowSize())];
+    }
+
+    /**
+     * Chiede il permesso per un tentativo; ogni permesso concesso va chiuso con
+     * {@link #onSuccess()}, {@link #onFailure(long, String)} o {@link #onIgnored()}
+     */
+    public synchronized boolean tryAcquire(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now < openUntilMillis) {
+                    rejected++;
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                return startTrial(now);
+            default:
+                if (!trialInFlight) {
+                    return startTrial(now);
+                }
+                if (now - trialStartedMillis >= config.getTrialTimeoutMs()) {
+                    // Prova senza esito: il suo eventuale esito tardivo viene ignorato
+                    trialInFlight = false;
+                    lastError = "Tentativo di prova senza esito entro " + config.getTrialTimeoutMs() + " ms";
+                    open(now);
+                }
+                rejected++;
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.OPEN) {
+            return; // Esito tardivo di un tentativo partito prima dell'apertura
+        }
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            trialInFlight = false;
+            currentOpenMs = 0;
+            resetWindow();
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure(long now, String error) {
+        lastError = error;
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            open(now);
+            return;
+        }
+        if (state == State.OPEN) {
+            return; // Tentativo partito prima dell'apertura
+        }
+        record(true);
+        if (windowCalls >= Math.max(1, config.getMinCalls())
+            && windowFailures * 100 >= config.getFailureRatePercent() * windowCalls) {
+            open(now);
+        }
+    }
+
+    /**
+     * Tentativo terminato senza dire nulla sull'host (es. interrotto o nessun canale libero)
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Ultimo fallimento registrato: chi viene rifiutato lo riceve invece di attendere lo stesso errore
+     */
+    public synchronized String getLastError() {
+        return lastError;
+    }
+
+    public synchronized long retryInMs(long now) {
+        return state == State.OPEN ? Math.max(0, openUntilMillis - now) : 0;
+    }
+
+    public synchronized Metrics metrics(long now) {
+        return new Metrics(state, windowCalls, windowCalls == 0 ? 0 : windowFailures * 100 / windowCalls, opens,
+            rejected, retryInMs(now), lastError);
+    }
+
+    private boolean startTrial(long now) {
+        trialInFlight = true;
+        trialStartedMillis = now;
+        return true;
+    }
+
+    private void open(long now) {
+        // Backoff esponenziale: ogni apertura consecutiva raddoppia l'attesa
+        long base = Math.max(1, config.getOpenMs());
+        currentOpenMs = currentOpenMs == 0 ? base : Math.min(currentOpenMs * 2, Math.max(base, config.getMaxOpenMs()));
+        openUntilMillis = now + currentOpenMs;
+        state = State.OPEN;
+        opens++;
+        resetWindow();
+    }
+
+    private void record(boolean failure) {
+        int index = (windowStart + windowCalls) % window.length;
+        if (windowCalls == window.length) {
+            // Finestra piena: l'esito più vecchio esce
+            if (window[windowStart]) {
+                windowFailures--;
+            }
+            windowStart = (windowStart + 1) % window.length;
+            index = (windowStart + windowCalls - 1) % window.length;
+        } else {
+            windowCalls++;
+        }
+        window[index] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+    }
+
+    private void resetWindow() {
+        windowStart = 0;
+        windowCalls = 0;
+        windowFailures = 0;
+    }
+}
@@ -0,0 +1,514 @@
+package it.PioSoft.PioBase.services;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import it.PioSoft.PioBase.configs.PcMappingConfig;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sessioni SSH condivise da tutti i servizi remoti (informazioni di sistema, spegnimento, PIN)
+ *
+ * Ogni comando apriva una nuova connessione: handshake TCP, scambio chiavi e autenticazione
+ * costavano centinaia di millisecondi per ogni lettura di CPU e RAM. Qui c'è una sessione
+ * autenticata per host, riusata aprendo solo un canale exec per comando:
+ * - keepalive SSH sulla sessione, così le connessioni morte vengono chiuse anche senza traffico
+ * - prima dell'uso si controlla che la sessione sia connessa; se l'apertura del canale fallisce
+ *   su una sessione riusata si riprova una volta con una sessione nuova
+ * - la corsia ssh-pool-maintenance chiude le sessioni inattive da più di idleTimeoutMs
+ * - i canali contemporanei per host sono limitati (i server OpenSSH ne accettano 10 per sessione)
+ * - un circuit breaker per host e tipo di operazione ({@link Operation}, {@link SshCircuitBreaker}):
+ *   con SSH giù ma ping che risponde ogni chiamante aspettava il proprio timeout di connessione
+ *   (2, 5, 10 o 30 s) a ogni tentativo; a circuito aperto la chiamata fallisce subito con
+ *   {@link CircuitOpenException}, che riporta l'ultimo errore reale
+ * Configurazione in pc.ssh.* (vedi {@link PcMappingConfig.Ssh}).
+ */
+@Service
+public class SshSessionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SshSessionPool.class);
+
+    // Keepalive senza risposta prima di considerare morta la sessione
+    private static final int KEEP_ALIVE_COUNT_MAX = 3;
+    // Attesa tra due controlli dell'output di un comando
+    private static final long OUTPUT_POLL_MS = 10;
+
+    /**
+     * Tipo di operazione, con un circuito separato per host
+     * - MONITORING: letture periodiche (info di sistema veloci e ultra-veloci, agente delle metriche)
+     * - INTERACTIVE: comandi su richiesta dell'utente (info complete, spegnimento, PIN)
+     * Così i fallimenti del monitoraggio non bloccano subito un comando esplicito, e viceversa.
+     */
+    public enum Operation {
+        MONITORING, INTERACTIVE
+    }
+
+    // Prefisso del messaggio di CircuitOpenException, per chi distingue gli errori dal testo
+    public static final String CIRCUIT_OPEN = "Circuito SSH aperto";
+
+    /**
+     * Chiamata rifiutata senza contattare l'host: circuito aperto o tentativo di prova già in corso
+     * Il messaggio termina con l'ultimo errore reale, così chi classifica gli errori dal testo
+     * (es. "timeout" = PC spento) decide come avrebbe fatto aspettando il timeout.
+     */
+    public static class CircuitOpenException extends JSchException {
+
+        private final SshCircuitBreaker.State state;
+        private final long retryInMs;
+
+        CircuitOpenException(String host, SshCircuitBreaker.State state, long retryInMs, String lastError) {
+            // Messaggio stabile (senza l'attesa residua): gli stati con lo stesso errore non cambiano a ogni tick
+            super(CIRCUIT_OPEN + " verso " + host + ": " + lastError);
+            this.state = state;
+            this.retryInMs = retryInMs;
+        }
+
+        public SshCircuitBreaker.State getState() {
+            return state;
+        }
+
+        public long getRetryInMs() {
+            return retryInMs;
+        }
+    }
+
+    /**
+     * Risultato di un comando remoto
+     * @param exitStatus codice di uscita, -1 se il server non l'ha comunicato
+     */
+    public record ExecResult(String stdout, String stderr, int exitStatus) {
+
+        public List<String> lines() {
+            return stdout.lines().toList();
+        }
+    }
+
+    /**
+     * Metriche di un host
+     * @param sessionsCreated connessioni SSH aperte (la prima e le riconnessioni)
+     * @param execs comandi eseguiti, quasi tutti su una sessione già aperta
+     */
+    public record HostMetrics(String host, boolean connected, int activeChannels, long sessionsCreated,
+                              long execs, long failures, long lastUsedEpochMillis) {
+    }
+
+    /**
+     * Circuito di un host per un tipo di operazione
+     */
+    public record CircuitMetrics(String host, Operation operation, SshCircuitBreaker.Metrics circuit) {
+    }
+
+    public record Metrics(int maxChannelsPerHost, long keepAliveMs, long idleTimeoutMs, List<HostMetrics> hosts,
+                          List<CircuitMetrics> circuits) {
+    }
+
+    private final PcMappingConfig pcMappingConfig;
+    private final JSch jsch = new JSch();
+    private final int maxChannels;
+    private final Map<String, HostEntry> hosts = new ConcurrentHashMap<>();
+
+    public SshSessionPool(PcMappingConfig pcMappingConfig, MonitoringScheduler monitoringScheduler) {
+        this.pcMappingConfig = pcMappingConfig;
+        this.maxChannels = Math.max(1, pcMappingConfig.getSsh().getMaxChannelsPerHost());
+        monitoringScheduler.schedule("ssh-pool-maintenance", 30000, this::evictIdle);
+    }
+
+    /**
+     * Esegue un comando sull'host, riusando la sessione se già aperta
+     * @param connectTimeoutMs attesa massima per connessione, canale libero e apertura del canale
+     * @param commandTimeoutMs durata massima del comando dall'apertura del canale: un comando bloccato
+     *                         (es. WMI che non risponde) non trattiene il chiamante né il canale
+     * @return output del comando, letto fino alla chiusura del canale
+     * @throws CircuitOpenException se il circuito dell'host per questa operazione è aperto
+     */
+    public ExecResult exec(String host, Operation operation, String command, int connectTimeoutMs,
+                           int commandTimeoutMs) throws JSchException, IOException {
+        HostEntry entry = hosts.computeIfAbsent(host, HostEntry::new);
+        SshCircuitBreaker breaker = permit(entry, operation);
+        acquireChannel(entry, breaker, connectTimeoutMs);
+        try {
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+            OpenChannel open = openExec(entry, breaker, command, connectTimeoutMs, stderr);
+            try {
+                byte[] output = readUntilClosed(entry, open, System.currentTimeMillis() + commandTimeoutMs);
+                entry.execs.incrementAndGet();
+                breaker.onSuccess();
+                return new ExecResult(new String(output, StandardCharsets.UTF_8),
+                    stderr.toString(StandardCharsets.UTF_8), open.channel().getExitStatus());
+            } catch (IOException e) {
+                entry.failures.incrementAndGet();
+                recordFailure(breaker, e);
+                throw e;
+            } finally {
+                open.channel().disconnect();
+            }
+        } finally {
+            entry.lastUsedEpochMillis = System.currentTimeMillis();
+            entry.channels.release();
+        }
+    }
+
+    /**
+     * Avvia un comando di lunga durata e ne restituisce l'output da leggere man mano
+     * Il canale occupa uno dei posti dell'host finché non viene chiuso con {@link StreamChannel#close()}
+     * (o cade la sessione); l'errore standard viene scartato. Per il circuito conta solo l'apertura.
+     * @throws CircuitOpenException se il circuito dell'host per questa operazione è aperto
+     */
+    public StreamChannel openStream(String host, Operation operation, String command, int connectTimeoutMs)
+        throws JSchException, IOException {
+        HostEntry entry = hosts.computeIfAbsent(host, HostEntry::new);
+        SshCircuitBreaker breaker = permit(entry, operation);
+        acquireChannel(entry, breaker, connectTimeoutMs);
+        try {
+            OpenChannel open = openExec(entry, breaker, command, connectTimeoutMs, OutputStream.nullOutputStream());
+            entry.execs.incrementAndGet();
+            breaker.onSuccess();
+            return new StreamChannel(entry, open.channel(), open.stdout());
+        } catch (JSchException | IOException | RuntimeException e) {
+            entry.lastUsedEpochMillis = System.currentTimeMillis();
+            entry.channels.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Canale di un comando di lunga durata aperto con {@link #openStream}
+     */
+    public final class StreamChannel implements Closeable {
+
+        private final HostEntry entry;
+        private final ChannelExec channel;
+        private final InputStream stdout;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private StreamChannel(HostEntry entry, ChannelExec channel, InputStream stdout) {
+            this.entry = entry;
+            this.channel = channel;
+            this.stdout = stdout;
+        }
+
+        /**
+         * Output del comando; fine dello stream quando il comando termina o la sessione cade
+         */
+        public InputStream stdout() {
+            return stdout;
+        }
+
+        public boolean isOpen() {
+            return !closed.get() && !channel.isClosed();
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                channel.disconnect();
+                entry.lastUsedEpochMillis = System.currentTimeMillis();
+                entry.channels.release();
+            }
+        }
+    }
+
+    private record OpenChannel(ChannelExec channel, InputStream stdout) {
+    }
+
+    /**
+     * Permesso del circuito per una chiamata; ogni permesso concesso si chiude con un esito
+     */
+    private SshCircuitBreaker permit(HostEntry entry, Operation operation) throws CircuitOpenException {
+        SshCircuitBreaker breaker = entry.breakers.get(operation);
+        long now = System.currentTimeMillis();
+        if (!breaker.tryAcquire(now)) {
+            throw new CircuitOpenException(entry.host, breaker.getState(), breaker.retryInMs(now),
+                breaker.getLastError());
+        }
+        return breaker;
+    }
+
+    /**
+     * Interruzioni ed errori locali non dicono nulla sull'host e non contano per il circuito
+     */
+    private static void recordFailure(SshCircuitBreaker breaker, Exception e) {
+        if (e instanceof InterruptedIOException || e instanceof RuntimeException) {
+            breaker.onIgnored();
+        } else {
+            breaker.onFailure(System.currentTimeMillis(), e.getMessage());
+        }
+    }
+
+    /**
+     * Attesa di un canale libero; il limite è locale, quindi non conta per il circuito
+     */
+    private void acquireChannel(HostEntry entry, SshCircuitBreaker breaker, int timeoutMs)
+        throws JSchException, InterruptedIOException {
+        try {
+            if (!entry.channels.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                entry.failures.incrementAndGet();
+                breaker.onIgnored();
+                throw new JSchException("Limite di " + maxChannels + " canali SSH raggiunto per " + entry.host);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            breaker.onIgnored();
+            throw new InterruptedIOException("Attesa canale SSH interrotta");
+        }
+    }
+
+    /**
+     * Apre un canale exec sulla sessione dell'host, connettendola se serve
+     * Lo stdout va preso prima di connect, altrimenti il primo output può andare perso.
+     * Se l'apertura fallisce su una sessione ancora connessa fallisce solo questo canale: la sessione
+     * è condivisa con gli altri comandi in corso e con lo stream dell'agente delle metriche.
+     */
+    private OpenChannel openExec(HostEntry entry, SshCircuitBreaker breaker, String command, int connectTimeoutMs,
+                                 OutputStream stderr) throws JSchException, IOException {
+        Session session = entry.connected();
+        boolean pooled = session != null;
+        while (true) {
+            if (session == null) {
+                try {
+                    session = entry.connect(connectTimeoutMs);
+                } catch (JSchException | IOException | RuntimeException e) {
+                    recordFailure(breaker, e);
+                    throw e;
+                }
+            }
+            ChannelExec channel = null;
+            try {
+                channel = (ChannelExec) session.openChannel("exec");
+                channel.setCommand(command);
+                channel.setErrStream(stderr, true);
+                InputStream stdout = channel.getInputStream();
+                channel.connect(connectTimeoutMs);
+                return new OpenChannel(channel, stdout);
+            } catch (JSchException | IOException e) {
+                if (channel != null) {
+                    channel.disconnect();
+                }
+                if (!session.isConnected()) {
+                    entry.discard(session);
+                    if (pooled) {
+                        // Sessione riusata ma caduta: un solo nuovo tentativo con una sessione nuova
+                        pooled = false;
+                        session = null;
+                        continue;
+                    }
+                }
+                entry.failures.incrementAndGet();
+                recordFailure(breaker, e);
+                throw e;
+            } catch (RuntimeException e) {
+                if (channel != null) {
+                    channel.disconnect();
+                }
+                recordFailure(breaker, e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stato del circuito di un host per un tipo di operazione (CLOSED se l'host non è mai stato contattato)
+     */
+    public SshCircuitBreaker.State circuitState(String host, Operation operation) {
+        HostEntry entry = hosts.get(host);
+        return entry != null ? entry.breakers.get(operation).getState() : SshCircuitBreaker.State.CLOSED;
+    }
+
+    /**
+     * Chiude la sessione verso un host che non risponderà più (es. dopo lo spegnimento)
+     */
+    public void invalidate(String host) {
+        HostEntry entry = hosts.get(host);
+        if (entry != null) {
+            entry.discard(null);
+        }
+    }
+
+    /**
+     * Chiude le sessioni inattive o già cadute (corsia ssh-pool-maintenance)
+     */
+    public void evictIdle() {
+        long idleTimeoutMs = pcMappingConfig.getSsh().getIdleTimeoutMs();
+        long now = System.currentTimeMillis();
+        for (HostEntry entry : hosts.values()) {
+            Session session = entry.session;
+            if (session == null) {
+                continue;
+            }
+            if (!session.isConnected()) {
+                entry.discard(session);
+            } else if (entry.channels.availablePermits() == maxChannels
+                && now - entry.lastUsedEpochMillis > idleTimeoutMs) {
+                logger.debug("Chiusura sessione SSH inattiva verso {}", entry.host);
+                entry.discard(session);
+            }
+        }
+    }
+
+    public Metrics getMetrics() {
+        long now = System.currentTimeMillis();
+        List<HostMetrics> metrics = new ArrayList<>();
+        List<CircuitMetrics> circuits = new ArrayList<>();
+        for (HostEntry entry : hosts.values()) {
+            Session session = entry.session;
+            metrics.add(new HostMetrics(entry.host, session != null && session.isConnected(),
+                maxChannels - entry.channels.availablePermits(), entry.sessionsCreated.get(), entry.execs.get(),
+                entry.failures.get(), entry.lastUsedEpochMillis));
+            entry.breakers.forEach((operation, breaker) ->
+                circuits.add(new CircuitMetrics(entry.host, operation, breaker.metrics(now))));
+        }
+        metrics.sort((a, b) -> a.host().compareTo(b.host()));
+        circuits.sort((a, b) -> a.host().equals(b.host())
+            ? a.operation().compareTo(b.operation()) : a.host().compareTo(b.host()));
+        PcMappingConfig.Ssh ssh = pcMappingConfig.getSsh();
+        return new Metrics(maxChannels, ssh.getKeepAliveMs(), ssh.getIdleTimeoutMs(), metrics, circuits);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hosts.values().forEach(entry -> entry.discard(null));
+    }
+
+    /**
+     * Legge l'output fino alla chiusura del canale (lo stato di uscita arriva subito prima), senza
+     * letture bloccanti: oltre la scadenza il comando viene abbandonato e il canale chiuso dal chiamante
+     */
+    private static byte[] readUntilClosed(HostEntry entry, OpenChannel open, long deadlineMillis)
+        throws IOException {
+        ChannelExec channel = open.channel();
+        InputStream stdout = open.stdout();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (true) {
+            int available = stdout.available();
+            if (available > 0) {
+                int read = stdout.read(buffer, 0, Math.min(buffer.length, available));
+                if (read < 0) {
+                    break;
+                }
+                output.write(buffer, 0, read);
+            } else if (channel.isClosed()) {
+                // Canale chiuso: esce solo dopo aver letto l'output rimasto
+                if (stdout.available() <= 0) {
+                    break;
+                }
+            } else if (System.currentTimeMillis() >= deadlineMillis) {
+                // Niente "timeout" nel messaggio: il PC risponde, è il comando a essere bloccato
+                throw new IOException("Comando SSH non terminato entro il limite su " + entry.host);
+            } else {
+                try {
+                    Thread.sleep(OUTPUT_POLL_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Attesa output comando SSH interrotta");
+                }
+            }
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Sessione e limiti di un host; la connessione avviene sotto lock così richieste
+     * contemporanee allo stesso host non aprono sessioni doppie
+     */
+    private final class HostEntry {
+
+        final String host;
+        final Semaphore channels = new Semaphore(maxChannels);
+        final ReentrantLock lock = new ReentrantLock();
+        volatile Session session;
+        final AtomicLong sessionsCreated = new AtomicLong();
+        final AtomicLong execs = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final Map<Operation, SshCircuitBreaker> breakers = new EnumMap<>(Operation.class);
+        volatile long lastUsedEpochMillis;
+
+        HostEntry(String host) {
+            this.host = host;
+            for (Operation operation : Operation.values()) {
+                breakers.put(operation, new SshCircuitBreaker(pcMappingConfig.getSsh().getBreaker()));
+            }
+        }
+
+        Session connected() {
+            Session current = session;
+            return current != null && current.isConnected() ? current : null;
+        }
+
+        Session connect(int connectTimeoutMs) throws JSchException, IOException {
+            try {
+                if (!lock.tryLock(connectTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    throw new JSchException("timeout: connessione SSH verso " + host + " già in corso");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Connessione SSH interrotta");
+            }
+            try {
+                Session current = connected();
+                if (current != null) {
+                    return current; // Aperta da un'altra richiesta nel frattempo
+                }
+                if (session != null) {
+                    session.disconnect();
+                }
+                PcMappingConfig.Ssh ssh = pcMappingConfig.getSsh();
+                Session fresh = jsch.getSession(ssh.getUsername(), host, ssh.getPort());
+                fresh.setPassword(ssh.getPassword());
+                fresh.setConfig("StrictHostKeyChecking", "no");
+                fresh.setServerAliveInterval(Math.max(1000, ssh.getKeepAliveMs()));
+                fresh.setServerAliveCountMax(KEEP_ALIVE_COUNT_MAX);
+                try {
+                    fresh.connect(connectTimeoutMs);
+                } catch (JSchException e) {
+                    failures.incrementAndGet();
+                    session = null;
+                    throw e;
+                }
+                sessionsCreated.incrementAndGet();
+                session = fresh;
+                return fresh;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Chiude la sessione se è ancora quella indicata (null: qualunque)
+         */
+        void discard(Session expected) {
+            lock.lock();
+            try {
+                Session current = session;
+                if (current != null && (expected == null || current == expected)) {
+                    session = null;
+                    current.disconnect();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
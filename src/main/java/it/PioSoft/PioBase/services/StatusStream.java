@@ -0,0 +1,545 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.dto.StatusPayload;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream SSE di stato verso un singolo client
+ *
+ * In modalità {@link Mode#FULL} ogni aggiornamento viene inviato per intero (comportamento storico).
+ * In modalità {@link Mode#DELTA} lo stream ricorda l'ultimo stato inviato e invia solo i campi
+ * cambiati nell'evento "&lt;nome&gt;Delta" (un campo rimosso vale null); ogni 30 secondi invia
+ * comunque lo stato completo come keyframe nell'evento "&lt;nome&gt;".
+ * I campi volatili come il timestamp non contano come cambiamento.
+ *
+ * Gli eventi arrivano già codificati ({@link SseEvent}) e vengono scritti come byte:
+ * nessuna serializzazione JSON per client.
+ * Il canale verso il client è un {@link Transport}: una connessione SSE oppure una
+ * sottoscrizione sul WebSocket multiplexato.
+ *
+ * Gli aggiornamenti vengono accodati in una coda limitata e scritti da un executor dedicato,
+ * un solo task alla volta per stream: un client lento non blocca chi pubblica né gli altri client.
+ * A coda piena si applica la {@link OverflowPolicy} configurata.
+ *
+ * Le {@link Options} del client (intervallo minimo e massimo, campi, solo transizioni) vengono
+ * applicate qui, al momento della consegna: chi pubblica invia lo stesso evento a tutti.
+ */
+public final class StatusStream {
+
+    public enum Mode {
+        FULL,
+        DELTA;
+
+        public static Mode parse(String value) {
+            return "delta".equalsIgnoreCase(value) ? DELTA : FULL;
+        }
+    }
+
+    /**
+     * Opzioni di una sottoscrizione, scelte dal client
+     * @param minIntervalMs intervallo minimo tra due invii: gli aggiornamenti più ravvicinati vengono fusi
+     *                      e l'ultimo parte allo scadere dell'intervallo (0 = nessun limite)
+     * @param maxIntervalMs se per questo tempo non è stato inviato nulla l'ultimo stato viene reinviato
+     *                      completo come heartbeat (0 = mai)
+     * @param fields campi da inviare, timestamp sempre incluso (null = tutti)
+     * @param transitionsOnly invia solo quando i campi selezionati cambiano
+     */
+    public record Options(long minIntervalMs, long maxIntervalMs, Set<String> fields, boolean transitionsOnly) {
+
+        public static final Options DEFAULT = new Options(0, 0, null, false);
+
+        private static final long MAX_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+        private static final long MIN_HEARTBEAT_MS = 1000;
+
+        /**
+         * Opzioni dai parametri del client; i valori assenti restano quelli predefiniti
+         * @param fields nomi dei campi separati da virgola
+         */
+        public static Options parse(Long minIntervalMs, Long maxIntervalMs, String fields, Boolean transitionsOnly) {
+            long min = minIntervalMs != null ? Math.min(Math.max(0, minIntervalMs), MAX_INTERVAL_MS) : 0;
+            long max = maxIntervalMs != null && maxIntervalMs > 0
+                ? Math.min(Math.max(Math.max(MIN_HEARTBEAT_MS, min), maxIntervalMs), MAX_INTERVAL_MS)
+                : 0;
+            Set<String> selected = null;
+            if (fields != null && !fields.isBlank()) {
+                Set<String> names = new HashSet<>();
+                for (String field : fields.split(",")) {
+                    if (!field.isBlank()) {
+                        names.add(field.trim());
+                    }
+                }
+                selected = names.isEmpty() ? null : Set.copyOf(names);
+            }
+            return new Options(min, max, selected, transitionsOnly != null && transitionsOnly);
+        }
+
+        boolean needsTimer() {
+            return minIntervalMs > 0 || maxIntervalMs > 0;
+        }
+    }
+
+    /**
+     * Comportamento a coda piena
+     */
+    public enum OverflowPolicy {
+        DROP_OLDEST, // Scarta l'aggiornamento più vecchio in coda
+        COALESCE,    // Scarta tutta la coda e tiene solo l'ultimo stato
+        DISCONNECT   // Chiude la connessione del client
+    }
+
+    /**
+     * Canale di uscita verso il client
+     */
+    public interface Transport {
+
+        /**
+         * Formato dei frame attesi dal canale
+         */
+        SseEvent.Framing framing();
+
+        void send(byte[] frame) throws IOException;
+
+        /**
+         * Chiude il canale lato server (errore di scrittura o client troppo lento)
+         */
+        void complete(Throwable error);
+    }
+
+    /**
+     * Transport su una connessione SSE
+     */
+    public static Transport sse(SseEmitter emitter) {
+        return new Transport() {
+            @Override
+            public SseEvent.Framing framing() {
+                return SseEvent.Framing.SSE;
+            }
+
+            @Override
+            public void send(byte[] frame) throws IOException {
+                // I byte passano dal convertitore byte[] senza altra serializzazione
+                emitter.send(Set.of(new ResponseBodyEmitter.DataWithMediaType(frame, MediaType.TEXT_EVENT_STREAM)));
+            }
+
+            @Override
+            public void complete(Throwable error) {
+                try {
+                    if (error != null) {
+                        emitter.completeWithError(error);
+                    } else {
+                        emitter.complete();
+                    }
+                } catch (IllegalStateException ignored) {
+                    // Emitter già completato
+                }
+            }
+        };
+    }
+
+    /**
+     * Metriche di consegna di un client
+     */
+    public record Metrics(long id, String topic, String event, SseEvent.Framing transport, Mode mode,
+                          OverflowPolicy overflowPolicy, Options options,
+                          int queueDepth, int maxQueueDepth, long sent, long skipped, long dropped, long heartbeats,
+                          double lastLatencyMs, double avgLatencyMs, double maxLatencyMs, boolean closed) {
+    }
+
+    private record Pending(SseEvent event, long enqueuedNanos) {
+    }
+
+    // Campi che cambiano a ogni ciclo senza che lo stato sia cambiato
+    public static final Set<String> VOLATILE_FIELDS = Set.of("timestamp");
+    private static final long KEYFRAME_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final long id;
+    private final String topic;
+    private final Transport transport;
+    private final String eventName;
+    private final Mode mode;
+    private final Executor executor;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final Options options;
+    private final long minIntervalNanos;
+    private final long maxIntervalNanos;
+
+    // Coda e flag di drenaggio protetti dal lock della coda
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private boolean draining;
+    private boolean timerRequested;
+    private long lastQueuedId;
+    private volatile boolean closed;
+    private Runnable onClose;
+
+    // Stato del drenaggio: accesso da un solo task alla volta
+    private SseEvent lastSent;
+    private long lastKeyframeNanos;
+    private SseEvent deferred; // Ultimo aggiornamento trattenuto dall'intervallo minimo
+    // Letti anche dal timer delle sottoscrizioni
+    private volatile boolean hasDeferred;
+    private volatile boolean hasSent;
+    private volatile long lastSendNanos;
+
+    // Metriche
+    private int maxQueueDepth;
+    private volatile long sent;
+    private volatile long skipped;
+    private volatile long dropped;
+    private volatile long heartbeats;
+    private volatile long lastLatencyNanos;
+    private volatile long totalLatencyNanos;
+    private volatile long maxLatencyNanos;
+
+    public StatusStream(long id, String topic, Transport transport, String eventName, Mode mode, Options options,
+                        Executor executor, int capacity, OverflowPolicy overflowPolicy) {
+        this.id = id;
+        this.topic = topic;
+        this.transport = transport;
+        this.eventName = eventName;
+        this.mode = mode;
+        this.executor = executor;
+        this.capacity = Math.max(1, capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.options = options != null ? options : Options.DEFAULT;
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(this.options.minIntervalMs());
+        this.maxIntervalNanos = TimeUnit.MILLISECONDS.toNanos(this.options.maxIntervalMs());
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Azione eseguita una sola volta alla chiusura dello stream (es. rimozione dagli indici)
+     */
+    public void onClose(Runnable onClose) {
+        this.onClose = onClose;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    /**
+     * Accoda un evento per il client senza bloccare il chiamante
+     */
+    public void publish(SseEvent event) {
+        enqueue(List.of(event), true);
+    }
+
+    /**
+     * Accoda gli eventi persi da un client che si riconnette, senza applicare il limite della coda
+     * (sono al massimo quelli del buffer di ripresa)
+     */
+    public void replay(List<SseEvent> events) {
+        if (!events.isEmpty()) {
+            enqueue(events, false);
+        }
+    }
+
+    /**
+     * Controllo periodico degli intervalli (timer delle sottoscrizioni): se l'aggiornamento trattenuto
+     * può partire o serve un heartbeat, sveglia la consegna
+     */
+    void tick(long nowNanos) {
+        if (closed || !options.needsTimer()) {
+            return;
+        }
+        long idle = nowNanos - lastSendNanos;
+        boolean due = hasDeferred && idle >= minIntervalNanos
+            || maxIntervalNanos > 0 && hasSent && idle >= maxIntervalNanos;
+        if (!due) {
+            return;
+        }
+        synchronized (queue) {
+            if (timerRequested || closed) {
+                return;
+            }
+            timerRequested = true;
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            close(e); // Executor in chiusura
+        }
+    }
+
+    private void enqueue(List<SseEvent> events, boolean bounded) {
+        if (closed) {
+            return;
+        }
+        boolean schedule = false;
+        boolean disconnect = false;
+        synchronized (queue) {
+            for (SseEvent event : events) {
+                // Gli id di un topic sono crescenti: scarta eventi già accodati (ripresa concorrente a un broadcast)
+                if (event.getId() <= lastQueuedId) {
+                    continue;
+                }
+                if (bounded && queue.size() >= capacity) {
+                    switch (overflowPolicy) {
+                        case DROP_OLDEST -> {
+                            queue.pollFirst();
+                            dropped++;
+                        }
+                        case COALESCE -> {
+                            dropped += queue.size();
+                            queue.clear();
+                        }
+                        case DISCONNECT -> disconnect = true;
+                    }
+                }
+                if (disconnect) {
+                    break;
+                }
+                queue.addLast(new Pending(event, System.nanoTime()));
+                lastQueuedId = event.getId();
+            }
+            maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+            if (!disconnect && !queue.isEmpty() && !draining) {
+                draining = true;
+                schedule = true;
+            }
+        }
+
+        if (disconnect) {
+            System.out.println("Client SSE " + id + " (" + topic + ") troppo lento, disconnesso");
+            close(null);
+        } else if (schedule) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                close(e); // Executor in chiusura
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Pending next;
+            boolean timer = false;
+            synchronized (queue) {
+                next = queue.pollFirst();
+                if (next == null && timerRequested) {
+                    timerRequested = false;
+                    timer = true;
+                }
+                if (next == null && !timer || closed) {
+                    draining = false;
+                    return;
+                }
+            }
+            try {
+                if (timer) {
+                    onTimer();
+                    continue;
+                }
+                if (deliver(next.event())) {
+                    long latency = System.nanoTime() - next.enqueuedNanos();
+                    lastLatencyNanos = latency;
+                    totalLatencyNanos += latency;
+                    maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+                    sent++;
+                } else {
+                    skipped++;
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Connessione chiusa dal client o emitter già completato
+                close(e);
+                synchronized (queue) {
+                    draining = false;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applica le opzioni del client a un nuovo evento e lo scrive se deve partire ora
+     * @return true se è stato inviato un evento, false se non c'era nulla di nuovo o è stato trattenuto
+     */
+    private boolean deliver(SseEvent event) throws IOException {
+        if (options.transitionsOnly() && lastSent != null && event.sameState(lastSent, options.fields())) {
+            // Il client ha già questo stato: anche un aggiornamento trattenuto è superato
+            clearDeferred();
+            return false;
+        }
+        long now = System.nanoTime();
+        if (minIntervalNanos > 0 && hasSent && now - lastSendNanos < minIntervalNanos) {
+            // Troppo presto: si tiene solo l'ultimo, parte allo scadere dell'intervallo
+            deferred = event;
+            hasDeferred = true;
+            return false;
+        }
+        clearDeferred();
+        return send(event, now);
+    }
+
+    /**
+     * Scadenza dell'intervallo minimo o massimo: invia l'aggiornamento trattenuto o un heartbeat
+     */
+    private void onTimer() throws IOException {
+        long now = System.nanoTime();
+        if (deferred != null) {
+            SseEvent event = deferred;
+            clearDeferred();
+            if (send(event, now)) {
+                sent++;
+            }
+        } else if (maxIntervalNanos > 0 && lastSent != null && now - lastSendNanos >= maxIntervalNanos) {
+            // Nessun cambiamento da inviare: ultimo stato completo, così il client sa che la connessione è viva
+            transport.send(lastSent.frame(transport.framing(), options.fields()));
+            lastKeyframeNanos = now;
+            markSent(now);
+            heartbeats++;
+        }
+    }
+
+    /**
+     * Scrive lo stato al client secondo la modalità dello stream
+     */
+    private boolean send(SseEvent event, long now) throws IOException {
+        SseEvent.Framing framing = transport.framing();
+        if (mode == Mode.FULL || lastSent == null || now - lastKeyframeNanos >= KEYFRAME_INTERVAL_NANOS) {
+            transport.send(event.frame(framing, options.fields()));
+            lastKeyframeNanos = now;
+        } else {
+            byte[] delta = event.deltaFrame(lastSent, framing, options.fields());
+            if (delta == null) {
+                lastSent = event;
+                return false;
+            }
+            transport.send(delta);
+        }
+        lastSent = event;
+        markSent(now);
+        return true;
+    }
+
+    private void markSent(long now) {
+        lastSendNanos = now;
+        hasSent = true;
+    }
+
+    private void clearDeferred() {
+        deferred = null;
+        hasDeferred = false;
+    }
+
+    /**
+     * Chiude lo stream lato server: svuota la coda, chiude il canale ed esegue l'azione di chiusura
+     */
+    public void close(Throwable error) {
+        if (!markClosed()) {
+            return;
+        }
+        transport.complete(error);
+        runOnClose();
+    }
+
+    /**
+     * Rilascia lo stream quando la connessione è già terminata (completamento, timeout o errore dell'emitter)
+     * o il client ha annullato la sottoscrizione: il canale non viene toccato
+     */
+    public void release() {
+        if (markClosed()) {
+            runOnClose();
+        }
+    }
+
+    private boolean markClosed() {
+        synchronized (queue) {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            queue.clear();
+            timerRequested = false;
+            return true;
+        }
+    }
+
+    private void runOnClose() {
+        Runnable action = onClose;
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    public Metrics metrics() {
+        int depth;
+        int maxDepth;
+        synchronized (queue) {
+            depth = queue.size();
+            maxDepth = maxQueueDepth;
+        }
+        long count = sent;
+        return new Metrics(id, topic, eventName, transport.framing(), mode, overflowPolicy, options, depth, maxDepth,
+            count, skipped, dropped, heartbeats, lastLatencyNanos / 1e6,
+            count == 0 ? 0 : totalLatencyNanos / 1e6 / count, maxLatencyNanos / 1e6, closed);
+    }
+
+    /**
+     * Campi cambiati tra due stati, esclusi i volatili; i campi rimossi valgono null
+     */
+    public static Map<String, Object> diff(Map<String, Object> previous, Map<String, Object> current) {
+        Map<String, Object> delta = new HashMap<>();
+        for (Map.Entry<String, Object> entry : current.entrySet()) {
+            String field = entry.getKey();
+            if (VOLATILE_FIELDS.contains(field)) {
+                continue;
+            }
+            if (!previous.containsKey(field) || !Objects.equals(previous.get(field), entry.getValue())) {
+                delta.put(field, entry.getValue());
+            }
+        }
+        for (String field : previous.keySet()) {
+            if (!current.containsKey(field) && !VOLATILE_FIELDS.contains(field)) {
+                delta.put(field, null);
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * true se i due stati differiscono solo per i campi volatili
+     */
+    public static boolean sameState(StatusPayload previous, StatusPayload current) {
+        return previous != null && current != null && previous.sameState(current);
+    }
+}
@@ -0,0 +1,180 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.configs.SchedulerConfig;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Raccolta in background delle info di sistema dei PC, separata dai tick degli stati
+ *
+ * getDeviceStatus e buildCombinedStatus chiamavano getSystemInfoQuick dentro il tick: con SSH
+ * lento o irraggiungibile (connect fino a 5 s) ogni aggiornamento di ogni client aspettava.
+ * Qui la raccolta gira su un piccolo pool proprio, con la sua cadenza per PC, e gli stati leggono
+ * solo l'ultimo valore raccolto e la sua età:
+ * - un PC entra nella raccolta alla prima lettura e ne esce se nessuno lo legge per un po'
+ *   (es. PC offline: gli stati non chiedono info, quindi niente SSH verso PC spenti)
+ * - per ogni PC al massimo una raccolta alla volta; una raccolta lenta non blocca gli altri PC
+ * Cadenza, thread ed età massima in monitor.scheduler.system-info-*.
+ */
+@Service
+public class SystemInfoCollector {
+
+    private static final Logger logger = LoggerFactory.getLogger(SystemInfoCollector.class);
+
+    // Un PC non letto per questo numero di cadenze esce dalla raccolta
+    private static final int IDLE_REFRESHES = 5;
+
+    /**
+     * Info raccolte per un PC
+     * @param info mappa di {@link SystemInfoService#getSystemInfoQuick}, con "error" se la raccolta è fallita
+     */
+    public record Snapshot(Map<String, String> info, long collectedAtMillis, long durationMs) {
+
+        public long ageMs(long now) {
+            return now - collectedAtMillis;
+        }
+    }
+
+    /**
+     * Stato della raccolta per un PC
+     * @param ageMs età dell'ultimo valore, -1 se non ancora raccolto
+     */
+    public record HostMetrics(String host, boolean collecting, long collections, long failures, long ageMs,
+                              long lastDurationMs) {
+    }
+
+    public record Metrics(long refreshMs, long maxAgeMs, int threads, List<HostMetrics> hosts) {
+    }
+
+    private final SystemInfoService systemInfoService;
+    private final long refreshMs;
+    private final long maxAgeMs;
+    private final int threads;
+    private final ExecutorService executor;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    public SystemInfoCollector(SystemInfoService systemInfoService, SchedulerConfig schedulerConfig,
+                               MonitoringScheduler monitoringScheduler) {
+        this.systemInfoService = systemInfoService;
+        this.refreshMs = Math.max(100, schedulerConfig.getSystemInfoRefreshMs());
+        this.maxAgeMs = Math.max(refreshMs, schedulerConfig.getSystemInfoMaxAgeMs());
+        this.threads = Math.max(1, schedulerConfig.getSystemInfoThreads());
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "system-info-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        // Tick più fitto della cadenza: ogni PC parte appena è il suo turno
+        monitoringScheduler.schedule("collect-system-info", Math.max(100, refreshMs / 4), this::collectDue);
+    }
+
+    /**
+     * Ultime info raccolte per un PC, senza attese; la prima lettura avvia subito la raccolta
+     * @return null se non ancora raccolte o più vecchie di monitor.scheduler.system-info-max-age-ms
+     */
+    public Snapshot latest(String host) {
+        long now = System.currentTimeMillis();
+        Host entry = hosts.computeIfAbsent(host, Host::new);
+        entry.lastReadMillis = now;
+        Snapshot snapshot = entry.snapshot;
+        if (snapshot == null) {
+            submit(entry, now);
+            return null;
+        }
+        return snapshot.ageMs(now) <= maxAgeMs ? snapshot : null;
+    }
+
+    /**
+     * Avvia la raccolta dei PC di turno e rimuove quelli non più letti (corsia collect-system-info)
+     */
+    public void collectDue() {
+        long now = System.currentTimeMillis();
+        for (Host entry : hosts.values()) {
+            if (now - entry.lastReadMillis > refreshMs * IDLE_REFRESHES) {
+                if (!entry.collecting.get()) {
+                    hosts.remove(entry.host, entry);
+                }
+            } else if (now - entry.lastStartMillis >= refreshMs) {
+                submit(entry, now);
+            }
+        }
+    }
+
+    private void submit(Host entry, long now) {
+        if (!entry.collecting.compareAndSet(false, true)) {
+            return;
+        }
+        entry.lastStartMillis = now;
+        try {
+            executor.execute(() -> collect(entry));
+        } catch (RejectedExecutionException e) {
+            entry.collecting.set(false); // Collector in chiusura
+        }
+    }
+
+    private void collect(Host entry) {
+        long start = System.currentTimeMillis();
+        try {
+            Map<String, String> info = systemInfoService.getSystemInfoQuick(entry.host);
+            if (info.containsKey("error")) {
+                entry.failures++;
+            }
+            long end = System.currentTimeMillis();
+            entry.snapshot = new Snapshot(Map.copyOf(info), end, end - start);
+            entry.collections++;
+        } catch (Exception e) {
+            entry.failures++;
+            logger.warn("Errore nella raccolta info di sistema per {}", entry.host, e);
+        } finally {
+            entry.collecting.set(false);
+        }
+    }
+
+    public Metrics getMetrics() {
+        long now = System.currentTimeMillis();
+        List<HostMetrics> metrics = new ArrayList<>();
+        for (Host entry : hosts.values()) {
+            Snapshot snapshot = entry.snapshot;
+            metrics.add(new HostMetrics(entry.host, entry.collecting.get(), entry.collections, entry.failures,
+                snapshot != null ? snapshot.ageMs(now) : -1, snapshot != null ? snapshot.durationMs() : -1));
+        }
+        metrics.sort((a, b) -> a.host().compareTo(b.host()));
+        return new Metrics(refreshMs, maxAgeMs, threads, metrics);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Stato di raccolta di un PC; i contatori sono scritti solo dalla raccolta in corso
+     */
+    private static final class Host {
+
+        final String host;
+        final AtomicBoolean collecting = new AtomicBoolean();
+        volatile Snapshot snapshot;
+        volatile long lastReadMillis;
+        volatile long lastStartMillis;
+        volatile long collections;
+        volatile long failures;
+
+        Host(String host) {
+            this.host = host;
+        }
+    }
+}
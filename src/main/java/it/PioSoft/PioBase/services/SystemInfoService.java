@@ -1,10 +1,12 @@
 /**
  * Servizio per il recupero di informazioni di sistema dai PC remoti
  *
- * Fornisce funzionalità per recuperare informazioni di sistema da PC Windows tramite SSH:
+ * Fornisce funzionalità per recuperare informazioni di sistema da PC Windows tramite SSH
+ * (sessioni condivise di {@link SshSessionPool}):
  * - Ping: latenza di rete verso il PC
  * - CPU Usage: percentuale di utilizzo della CPU
  * - RAM Usage: percentuale di utilizzo della memoria RAM
+ * Con il circuito SSH del PC non chiuso le info riportano "sshCircuit" (OPEN o HALF_OPEN).
  *
  * @author Federico
  * @email feder@piosoft.it
@@ -14,25 +16,34 @@
  */
 package it.PioSoft.PioBase.services;
 
-import it.PioSoft.PioBase.configs.PcMappingConfig;
+import it.PioSoft.PioBase.services.ReachabilityEngine.ProbeResult;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
-import com.jcraft.jsch.ChannelExec;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class SystemInfoService {
 
     @Autowired
-    private PcMappingConfig pcMappingConfig;
+    private LatencyProber latencyProber;
+
+    @Autowired
+    private SshSessionPool sshSessionPool;
+
+    @Autowired
+    private MetricsAgentService metricsAgentService;
+
+    // Oltre questo scarto l'ora di avvio indica un riavvio (LastBootUpTime può oscillare di qualche secondo)
+    private static final long REBOOT_TOLERANCE_SECONDS = 60;
+
+    // Inventario statico per PC, riletto solo quando cambia l'ora di avvio
+    private final Map<String, SystemInventory> inventories = new ConcurrentHashMap<>();
+
+    // Ultime CPU e RAM lette per PC dal percorso veloce, restituite a circuito SSH aperto
+    private final Map<String, Map<String, String>> lastQuickInfo = new ConcurrentHashMap<>();
 
     /**
      * Recupera le informazioni di sistema complete dal PC specificato
@@ -44,47 +55,50 @@ public class SystemInfoService {
 
         try {
             // Recupera ping
-            String ping = getPing(ipAddress);
-            systemInfo.put("ping", ping);
+            ProbeResult ping = getPing(ipAddress);
+            systemInfo.put("ping", LatencyProber.format(ping));
 
             // Recupera informazioni CPU e RAM via SSH
             Map<String, String> windowsInfo = getWindowsSystemInfo(ipAddress);
             systemInfo.putAll(windowsInfo);
 
+            // Inventario già noto dal percorso veloce (hostname, os, uptime)
+            SystemInventory inventory = inventories.get(ipAddress);
+            if (inventory != null && !windowsInfo.containsKey("error")) {
+                inventory.putInto(systemInfo, System.currentTimeMillis());
+            }
+
         } catch (Exception e) {
             System.err.println("Errore durante il recupero delle informazioni di sistema: " + e.getMessage());
             systemInfo.put("error", e.getMessage());
         }
 
+        putCircuitState(systemInfo, ipAddress, SshSessionPool.Operation.INTERACTIVE);
         return systemInfo;
     }
 
     /**
-     * Esegue ping verso il PC specificato e restituisce la latenza
+     * Aggiunge "sshCircuit" alle info se il circuito SSH del PC non è chiuso
      */
-    private String getPing(String ipAddress) {
-        try {
-            ProcessBuilder pb = new ProcessBuilder("ping", "-c", "1", ipAddress);
-            Process process = pb.start();
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-
-            while ((line = reader.readLine()) != null) {
-                // Cerca pattern per il tempo di ping su macOS/Linux
-                Pattern pattern = Pattern.compile("time=(\\d+\\.?\\d*)\\s*ms");
-                Matcher matcher = pattern.matcher(line);
-                if (matcher.find()) {
-                    return matcher.group(1) + " ms";
-                }
-            }
+    private void putCircuitState(Map<String, String> info, String ipAddress, SshSessionPool.Operation operation) {
+        SshCircuitBreaker.State state = sshSessionPool.circuitState(ipAddress, operation);
+        if (state != SshCircuitBreaker.State.CLOSED) {
+            info.put("sshCircuit", state.name());
+        }
+    }
 
-            process.waitFor();
-            return "Ping non disponibile";
+    /**
+     * Errori SSH che il monitoraggio interpreta come PC spento
+     */
+    private static boolean looksOffline(String errorMsg) {
+        return errorMsg != null && (errorMsg.contains("timeout") || errorMsg.contains("ConnectException"));
+    }
 
-        } catch (Exception e) {
-            return "Errore ping: " + e.getMessage();
-        }
+    /**
+     * Misura la latenza verso il PC specificato senza processi esterni
+     */
+    private ProbeResult getPing(String ipAddress) {
+        return latencyProber.measure(ipAddress, 1000);
     }
 
     /**
@@ -92,17 +106,8 @@ public class SystemInfoService {
      */
     private Map<String, String> getWindowsSystemInfo(String ipAddress) {
         Map<String, String> info = new HashMap<>();
-        JSch jsch = new JSch();
-        Session session = null;
 
         try {
-            PcMappingConfig.Ssh sshConfig = pcMappingConfig.getSsh();
-
-            session = jsch.getSession(sshConfig.getUsername(), ipAddress, sshConfig.getPort());
-            session.setPassword(sshConfig.getPassword());
-            session.setConfig("StrictHostKeyChecking", "no");
-            session.connect(30000);
-
             // Comando PowerShell molto semplice e diretto
             String command = "powershell.exe -Command \"" +
                 "Write-Host 'START_DATA'; " +
@@ -138,21 +143,15 @@ public class SystemInfoService {
                 "}; " +
                 "Write-Host 'END_DATA'\"";
 
-            ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
-            channelExec.setCommand(command);
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(channelExec.getInputStream()));
-            BufferedReader errorReader = new BufferedReader(new InputStreamReader(channelExec.getErrStream()));
-
-            channelExec.connect();
+            SshSessionPool.ExecResult result = sshSessionPool.exec(ipAddress, SshSessionPool.Operation.INTERACTIVE,
+                command, 30000, 60000);
 
-            String line;
             double cpuUsage = 0;
             double ramUsagePercent = 0;
             double freeRam = 0;
             double totalRam = 0;
 
-            while ((line = reader.readLine()) != null) {
+            for (String line : result.lines()) {
 
                 if (line.startsWith("CPU:")) {
                     try {
@@ -187,17 +186,14 @@ public class SystemInfoService {
                 }
             }
 
-            // Attendi che il comando finisca
-            channelExec.disconnect();
-
             // Validazione dei valori
             if (cpuUsage < 0 || cpuUsage > 100) {
-                cpuUsage = getCpuUsageAlternative(session);
+                cpuUsage = getCpuUsageAlternative(ipAddress);
             }
 
             if (totalRam <= 0) {
                 System.err.println("DEBUG: RAM totale non valida, tentando comando alternativo...");
-                Map<String, Double> ramInfo = getRamInfoAlternative(session);
+                Map<String, Double> ramInfo = getRamInfoAlternative(ipAddress);
                 ramUsagePercent = ramInfo.get("percent");
                 freeRam = ramInfo.get("free");
                 totalRam = ramInfo.get("total");
@@ -209,27 +205,19 @@ public class SystemInfoService {
             info.put("totalRam", String.format("%.0f MB", totalRam));
 
 
-            // Leggi eventuali errori
-            String errorLine;
-            StringBuilder errors = new StringBuilder();
-            while ((errorLine = errorReader.readLine()) != null) {
-                errors.append(errorLine).append("\n");
-            }
-
-            if (!errors.isEmpty()) {
-                System.err.println("Errori comando PowerShell: " + errors);
+            // Segnala eventuali errori
+            if (!result.stderr().isEmpty()) {
+                System.err.println("Errori comando PowerShell: " + result.stderr());
             }
 
         } catch (Exception e) {
             System.err.println("Errore durante il recupero informazioni Windows: " + e.getMessage());
-            e.printStackTrace();
+            if (!(e instanceof SshSessionPool.CircuitOpenException)) {
+                e.printStackTrace();
+            }
             info.put("cpuUsage", "Non disponibile");
             info.put("ramUsage", "Non disponibile");
             info.put("error", e.getMessage());
-        } finally {
-            if (session != null) {
-                session.disconnect();
-            }
         }
 
         return info;
@@ -238,28 +226,19 @@ public class SystemInfoService {
     /**
      * Metodo alternativo per ottenere CPU usage se il primo fallisce
      */
-    private double getCpuUsageAlternative(Session session) {
+    private double getCpuUsageAlternative(String ipAddress) {
         try {
-            session = recreateSession(session);
-
             String altCommand = "powershell.exe -Command \"" +
                 "$samples = Get-Counter '\\\\Processor(_Total)\\\\% Processor Time' -SampleInterval 1 -MaxSamples 3; " +
                 "$avg = ($samples.CounterSamples | Measure-Object CookedValue -Average).Average; " +
                 "Write-Host $avg\"";
 
-            ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
-            channelExec.setCommand(altCommand);
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(channelExec.getInputStream()));
-            channelExec.connect();
-
-            String line = reader.readLine();
+            String line = firstLine(sshSessionPool.exec(ipAddress, SshSessionPool.Operation.INTERACTIVE,
+                altCommand, 30000, 60000));
             if (line != null && !line.trim().isEmpty()) {
                 double value = Double.parseDouble(line.trim());
-                channelExec.disconnect();
                 return Math.min(100, Math.max(0, value)); // Limita tra 0 e 100
             }
-            channelExec.disconnect();
         } catch (Exception e) {
             System.err.println("Errore comando CPU alternativo: " + e.getMessage());
         }
@@ -269,15 +248,13 @@ public class SystemInfoService {
     /**
      * Metodo alternativo per ottenere informazioni RAM
      */
-    private Map<String, Double> getRamInfoAlternative(Session session) {
+    private Map<String, Double> getRamInfoAlternative(String ipAddress) {
         Map<String, Double> ramInfo = new HashMap<>();
         ramInfo.put("percent", 0.0);
         ramInfo.put("free", 0.0);
         ramInfo.put("total", 0.0);
 
         try {
-            session = recreateSession(session);
-
             String altCommand = "powershell.exe -Command \"" +
                 "$computerSystem = Get-WmiObject Win32_ComputerSystem; " +
                 "$totalRam = [math]::Round($computerSystem.TotalPhysicalMemory / 1MB, 0); " +
@@ -286,13 +263,8 @@ public class SystemInfoService {
                 "$ramPercent = [math]::Round(($usedRam / $totalRam) * 100, 2); " +
                 "Write-Host \"$ramPercent|$availableRam|$totalRam\"\"";
 
-            ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
-            channelExec.setCommand(altCommand);
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(channelExec.getInputStream()));
-            channelExec.connect();
-
-            String line = reader.readLine();
+            String line = firstLine(sshSessionPool.exec(ipAddress, SshSessionPool.Operation.INTERACTIVE,
+                altCommand, 30000, 60000));
             if (line != null && line.contains("|")) {
                 String[] parts = line.split("\\|");
                 if (parts.length == 3) {
@@ -301,7 +273,6 @@ public class SystemInfoService {
                     ramInfo.put("total", Double.parseDouble(parts[2]));
                 }
             }
-            channelExec.disconnect();
         } catch (Exception e) {
             System.err.println("Errore comando RAM alternativo: " + e.getMessage());
         }
@@ -309,24 +280,10 @@ public class SystemInfoService {
     }
 
     /**
-     * Ricrea la sessione SSH se necessario
+     * Prima riga dell'output di un comando, null se non ha prodotto output
      */
-    private Session recreateSession(Session oldSession) throws Exception {
-        if (oldSession != null && oldSession.isConnected()) {
-            return oldSession;
-        }
-
-        JSch jsch = new JSch();
-        PcMappingConfig.Ssh sshConfig = pcMappingConfig.getSsh();
-
-        Session newSession = jsch.getSession(sshConfig.getUsername(),
-                                           oldSession.getHost(),
-                                           sshConfig.getPort());
-        newSession.setPassword(sshConfig.getPassword());
-        newSession.setConfig("StrictHostKeyChecking", "no");
-        newSession.connect(30000);
-
-        return newSession;
+    private static String firstLine(SshSessionPool.ExecResult result) {
+        return result.lines().stream().findFirst().orElse(null);
     }
 
     /**
@@ -348,6 +305,10 @@ public class SystemInfoService {
 
     /**
      * Versione ottimizzata per il monitoraggio SSE con timeout ridotto
+     * Usa l'ultimo campione di {@link MetricsAgentService} se recente; in entrambi i casi aggiunge
+     * l'inventario statico ({@link SystemInventory}: hostname, os, core, RAM totale, avvio e uptime).
+     * A circuito SSH aperto risponde subito: con gli ultimi valori letti se l'errore che l'ha aperto
+     * non indica un PC spento, altrimenti con lo stesso errore (vedi {@link SshSessionPool.CircuitOpenException})
      * @param ipAddress IP del PC target
      * @return Map contenente informazioni di sistema o errori
      */
@@ -356,18 +317,25 @@ public class SystemInfoService {
 
         try {
             // Recupera ping veloce
-            String ping = getPing(ipAddress);
-            systemInfo.put("ping", ping);
-
-            // Recupera informazioni CPU e RAM via SSH con timeout ridotto
-            Map<String, String> windowsInfo = getWindowsSystemInfoQuick(ipAddress);
-            systemInfo.putAll(windowsInfo);
+            ProbeResult ping = getPing(ipAddress);
+            systemInfo.put("ping", LatencyProber.format(ping));
+
+            // Ultimo campione dell'agente remoto, senza avviare PowerShell; se non c'è,
+            // CPU e RAM via SSH con timeout ridotto
+            Map<String, String> streamed = metricsAgentService.latest(ipAddress);
+            if (streamed != null) {
+                lastQuickInfo.put(ipAddress, streamed);
+                systemInfo.putAll(streamed);
+            } else {
+                systemInfo.putAll(getWindowsSystemInfoQuick(ipAddress));
+            }
 
         } catch (Exception e) {
             System.err.println("Errore durante il recupero veloce delle informazioni di sistema: " + e.getMessage());
             systemInfo.put("error", e.getMessage());
         }
 
+        putCircuitState(systemInfo, ipAddress, SshSessionPool.Operation.MONITORING);
         return systemInfo;
     }
 
@@ -376,68 +344,112 @@ public class SystemInfoService {
      */
     private Map<String, String> getWindowsSystemInfoQuick(String ipAddress) {
         Map<String, String> info = new HashMap<>();
-        JSch jsch = new JSch();
-        Session session = null;
 
         try {
-            PcMappingConfig.Ssh sshConfig = pcMappingConfig.getSsh();
+            // Senza inventario in cache lo stesso comando lo legge: un solo giro anche la prima volta
+            SystemInventory inventory = inventories.get(ipAddress);
 
-            session = jsch.getSession(sshConfig.getUsername(), ipAddress, sshConfig.getPort());
-            session.setPassword(sshConfig.getPassword());
-            session.setConfig("StrictHostKeyChecking", "no");
+            // Timeout ridotto per SSE (5 secondi invece di 30), solo se la sessione va riaperta;
+            // il comando ha al massimo 15 secondi
+            SshSessionPool.ExecResult result = sshSessionPool.exec(ipAddress, SshSessionPool.Operation.MONITORING,
+                quickCommand(inventory == null), 5000, 15000);
 
-            // Timeout ridotto per SSE (5 secondi invece di 30)
-            session.connect(5000);
-
-            // Comando PowerShell semplificato per velocità
-            String command = "powershell.exe -Command \"" +
-                "$cpu = (Get-WmiObject -Class Win32_Processor).LoadPercentage; " +
-                "if ($cpu -ne $null -and $cpu -gt 0) { Write-Host \"CPU:$cpu\" } else { Write-Host 'CPU:0' }; " +
-                "$os = Get-WmiObject -Class Win32_OperatingSystem; " +
-                "if ($os -ne $null) { " +
-                "  $totalKB = $os.TotalVisibleMemorySize; " +
-                "  $freeKB = $os.FreePhysicalMemory; " +
-                "  if ($totalKB -gt 0 -and $freeKB -gt 0) { " +
-                "    $percent = [math]::Round((($totalKB - $freeKB) / $totalKB) * 100, 2); " +
-                "    Write-Host \"RAM:$percent\"; " +
-                "  } else { Write-Host 'RAM:0' }; " +
-                "} else { Write-Host 'RAM:0' }\"";
-
-            ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
-            channelExec.setCommand(command);
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(channelExec.getInputStream()));
-            channelExec.connect();
-
-            String line;
-            while ((line = reader.readLine()) != null) {
+            long bootEpochSeconds = -1;
+            for (String line : result.lines()) {
                 if (line.startsWith("CPU:")) {
                     String cpuValue = line.substring(4);
                     info.put("cpuUsage", cpuValue + "%");
                 } else if (line.startsWith("RAM:")) {
                     String ramValue = line.substring(4);
                     info.put("ramUsage", ramValue + "%");
+                } else if (line.startsWith("BOOT:")) {
+                    try {
+                        bootEpochSeconds = Long.parseLong(line.substring(5).trim());
+                    } catch (NumberFormatException e) {
+                        System.err.println("Errore parsing ora di avvio: " + e.getMessage());
+                    }
+                } else if (line.startsWith("I|")) {
+                    SystemInventory parsed = SystemInventory.parse(line);
+                    if (parsed != null) {
+                        inventory = parsed;
+                        inventories.put(ipAddress, parsed);
+                    }
                 }
             }
 
-            channelExec.disconnect();
+            // Ora di avvio cambiata: il PC si è riavviato, l'inventario va riletto
+            if (inventory != null && bootEpochSeconds > 0
+                && Math.abs(bootEpochSeconds - inventory.bootEpochSeconds()) > REBOOT_TOLERANCE_SECONDS) {
+                inventory = readInventory(ipAddress);
+            }
+            if (inventory != null) {
+                inventory.putInto(info, System.currentTimeMillis());
+            }
+            lastQuickInfo.put(ipAddress, Map.copyOf(info));
 
         } catch (Exception e) {
             String errorMsg = e.getMessage();
-            if (errorMsg != null && (errorMsg.contains("timeout") || errorMsg.contains("ConnectException"))) {
+            Map<String, String> lastKnown = lastQuickInfo.get(ipAddress);
+            if (e instanceof SshSessionPool.CircuitOpenException && lastKnown != null && !looksOffline(errorMsg)) {
+                // SSH giù ma PC raggiungibile: ultimi valori noti invece di un errore a ogni tick
+                info.putAll(lastKnown);
+                SystemInventory inventory = inventories.get(ipAddress);
+                if (inventory != null) {
+                    inventory.putInto(info, System.currentTimeMillis()); // Uptime aggiornato
+                }
+            } else if (looksOffline(errorMsg)) {
                 info.put("error", "SSH timeout - PC potrebbe essere spento");
             } else {
                 info.put("error", "Errore SSH: " + errorMsg);
             }
-        } finally {
-            if (session != null && session.isConnected()) {
-                session.disconnect();
-            }
         }
 
         return info;
     }
 
+    /**
+     * Comando veloce: CPU, RAM e ora di avvio, più l'inventario statico se richiesto
+     */
+    private static String quickCommand(boolean withInventory) {
+        return "powershell.exe -Command \"" +
+            "$cpu = (Get-WmiObject -Class Win32_Processor).LoadPercentage; " +
+            "if ($cpu -ne $null -and $cpu -gt 0) { Write-Host \"CPU:$cpu\" } else { Write-Host 'CPU:0' }; " +
+            "$os = Get-CimInstance -ClassName Win32_OperatingSystem; " +
+            "if ($os -ne $null) { " +
+            "  $totalKB = $os.TotalVisibleMemorySize; " +
+            "  $freeKB = $os.FreePhysicalMemory; " +
+            "  if ($totalKB -gt 0 -and $freeKB -gt 0) { " +
+            "    $percent = [math]::Round((($totalKB - $freeKB) / $totalKB) * 100, 2); " +
+            "    Write-Host \"RAM:$percent\"; " +
+            "  } else { Write-Host 'RAM:0' }; " +
+            "  " + SystemInventory.BOOT_SCRIPT +
+            "  Write-Host \"BOOT:$boot\"; " +
+            (withInventory ? "  " + SystemInventory.SCRIPT + "Write-Host $inventory; " : "") +
+            "} else { Write-Host 'RAM:0' }\"";
+    }
+
+    /**
+     * Rilegge l'inventario statico dopo un riavvio (una volta per avvio)
+     * @return null se il comando non restituisce un inventario valido
+     */
+    private SystemInventory readInventory(String ipAddress) throws Exception {
+        String command = "powershell.exe -Command \"" +
+            "$os = Get-CimInstance -ClassName Win32_OperatingSystem; " +
+            SystemInventory.BOOT_SCRIPT +
+            SystemInventory.SCRIPT +
+            "Write-Host $inventory\"";
+        for (String line : sshSessionPool.exec(ipAddress, SshSessionPool.Operation.MONITORING, command, 5000,
+            15000).lines()) {
+            SystemInventory parsed = SystemInventory.parse(line);
+            if (parsed != null) {
+                inventories.put(ipAddress, parsed);
+                return parsed;
+            }
+        }
+        inventories.remove(ipAddress);
+        return null;
+    }
+
     /**
      * Versione ultra-veloce per controlli immediati dopo spegnimento
      * Utilizza timeout molto ridotti per rilevare rapidamente dispositivi offline
@@ -447,11 +459,11 @@ public class SystemInfoService {
 
         try {
             // Ping ultra-veloce (solo 500ms)
-            String ping = getPingFast(ipAddress);
-            systemInfo.put("ping", ping);
+            ProbeResult ping = getPingFast(ipAddress);
+            systemInfo.put("ping", LatencyProber.format(ping));
 
             // Se il ping fallisce, non tentare nemmeno SSH
-            if (ping.contains("Ping non disponibile") || ping.contains("Errore")) {
+            if (!ping.reachable()) {
                 systemInfo.put("cpuUsage", "N/A");
                 systemInfo.put("ramUsage", "N/A");
                 systemInfo.put("error", "PC offline - rilevato tramite ping");
@@ -472,30 +484,10 @@ public class SystemInfoService {
     }
 
     /**
-     * Ping ultra-veloce con timeout di soli 500ms
+     * Ping ultra-veloce con timeout di soli 500ms, accetta solo misure recentissime
      */
-    private String getPingFast(String ipAddress) {
-        try {
-            ProcessBuilder pb = new ProcessBuilder("ping", "-c", "1", "-W", "500", ipAddress);
-            Process process = pb.start();
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-
-            while ((line = reader.readLine()) != null) {
-                Pattern pattern = Pattern.compile("time=(\\d+\\.?\\d*)\\s*ms");
-                Matcher matcher = pattern.matcher(line);
-                if (matcher.find()) {
-                    return matcher.group(1) + " ms";
-                }
-            }
-
-            process.waitFor();
-            return "Ping non disponibile";
-
-        } catch (Exception e) {
-            return "Errore ping: " + e.getMessage();
-        }
+    private ProbeResult getPingFast(String ipAddress) {
+        return latencyProber.measureFresh(ipAddress, 500);
     }
 
     /**
@@ -503,19 +495,8 @@ public class SystemInfoService {
      */
     private Map<String, String> getWindowsSystemInfoUltraFast(String ipAddress) {
         Map<String, String> info = new HashMap<>();
-        JSch jsch = new JSch();
-        Session session = null;
 
         try {
-            PcMappingConfig.Ssh sshConfig = pcMappingConfig.getSsh();
-
-            session = jsch.getSession(sshConfig.getUsername(), ipAddress, sshConfig.getPort());
-            session.setPassword(sshConfig.getPassword());
-            session.setConfig("StrictHostKeyChecking", "no");
-
-            // Timeout ultra-ridotto (2 secondi)
-            session.connect(2000);
-
             // Comando PowerShell minimale per velocità massima
             String command = "powershell.exe -Command \"" +
                 "$cpu = (Get-WmiObject -Class Win32_Processor).LoadPercentage; " +
@@ -524,14 +505,11 @@ public class SystemInfoService {
                 "$percent = [math]::Round((($os.TotalVisibleMemorySize - $os.FreePhysicalMemory) / $os.TotalVisibleMemorySize) * 100, 2); " +
                 "Write-Host \"RAM:$percent\"\"";
 
-            ChannelExec channelExec = (ChannelExec) session.openChannel("exec");
-            channelExec.setCommand(command);
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(channelExec.getInputStream()));
-            channelExec.connect();
+            // Timeout ultra-ridotto (2 secondi), solo se la sessione va riaperta; comando entro 5 secondi
+            SshSessionPool.ExecResult result = sshSessionPool.exec(ipAddress, SshSessionPool.Operation.MONITORING,
+                command, 2000, 5000);
 
-            String line;
-            while ((line = reader.readLine()) != null) {
+            for (String line : result.lines()) {
                 if (line.startsWith("CPU:")) {
                     String cpuValue = line.substring(4);
                     info.put("cpuUsage", cpuValue + "%");
@@ -541,21 +519,15 @@ public class SystemInfoService {
                 }
             }
 
-            channelExec.disconnect();
-
         } catch (Exception e) {
             String errorMsg = e.getMessage();
-            if (errorMsg != null && (errorMsg.contains("timeout") || errorMsg.contains("ConnectException"))) {
+            if (looksOffline(errorMsg)) {
                 info.put("error", "SSH timeout ultra-veloce - PC spento");
             } else {
                 info.put("error", "Errore SSH ultra-veloce: " + errorMsg);
             }
             info.put("cpuUsage", "N/A");
             info.put("ramUsage", "N/A");
-        } finally {
-            if (session != null && session.isConnected()) {
-                session.disconnect();
-            }
         }
 
         return info;
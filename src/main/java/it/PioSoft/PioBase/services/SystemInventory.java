@@ -0,0 +1,84 @@
+package it.PioSoft.PioBase.services;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Inventario statico di un PC Windows, raccolto una volta per avvio
+ *
+ * Hostname, sistema operativo, core, RAM totale e ora di avvio non cambiano finché il PC non
+ * si riavvia: si leggono con un solo comando e poi si interrogano solo i contatori (CPU, RAM libera).
+ * L'uptime si calcola localmente dall'ora di avvio; un'ora di avvio diversa da quella in cache
+ * indica un riavvio e quindi un inventario da rileggere.
+ * Formato della riga, comune al comando singolo e all'agente delle metriche:
+ * <pre>
+ * I|hostname|core logici|RAM totale KB|avvio (epoch s)|sistema operativo
+ * </pre>
+ */
+public record SystemInventory(String hostname, String os, int cores, long totalRamKb, long bootEpochSeconds) {
+
+    /**
+     * PowerShell: con $os già letto (Get-CimInstance Win32_OperatingSystem) prepara $boot
+     */
+    static final String BOOT_SCRIPT = "$boot = ([DateTimeOffset]$os.LastBootUpTime).ToUnixTimeSeconds(); ";
+
+    /**
+     * PowerShell: dopo {@link #BOOT_SCRIPT} prepara in $inventory la riga dell'inventario
+     */
+    static final String SCRIPT = "$cs = Get-CimInstance Win32_ComputerSystem; " +
+        "$inventory = 'I|' + $env:COMPUTERNAME + '|' + $cs.NumberOfLogicalProcessors + '|' + " +
+        "$os.TotalVisibleMemorySize + '|' + $boot + '|' + $os.Caption; ";
+
+    /**
+     * Interpreta la riga dell'inventario
+     * @return null se la riga non è un inventario valido
+     */
+    static SystemInventory parse(String line) {
+        if (line == null || !line.startsWith("I|")) {
+            return null;
+        }
+        // Il sistema operativo è l'ultimo campo: l'unico testo libero
+        String[] parts = line.substring(2).split("\\|", 5);
+        if (parts.length < 5) {
+            return null;
+        }
+        try {
+            long totalRamKb = Long.parseLong(parts[2].trim());
+            if (totalRamKb <= 0) {
+                return null;
+            }
+            return new SystemInventory(parts[0].trim(), parts[4].trim(), Integer.parseInt(parts[1].trim()),
+                totalRamKb, Long.parseLong(parts[3].trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Aggiunge alle info di sistema hostname, os, cores, totalRam, bootTime e uptime
+     */
+    void putInto(Map<String, String> info, long nowMillis) {
+        if (!hostname.isEmpty()) {
+            info.put("hostname", hostname);
+        }
+        if (!os.isEmpty()) {
+            info.put("os", os);
+        }
+        info.put("cores", Integer.toString(cores));
+        info.put("totalRam", totalRamKb / 1024 + " MB");
+        info.put("bootTime", Instant.ofEpochSecond(bootEpochSeconds).toString());
+        info.put("uptime", formatUptime(Math.max(0, nowMillis / 1000 - bootEpochSeconds)));
+    }
+
+    /**
+     * Uptime leggibile, es. "3 giorni, 4 ore, 12 minuti"
+     */
+    static String formatUptime(long seconds) {
+        long days = seconds / 86400;
+        long hours = seconds % 86400 / 3600;
+        long minutes = seconds % 3600 / 60;
+        return days > 0
+            ? String.format("%d giorni, %d ore, %d minuti", days, hours, minutes)
+            : String.format("%d ore, %d minuti", hours, minutes);
+    }
+}
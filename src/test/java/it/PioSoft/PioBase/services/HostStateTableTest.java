@@ -0,0 +1,126 @@
+package it.PioSoft.PioBase.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Indice e stato di {@link HostStateTable}: crescita, collisioni e impacchettamento IPv4
+ */
+class HostStateTableTest {
+
+    // Una tabella da 4 slot ha 8 bucket
+    private static final int SMALL_BUCKET_MASK = 7;
+
+    @Test
+    void packAndUnpackRoundTrip() {
+        for (String ip : List.of("0.0.0.1", "10.0.0.1", "127.0.0.1", "192.168.1.254", "255.255.255.255")) {
+            assertEquals(ip, HostStateTable.unpackIpv4(HostStateTable.packIpv4(ip)));
+        }
+        assertEquals(0xC0A8010A, HostStateTable.packIpv4("192.168.1.10"));
+        assertEquals(-1, HostStateTable.packIpv4("255.255.255.255"));
+        assertEquals("128.0.0.0", HostStateTable.unpackIpv4(Integer.MIN_VALUE));
+    }
+
+    @Test
+    void rejectsMalformedAddresses() {
+        for (String ip : List.of("", "1.2.3", "1.2.3.4.5", "256.0.0.1", "1..2.3", "1.2.3.", ".1.2.3", "a.b.c.d",
+            "1.2.3.-4", "::1")) {
+            assertFalse(HostStateTable.isIpv4(ip), ip);
+            assertThrows(IllegalArgumentException.class, () -> HostStateTable.packIpv4(ip), ip);
+        }
+        // 0 segna il bucket libero: non può essere un host
+        assertThrows(IllegalArgumentException.class, () -> new HostStateTable(4).register("0.0.0.0"));
+    }
+
+    @Test
+    void unspecifiedAddressIsNeverFound() {
+        assertEquals(0, HostStateTable.packIpv4("0.0.0.0"));
+        assertFalse(HostStateTable.isIpv4("0.0.0.0"));
+
+        HostStateTable table = new HostStateTable(4);
+        assertEquals(HostStateTable.NO_SLOT, table.slotOf("0.0.0.0"));
+
+        // Con host registrati i bucket liberi hanno comunque lo slot 0 in bucketSlots
+        int slot = table.register("192.168.1.10");
+        table.setOnline(slot, true);
+        assertEquals(0, slot);
+        assertEquals(HostStateTable.NO_SLOT, table.slotOf("0.0.0.0"));
+        assertEquals(HostStateTable.NO_SLOT, table.slotOf(0));
+        for (int i = 1; i <= 20; i++) {
+            table.register("10.0.0." + i); // Anche dopo la crescita
+        }
+        assertEquals(HostStateTable.NO_SLOT, table.slotOf("0.0.0.0"));
+    }
+
+    @Test
+    void keepsSlotsAndStateAcrossResize() {
+        HostStateTable table = new HostStateTable(4);
+        List<String> ips = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            String ip = "10.0." + (i / 50) + "." + i;
+            ips.add(ip);
+            int slot = table.register(ip);
+            assertEquals(i - 1, slot);
+            table.setOnline(slot, i % 2 == 0);
+            table.setLastSeenNanos(slot, -i * 1_000_000L);
+            table.setIntervalMs(slot, i * 10);
+            table.setPreferredMethod(slot, i % 3);
+        }
+
+        assertEquals(100, table.size());
+        for (int i = 1; i <= 100; i++) {
+            String ip = ips.get(i - 1);
+            int slot = table.slotOf(ip);
+            assertEquals(i - 1, slot, ip);
+            assertEquals(ip, table.ipAt(slot));
+            assertTrue(table.isKnown(slot));
+            assertEquals(i % 2 == 0, table.isOnline(slot));
+            assertEquals(-i * 1_000_000L, table.lastSeenNanos(slot));
+            assertEquals(i * 10, table.intervalMs(slot));
+            assertEquals(i % 3, table.preferredMethod(slot));
+        }
+        // Registrare di nuovo un host restituisce il suo slot senza duplicarlo
+        assertEquals(42, table.register(ips.get(42)));
+        assertEquals(100, table.size());
+        assertEquals(HostStateTable.NO_SLOT, table.slotOf("10.0.9.9"));
+    }
+
+    @Test
+    void collidingKeysAreProbedLinearly() {
+        // Chiavi che finiscono tutte nell'ultimo bucket: la scansione deve ripartire dall'inizio
+        List<String> colliding = collidingIps(SMALL_BUCKET_MASK, 5);
+        HostStateTable table = new HostStateTable(4);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, table.register(colliding.get(i)));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, table.slotOf(colliding.get(i)));
+        }
+        // Stesso bucket ma non registrata: la ricerca si ferma al primo bucket libero
+        assertEquals(HostStateTable.NO_SLOT, table.slotOf(colliding.get(3)));
+
+        // La crescita reindicizza le collisioni su più bucket senza perdere host
+        assertEquals(3, table.register(colliding.get(3)));
+        assertEquals(4, table.register(colliding.get(4)));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, table.slotOf(colliding.get(i)));
+        }
+    }
+
+    private static List<String> collidingIps(int bucket, int count) {
+        List<String> ips = new ArrayList<>();
+        for (int key = 0x0A000001; ips.size() < count; key++) {
+            if ((HostStateTable.mix(key) & SMALL_BUCKET_MASK) == bucket) {
+                ips.add(HostStateTable.unpackIpv4(key));
+            }
+        }
+        return ips;
+    }
+}
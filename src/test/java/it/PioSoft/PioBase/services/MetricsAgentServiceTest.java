@@ -0,0 +1,71 @@
+package it.PioSoft.PioBase.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Righe dell'agente delle metriche: divisione dello stream e campioni
+ */
+class MetricsAgentServiceTest {
+
+    private static MetricsAgentService.Sample sample(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return MetricsAgentService.parseSample(bytes, bytes.length, 1000);
+    }
+
+    @Test
+    void parsesAValidSample() {
+        assertEquals(new MetricsAgentService.Sample(1000, 12, 4194304), sample("S|12|4194304"));
+        assertEquals(new MetricsAgentService.Sample(1000, 0, 0), sample("S|0|0"));
+    }
+
+    @Test
+    void rejectsWmiErrorLines() {
+        // Get-CimInstance fallito: campo vuoto o messaggio d'errore al posto dei numeri
+        assertNull(sample("S|12|"));
+        assertNull(sample("S||4194304"));
+        assertNull(sample("S|Get-CimInstance : Accesso negato|4194304"));
+        assertNull(sample("S|12|4194304|7"));
+        assertNull(sample("S|-1|4194304"));
+        assertNull(sample("I|PIO-PC|4|8388608|1792000000|Windows 11"));
+    }
+
+    @Test
+    void buildsInfoFromSampleAndInventory() {
+        SystemInventory inventory = SystemInventory.parse("I|PIO-PC|4|8388608|1792000000|Windows 10 | Edizione N");
+        Map<String, String> info = MetricsAgentService.sampleInfo(inventory,
+            new MetricsAgentService.Sample(1792000000L * 1000 + 60000, 37, 2097152));
+
+        assertEquals("37%", info.get("cpuUsage"));
+        assertEquals("75.00%", info.get("ramUsage"));
+        assertEquals("2048 MB", info.get("availableRam"));
+        assertEquals("Windows 10 | Edizione N", info.get("os"));
+        assertEquals("0 ore, 1 minuti", info.get("uptime"));
+    }
+
+    @Test
+    void splitsLinesAcrossReads() {
+        List<String> lines = new ArrayList<>();
+        MetricsAgentService.LineParser parser = new MetricsAgentService.LineParser(
+            (line, length) -> lines.add(new String(line, 0, length, StandardCharsets.UTF_8)));
+
+        feed(parser, "I|PIO-PC|4|8388608|1792000000|Windows 11\r\nS|1");
+        feed(parser, "2|4194304\r\n\r\n");
+        feed(parser, "S|" + "9".repeat(2000) + "\r\nS|3|1024\n");
+
+        // La riga vuota e quella troppo lunga per il buffer vengono scartate
+        assertEquals(List.of("I|PIO-PC|4|8388608|1792000000|Windows 11", "S|12|4194304", "S|3|1024"), lines);
+    }
+
+    private static void feed(MetricsAgentService.LineParser parser, String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        parser.feed(bytes, bytes.length);
+    }
+}
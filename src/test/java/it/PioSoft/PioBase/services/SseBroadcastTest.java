@@ -0,0 +1,262 @@
+package it.PioSoft.PioBase.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.PioSoft.PioBase.configs.SchedulerConfig;
+import it.PioSoft.PioBase.configs.SseConfig;
+import it.PioSoft.PioBase.dto.MapStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Broadcast di un evento codificato una volta a tutti gli stream del topic
+ *
+ * Confronta allocazione e CPU per broadcast con 1, 10 e 100 client tra la serializzazione per client
+ * (SseEmitter.event().data(map) + Jackson) e il frame condiviso consegnato da {@link StatusStream}.
+ * La tabella delle misure viene stampata: mvn test -Dtest=SseBroadcastTest
+ */
+class SseBroadcastTest {
+
+    private static final int[] SUBSCRIBERS = {1, 10, 100};
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 20_000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> MAP = new TypeReference<>() {
+    };
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // Consegna sul thread del test: l'allocazione di tutto il percorso resta misurabile
+    private static final Executor DIRECT = Runnable::run;
+
+    private SseDeliveryService delivery;
+
+    /**
+     * Transport in memoria: conta i frame e tiene l'ultimo ricevuto
+     */
+    private static final class CountingTransport implements StatusStream.Transport {
+        private final CountDownLatch received;
+        volatile int frames;
+        volatile long bytes;
+        volatile byte[] last;
+
+        CountingTransport(CountDownLatch received) {
+            this.received = received;
+        }
+
+        @Override
+        public SseEvent.Framing framing() {
+            return SseEvent.Framing.SSE;
+        }
+
+        @Override
+        public void send(byte[] frame) {
+            frames++;
+            bytes += frame.length;
+            last = frame;
+            if (received != null) {
+                received.countDown();
+            }
+        }
+
+        @Override
+        public void complete(Throwable error) {
+        }
+    }
+
+    /**
+     * Misure di un broadcast
+     */
+    private record Measure(long bytesPerBroadcast, double cpuMicrosPerBroadcast) {
+    }
+
+    private interface Broadcast {
+        void run(Map<String, Object> status) throws IOException;
+    }
+
+    @BeforeEach
+    void setUp() {
+        delivery = new SseDeliveryService(new SseConfig(), new MonitoringScheduler(new SchedulerConfig()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        delivery.shutdown();
+    }
+
+    @Test
+    void sseFrameCarriesTheSameDataAsJackson() throws Exception {
+        Map<String, Object> status = sampleStatus();
+        SseEvent event = delivery.event("192.168.1.10", "systemStatus", new MapStatus(status));
+
+        String frame = new String(event.frame(), StandardCharsets.UTF_8);
+        String header = "id:" + event.getId() + "\nevent:systemStatus\ndata:";
+        assertTrue(frame.startsWith(header), frame);
+        assertTrue(frame.endsWith("\n\n"), frame);
+        // Un solo campo data: i ritorni a capo dei valori sono escapati nel JSON
+        String data = frame.substring(header.length(), frame.length() - 2);
+        assertEquals(-1, data.indexOf('\n'));
+        assertEquals(MAPPER.readValue(MAPPER.writeValueAsBytes(status), MAP), MAPPER.readValue(data, MAP));
+    }
+
+    @Test
+    void websocketFrameWrapsTheSameData() throws Exception {
+        Map<String, Object> status = sampleStatus();
+        SseEvent event = delivery.event("192.168.1.10", "systemStatus", new MapStatus(status));
+
+        JsonNode frame = MAPPER.readTree(event.frame(SseEvent.Framing.WEBSOCKET));
+        assertEquals("event", frame.get("type").asText());
+        assertEquals("systemStatus", frame.get("event").asText());
+        assertEquals("192.168.1.10", frame.get("resource").asText());
+        assertEquals(event.getId(), frame.get("id").asLong());
+        assertEquals(MAPPER.readTree(MAPPER.writeValueAsBytes(status)), frame.get("data"));
+    }
+
+    @Test
+    void everyStreamReceivesTheSameEncodedFrame() throws Exception {
+        CountDownLatch received = new CountDownLatch(100);
+        List<CountingTransport> transports = new ArrayList<>();
+        List<StatusStream> streams = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            CountingTransport transport = new CountingTransport(received);
+            transports.add(transport);
+            streams.add(delivery.open(transport, "192.168.1.10", "systemStatus", StatusStream.Mode.FULL,
+                StatusStream.Options.DEFAULT));
+        }
+
+        // Consegna vera: code degli stream e pool sse-delivery
+        SseEvent event = delivery.event("192.168.1.10", "systemStatus", new MapStatus(sampleStatus()));
+        for (StatusStream stream : streams) {
+            stream.publish(event);
+        }
+        assertTrue(received.await(5, TimeUnit.SECONDS), "frame consegnati: " + (100 - received.getCount()));
+
+        for (CountingTransport transport : transports) {
+            assertEquals(1, transport.frames);
+            assertSame(event.frame(), transport.last);
+        }
+        streams.forEach(StatusStream::release);
+    }
+
+    @Test
+    void sharedFrameKeepsPerSubscriberAllocationLow() throws Exception {
+        assumeTrue(THREADS.isThreadAllocatedMemorySupported() && THREADS.isThreadAllocatedMemoryEnabled());
+
+        System.out.printf("%-12s %6s %14s %16s%n", "modo", "client", "byte/broadcast", "us CPU/broadcast");
+        Map<Integer, Measure> shared = new HashMap<>();
+        for (int subscribers : SUBSCRIBERS) {
+            Measure perClient = measure(perSubscriberBroadcast(subscribers), subscribers);
+            Measure preEncoded = measure(sharedBroadcast(subscribers), subscribers);
+            shared.put(subscribers, preEncoded);
+            print("per client", subscribers, perClient);
+            print("condiviso", subscribers, preEncoded);
+            if (subscribers > 1) {
+                assertTrue(preEncoded.bytesPerBroadcast() < perClient.bytesPerBroadcast(),
+                    subscribers + " client: condiviso " + preEncoded.bytesPerBroadcast() + " B, per client "
+                        + perClient.bytesPerBroadcast() + " B");
+            }
+        }
+
+        // La codifica si paga una volta: per ogni client in più resta solo la coda dello stream
+        long encodeOnce = shared.get(1).bytesPerBroadcast();
+        long perExtraSubscriber = (shared.get(100).bytesPerBroadcast() - encodeOnce) / 99;
+        assertTrue(perExtraSubscriber * 4 < encodeOnce,
+            "byte per client in più: " + perExtraSubscriber + ", per la codifica: " + encodeOnce);
+    }
+
+    /**
+     * Quello che fanno i convertitori di Spring per ogni emitter.send(event().data(map))
+     */
+    private static Broadcast perSubscriberBroadcast(int subscribers) {
+        CountingTransport transport = new CountingTransport(null);
+        return status -> {
+            for (int i = 0; i < subscribers; i++) {
+                for (ResponseBodyEmitter.DataWithMediaType item
+                    : SseEmitter.event().name("systemStatus").data(status).build()) {
+                    Object data = item.getData();
+                    transport.send(data instanceof String text
+                        ? text.getBytes(StandardCharsets.UTF_8)
+                        : MAPPER.writeValueAsBytes(data));
+                }
+            }
+        };
+    }
+
+    /**
+     * Un evento per broadcast, pubblicato a tutti gli stream del topic
+     */
+    private Broadcast sharedBroadcast(int subscribers) {
+        List<StatusStream> streams = new ArrayList<>();
+        for (int i = 0; i < subscribers; i++) {
+            streams.add(new StatusStream(i, "192.168.1.10", new CountingTransport(null), "systemStatus",
+                StatusStream.Mode.FULL, StatusStream.Options.DEFAULT, DIRECT, 16, StatusStream.OverflowPolicy.COALESCE));
+        }
+        return status -> {
+            SseEvent event = delivery.event("192.168.1.10", "systemStatus", new MapStatus(status));
+            for (StatusStream stream : streams) {
+                stream.publish(event);
+            }
+        };
+    }
+
+    private static Measure measure(Broadcast broadcast, int subscribers) throws IOException {
+        Map<String, Object> status = sampleStatus();
+        for (int i = 0; i < WARMUP / subscribers; i++) {
+            broadcast.run(status);
+        }
+        int iterations = Math.max(1000, ITERATIONS / subscribers);
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long cpuBefore = THREADS.getCurrentThreadCpuTime();
+        for (int i = 0; i < iterations; i++) {
+            broadcast.run(status);
+        }
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        long cpu = THREADS.getCurrentThreadCpuTime() - cpuBefore;
+        return new Measure(allocated / iterations, cpu / 1000.0 / iterations);
+    }
+
+    private static void print(String label, int subscribers, Measure measure) {
+        System.out.printf("%-12s %6d %14d %16.2f%n", label, subscribers, measure.bytesPerBroadcast(),
+            measure.cpuMicrosPerBroadcast());
+    }
+
+    /**
+     * Stato combinato tipico di /api/monitor/system/{pcIp}
+     */
+    private static Map<String, Object> sampleStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("timestamp", System.currentTimeMillis());
+        status.put("pcIp", "192.168.1.10");
+        status.put("pcOnline", true);
+        status.put("pcState", "ONLINE");
+        status.put("pcHostname", "desktop-pio");
+        status.put("pcOs", "Microsoft Windows 11 Pro");
+        status.put("pcUptime", "3 giorni, 4 ore, 12 minuti");
+        status.put("pcError", "Riga 1\nRiga \"2\"\tè");
+        status.put("camIp", "192.168.1.50");
+        status.put("camOnline", true);
+        status.put("camFound", true);
+        status.put("camRtspUrl", "rtsp://192.168.1.50:554/stream1");
+        return status;
+    }
+}
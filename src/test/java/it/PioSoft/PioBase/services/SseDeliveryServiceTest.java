@@ -0,0 +1,143 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.configs.SchedulerConfig;
+import it.PioSoft.PioBase.configs.SseConfig;
+import it.PioSoft.PioBase.dto.MapStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ripresa con Last-Event-ID dal buffer di {@link SseDeliveryService}
+ */
+class SseDeliveryServiceTest {
+
+    private static final String TOPIC = "192.168.1.10";
+    private static final String EVENT = "systemStatus";
+
+    private SseDeliveryService service;
+
+    @BeforeEach
+    void setUp() {
+        SseConfig config = new SseConfig();
+        config.setReplayBufferSize(4);
+        config.setDeliveryThreads(1);
+        service = new SseDeliveryService(config, new MonitoringScheduler(new SchedulerConfig()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    private static MapStatus status(int value) {
+        return new MapStatus(Map.of("timestamp", 1000L + value, "value", value));
+    }
+
+    private List<SseEvent> publish(int count) {
+        List<SseEvent> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(service.event(TOPIC, EVENT, status(i)));
+        }
+        return events;
+    }
+
+    @Test
+    void replaysMissedEventsInOrder() {
+        List<SseEvent> events = publish(3);
+
+        SseDeliveryService.Replay replay = service.replay(TOPIC, EVENT, events.get(0).getId());
+        assertTrue(replay.complete());
+        assertEquals(events.subList(1, 3), replay.missed());
+        assertSame(events.get(2), replay.latest());
+
+        replay = service.replay(TOPIC, EVENT, events.get(2).getId());
+        assertTrue(replay.complete());
+        assertTrue(replay.missed().isEmpty());
+
+        assertNull(service.replay("10.0.0.1", EVENT, events.get(0).getId()));
+    }
+
+    @Test
+    void wrappedRingKeepsOnlyTheNewestEvents() {
+        List<SseEvent> events = publish(7); // Buffer da 4: restano gli eventi 3..6
+
+        // Il client aveva l'evento che precede il più vecchio in memoria: nulla di perso
+        SseDeliveryService.Replay replay = service.replay(TOPIC, EVENT, events.get(2).getId());
+        assertTrue(replay.complete());
+        assertEquals(events.subList(3, 7), replay.missed());
+
+        replay = service.replay(TOPIC, EVENT, events.get(4).getId());
+        assertTrue(replay.complete());
+        assertEquals(events.subList(5, 7), replay.missed());
+    }
+
+    @Test
+    void idOlderThanTheBufferFallsBackToLatest() {
+        List<SseEvent> events = publish(7);
+
+        SseDeliveryService.Replay replay = service.replay(TOPIC, EVENT, events.get(1).getId());
+        assertFalse(replay.complete());
+        assertSame(events.get(6), replay.latest());
+    }
+
+    @Test
+    void idFromBeforeARestart() {
+        List<SseEvent> events = publish(2);
+        long first = events.get(0).getId();
+
+        // Id più vecchio di tutti quelli di questo processo, con il buffer ancora intero: si reinvia tutto
+        SseDeliveryService.Replay replay = service.replay(TOPIC, EVENT, first - 1000);
+        assertTrue(replay.complete());
+        assertEquals(events, replay.missed());
+
+        // Dopo che il buffer ha girato gli eventi persi non sono più tutti in memoria
+        publish(5);
+        assertFalse(service.replay(TOPIC, EVENT, first - 1000).complete());
+
+        // Id mai assegnato da questo processo (contatore del processo precedente più avanti): solo l'ultimo stato
+        long unknown = service.getLastEvent(TOPIC, EVENT).getId() + 1_000_000;
+        replay = service.replay(TOPIC, EVENT, unknown);
+        assertFalse(replay.complete());
+        assertTrue(replay.missed().isEmpty());
+    }
+
+    @Test
+    void snapshotsStayOutOfTheRing() {
+        List<SseEvent> events = publish(4);
+
+        List<SseEvent> snapshots = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            snapshots.add(service.snapshot(TOPIC, EVENT, status(100 + i)));
+        }
+        // Le sottoscrizioni non spingono fuori gli eventi del topic
+        assertSame(events.get(3), service.getLastEvent(TOPIC, EVENT));
+        SseDeliveryService.Replay replay = service.replay(TOPIC, EVENT, events.get(0).getId());
+        assertTrue(replay.complete());
+        assertEquals(events.subList(1, 4), replay.missed());
+
+        // Il client ripreso dallo stato iniziale non ha perso nulla...
+        long snapshotId = snapshots.get(9).getId();
+        assertTrue(snapshotId > events.get(3).getId());
+        replay = service.replay(TOPIC, EVENT, snapshotId);
+        assertTrue(replay.complete());
+        assertTrue(replay.missed().isEmpty());
+
+        // ...e riceve gli eventi pubblicati dopo, che non hanno lo stato iniziale come predecessore
+        SseEvent next = service.event(TOPIC, EVENT, status(200));
+        assertEquals(events.get(3).getId(), next.getPreviousId());
+        replay = service.replay(TOPIC, EVENT, snapshotId);
+        assertTrue(replay.complete());
+        assertEquals(List.of(next), replay.missed());
+    }
+}
@@ -0,0 +1,143 @@
+package it.PioSoft.PioBase.services;
+
+import it.PioSoft.PioBase.configs.PcMappingConfig;
+import it.PioSoft.PioBase.services.SshCircuitBreaker.State;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Macchina a stati di {@link SshCircuitBreaker}, con tempi passati esplicitamente
+ */
+class SshCircuitBreakerTest {
+
+    private static final String ERROR = "Session.connect: java.net.SocketException: Connection reset";
+
+    private static SshCircuitBreaker breaker(int windowSize, int minCalls, long openMs, long maxOpenMs) {
+        PcMappingConfig.Ssh.Breaker config = new PcMappingConfig.Ssh.Breaker();
+        config.setWindowSize(windowSize);
+        config.setMinCalls(minCalls);
+        config.setFailureRatePercent(50);
+        config.setOpenMs(openMs);
+        config.setMaxOpenMs(maxOpenMs);
+        config.setTrialTimeoutMs(10000);
+        return new SshCircuitBreaker(config);
+    }
+
+    private static void fail(SshCircuitBreaker breaker, long now) {
+        assertTrue(breaker.tryAcquire(now));
+        breaker.onFailure(now, ERROR);
+    }
+
+    private static void succeed(SshCircuitBreaker breaker, long now) {
+        assertTrue(breaker.tryAcquire(now));
+        breaker.onSuccess();
+    }
+
+    @Test
+    void staysClosedBelowMinCalls() {
+        SshCircuitBreaker breaker = breaker(10, 3, 5000, 300000);
+        fail(breaker, 0);
+        fail(breaker, 1);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(100, breaker.metrics(1).failureRatePercent());
+
+        fail(breaker, 2);
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(ERROR, breaker.getLastError());
+    }
+
+    @Test
+    void oldOutcomesLeaveTheWindow() {
+        SshCircuitBreaker breaker = breaker(4, 3, 5000, 300000);
+        // Finestra [ko, ok, ok, ok]: 25% di fallimenti
+        fail(breaker, 0);
+        succeed(breaker, 1);
+        succeed(breaker, 2);
+        succeed(breaker, 3);
+        assertEquals(25, breaker.metrics(3).failureRatePercent());
+
+        // Il fallimento più vecchio esce: [ok, ok, ok, ok]
+        succeed(breaker, 4);
+        assertEquals(4, breaker.metrics(4).windowCalls());
+        assertEquals(0, breaker.metrics(4).failureRatePercent());
+
+        // [ok, ok, ok, ko] = 25%, poi [ok, ok, ko, ko] = 50%: si apre
+        fail(breaker, 5);
+        assertEquals(State.CLOSED, breaker.getState());
+        fail(breaker, 6);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void rejectsWhileOpenAndLetsOneTrialThrough() {
+        SshCircuitBreaker breaker = breaker(10, 1, 5000, 300000);
+        fail(breaker, 0);
+
+        assertFalse(breaker.tryAcquire(4999));
+        assertEquals(1, breaker.retryInMs(4999));
+
+        assertTrue(breaker.tryAcquire(5000));
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(5001));
+        assertEquals(2, breaker.metrics(5001).rejected());
+
+        breaker.onSuccess();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire(5002));
+    }
+
+    @Test
+    void failedTrialDoublesBackoffUpToMax() {
+        SshCircuitBreaker breaker = breaker(10, 1, 5000, 12000);
+        fail(breaker, 0);
+        assertEquals(5000, breaker.retryInMs(0));
+
+        fail(breaker, 5000); // Prova fallita in HALF_OPEN
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(10000, breaker.retryInMs(5000));
+
+        fail(breaker, 15000);
+        assertEquals(12000, breaker.retryInMs(15000));
+        fail(breaker, 27000);
+        assertEquals(12000, breaker.retryInMs(27000));
+        assertEquals(4, breaker.metrics(27000).opens());
+
+        // Una prova riuscita azzera il backoff
+        succeed(breaker, 39000);
+        fail(breaker, 39001);
+        assertEquals(5000, breaker.retryInMs(39001));
+    }
+
+    @Test
+    void ignoredTrialReleasesThePermit() {
+        SshCircuitBreaker breaker = breaker(10, 1, 5000, 300000);
+        fail(breaker, 0);
+        assertTrue(breaker.tryAcquire(5000));
+        breaker.onIgnored();
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire(5001));
+    }
+
+    @Test
+    void trialWithoutOutcomeExpiresAndReopens() {
+        SshCircuitBreaker breaker = breaker(10, 1, 5000, 300000);
+        fail(breaker, 0);
+        assertTrue(breaker.tryAcquire(5000)); // Prova che non termina mai
+
+        assertFalse(breaker.tryAcquire(14999));
+        assertEquals(State.HALF_OPEN, breaker.getState());
+
+        assertFalse(breaker.tryAcquire(15000));
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(10000, breaker.retryInMs(15000));
+
+        // Esito tardivo della prova scaduta: ignorato
+        breaker.onSuccess();
+        assertEquals(State.OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire(25000));
+        assertEquals(State.HALF_OPEN, breaker.getState());
+    }
+}
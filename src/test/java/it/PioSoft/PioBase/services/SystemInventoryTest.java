@@ -0,0 +1,62 @@
+package it.PioSoft.PioBase.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Riga dell'inventario scritta da {@link SystemInventory#SCRIPT}
+ */
+class SystemInventoryTest {
+
+    @Test
+    void parsesAValidLine() {
+        SystemInventory inventory = SystemInventory.parse(
+            "I|DESKTOP-PIO|8|16663152|1792000000|Microsoft Windows 11 Pro");
+
+        assertEquals(new SystemInventory("DESKTOP-PIO", "Microsoft Windows 11 Pro", 8, 16663152, 1792000000L),
+            inventory);
+    }
+
+    @Test
+    void osCaptionMayContainTheSeparator() {
+        SystemInventory inventory = SystemInventory.parse("I|PIO-PC|4|8388608|1792000000|Windows 10 | Edizione N ");
+
+        assertEquals("Windows 10 | Edizione N", inventory.os());
+        assertEquals(4, inventory.cores());
+        assertEquals(8388608, inventory.totalRamKb());
+    }
+
+    @Test
+    void rejectsWmiErrorsAndMalformedLines() {
+        assertNull(SystemInventory.parse(null));
+        assertNull(SystemInventory.parse("Get-CimInstance : Classe non valida"));
+        // Win32_ComputerSystem non letto: campi vuoti
+        assertNull(SystemInventory.parse("I|PIO-PC||||"));
+        assertNull(SystemInventory.parse("I|PIO-PC|4|8388608|1792000000"));
+        assertNull(SystemInventory.parse("S|12|4194304"));
+    }
+
+    @Test
+    void rejectsNonPositiveRam() {
+        assertNull(SystemInventory.parse("I|PIO-PC|4|0|1792000000|Windows 11"));
+        assertNull(SystemInventory.parse("I|PIO-PC|4|-8388608|1792000000|Windows 11"));
+    }
+
+    @Test
+    void putsUptimeFromBootTime() {
+        SystemInventory inventory = new SystemInventory("PIO-PC", "", 4, 8388608, 1792000000L);
+        Map<String, String> info = new HashMap<>();
+        inventory.putInto(info, (1792000000L + 2 * 86400 + 3 * 3600 + 5 * 60 + 59) * 1000);
+
+        assertEquals("2 giorni, 3 ore, 5 minuti", info.get("uptime"));
+        assertEquals("8192 MB", info.get("totalRam"));
+        assertEquals("2026-10-14T17:46:40Z", info.get("bootTime"));
+        assertFalse(info.containsKey("os")); // Caption vuota: nessun campo
+    }
+}